@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-api
+ *
+ * work-presentation-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.api.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Helpers for statements that operate on many rows at once
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+final class BulkStatements {
+
+    // Max number of rows in a bulk statement, keeps the number of bind
+    // parameters well below what the JDBC driver allows
+    static final int CHUNK_SIZE = 500;
+
+    private BulkStatements() {
+    }
+
+    /**
+     * Split a collection into lists of at most {@link #CHUNK_SIZE} elements
+     *
+     * @param <T>        element type
+     * @param collection elements
+     * @return list of chunks (empty if the collection is empty)
+     */
+    static <T> List<List<T>> chunks(Collection<T> collection) {
+        ArrayList<List<T>> chunks = new ArrayList<>();
+        ArrayList<T> chunk = new ArrayList<>(Integer.min(CHUNK_SIZE, collection.size()));
+        for (T t : collection) {
+            if (chunk.size() == CHUNK_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+            chunk.add(t);
+        }
+        if (!chunk.isEmpty())
+            chunks.add(chunk);
+        return chunks;
+    }
+
+    /**
+     * Make the VALUES part of a multi row insert, with numbered parameters
+     *
+     * @param sql     where to append the values
+     * @param rows    number of rows
+     * @param columns number of values in each row
+     * @param casts   optional cast for each column (null for none)
+     * @return the sql builder
+     */
+    static StringBuilder values(StringBuilder sql, int rows, int columns, String... casts) {
+        sql.append(" VALUES ");
+        int pos = 1;
+        for (int row = 0 ; row < rows ; row++) {
+            sql.append(row == 0 ? "(" : ", (");
+            for (int column = 0 ; column < columns ; column++) {
+                if (column != 0)
+                    sql.append(", ");
+                String cast = column < casts.length ? casts[column] : null;
+                if (cast == null) {
+                    sql.append('?').append(pos++);
+                } else {
+                    sql.append("CAST(?").append(pos++).append(" AS ").append(cast).append(')');
+                }
+            }
+            sql.append(')');
+        }
+        return sql;
+    }
+}
@@ -25,6 +25,11 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import javax.persistence.AttributeConverter;
 import javax.persistence.Column;
@@ -34,6 +39,9 @@ import javax.persistence.Entity;
 import javax.persistence.EntityManager;
 import javax.persistence.Id;
 import javax.persistence.LockModeType;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
@@ -44,11 +52,23 @@ import org.postgresql.util.PGobject;
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
 @Entity
-@Table(name = "cacheV" + JsonSchemaVersion.VERSION)
+@Table(name = CacheEntity.TABLE_NAME)
+@NamedQueries({
+    @NamedQuery(
+            name = "cacheWithManifestationIds",
+            query = "SELECT c FROM CacheEntity c WHERE c.manifestationId IN :manifestationIds"
+    ),
+    @NamedQuery(
+            name = "deleteCacheWithManifestationIds",
+            query = "DELETE FROM CacheEntity c WHERE c.manifestationId IN :manifestationIds"
+    )
+})
 public class CacheEntity implements Serializable {
 
     private static final long serialVersionUID = 0x8b861b42b964b770L;
 
+    static final String TABLE_NAME = "cacheV" + JsonSchemaVersion.VERSION;
+
     @Version
     int version;
 
@@ -66,11 +86,24 @@ public class CacheEntity implements Serializable {
     @Transient
     transient boolean persist;
 
+    @Transient
+    transient boolean changed;
+
     @Transient
     transient EntityManager em;
 
+    /**
+     * Load an entity for updating
+     * <p>
+     * The version is only incremented if the entity is changed, so saving
+     * an unchanged entity doesn't write to the database
+     *
+     * @param em              entity manager
+     * @param manifestationId the key
+     * @return entity (new if none exists)
+     */
     public static CacheEntity from(EntityManager em, String manifestationId) {
-        CacheEntity entity = em.find(CacheEntity.class, manifestationId, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+        CacheEntity entity = em.find(CacheEntity.class, manifestationId, LockModeType.OPTIMISTIC);
         if (entity == null) {
             entity = new CacheEntity(manifestationId);
         }
@@ -87,6 +120,123 @@ public class CacheEntity implements Serializable {
         return entity;
     }
 
+    /**
+     * Load a number of entities read only, in as few queries as possible
+     *
+     * @param em               entity manager
+     * @param manifestationIds the keys
+     * @return map of manifestationId to entity, for those that exist
+     */
+    public static Map<String, CacheEntity> detachedFrom(EntityManager em, Collection<String> manifestationIds) {
+        HashMap<String, CacheEntity> entities = new HashMap<>();
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            List<CacheEntity> list = em.createNamedQuery("cacheWithManifestationIds", CacheEntity.class)
+                    .setParameter("manifestationIds", chunk)
+                    .setLockMode(LockModeType.NONE)
+                    .getResultList();
+            for (CacheEntity entity : list) {
+                em.detach(entity);
+                entity.em = null;
+                entities.put(entity.manifestationId, entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Get the modified timestamp of a number of entities, without loading
+     * the content
+     * <p>
+     * The ids are bound as one array parameter, so this is a single query
+     * regardless of the number of ids
+     *
+     * @param em               entity manager
+     * @param manifestationIds the keys
+     * @return map of manifestationId to modified, for those that exist
+     */
+    public static Map<String, Timestamp> modifiedOf(EntityManager em, Collection<String> manifestationIds) {
+        HashMap<String, Timestamp> modified = new HashMap<>();
+        if (manifestationIds.isEmpty())
+            return modified;
+        List<Object[]> rows = em.createNativeQuery(
+                "SELECT manifestationId, modified FROM " + TABLE_NAME +
+                " WHERE manifestationId = ANY(?1)")
+                .setParameter(1, manifestationIds.toArray(String[]::new))
+                .getResultList();
+        rows.forEach(row -> modified.put((String) row[0], (Timestamp) row[1]));
+        return modified;
+    }
+
+    /**
+     * Write a number of entities, in as few statements as possible
+     * <p>
+     * Rows are inserted, or replaced if they exist and are older. This makes
+     * concurrent writes of the same content idempotent, without the need for
+     * locking. This bypasses the entity manager, and entities from it, should
+     * not be used afterwards.
+     *
+     * @param em       entity manager
+     * @param entities the content to write
+     * @return number of rows written (not skipped as already up to date)
+     */
+    public static int upsert(EntityManager em, Collection<CacheEntity> entities) {
+        // Distinct, a row cannot be updated twice in one statement
+        LinkedHashMap<String, CacheEntity> distinct = new LinkedHashMap<>();
+        entities.forEach(entity -> distinct.put(entity.manifestationId, entity));
+        int written = 0;
+        for (List<CacheEntity> chunk : BulkStatements.chunks(distinct.values())) {
+            StringBuilder sql = new StringBuilder()
+                    .append("INSERT INTO ").append(TABLE_NAME).append(" (manifestationId, modified, content)");
+            BulkStatements.values(sql, chunk.size(), 3, null, null, "JSONB")
+                    .append(" ON CONFLICT (manifestationId) DO UPDATE")
+                    .append(" SET modified = EXCLUDED.modified, content = EXCLUDED.content, version = ").append(TABLE_NAME).append(".version + 1")
+                    .append(" WHERE ").append(TABLE_NAME).append(".modified < EXCLUDED.modified");
+            Query query = em.createNativeQuery(sql.toString());
+            int pos = 1;
+            for (CacheEntity entity : chunk) {
+                query.setParameter(pos++, entity.manifestationId);
+                query.setParameter(pos++, entity.modified);
+                query.setParameter(pos++, JsonConverter.toJson(entity.content));
+            }
+            written += query.executeUpdate();
+        }
+        return written;
+    }
+
+    /**
+     * Remove a number of entities, in as few statements as possible
+     *
+     * @param em               entity manager
+     * @param manifestationIds the keys
+     * @return number of rows removed
+     */
+    public static int delete(EntityManager em, Collection<String> manifestationIds) {
+        int deleted = 0;
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            deleted += em.createNamedQuery("deleteCacheWithManifestationIds")
+                    .setParameter("manifestationIds", chunk)
+                    .executeUpdate();
+        }
+        return deleted;
+    }
+
+    /**
+     * Make a new entity, that isn't attached to an entity manager, for use
+     * with {@link #upsert(javax.persistence.EntityManager, java.util.Collection)}
+     *
+     * @param manifestationId the key
+     * @param modified        when the content was modified
+     * @param content         the content
+     * @return new entity
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    public static CacheEntity of(String manifestationId, Timestamp modified, ManifestationInformation content) {
+        CacheEntity entity = new CacheEntity(manifestationId);
+        entity.modified = modified;
+        entity.content = content;
+        return entity;
+    }
+
     protected CacheEntity() {
         this.persist = false;
     }
@@ -112,7 +262,10 @@ public class CacheEntity implements Serializable {
 
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public void setModified(Timestamp modified) {
-        this.modified = modified;
+        if (!Objects.equals(this.modified, modified)) {
+            this.modified = modified;
+            this.changed = true;
+        }
     }
 
     @SuppressFBWarnings("EI_EXPOSE_REP")
@@ -122,16 +275,28 @@ public class CacheEntity implements Serializable {
 
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public void setContent(ManifestationInformation content) {
-        this.content = content;
+        if (!Objects.equals(this.content, content)) {
+            this.content = content;
+            this.changed = true;
+        }
     }
 
-    public void save() {
+    /**
+     * Write the entity to the database, unless it is unchanged
+     *
+     * @return if the entity has been written
+     */
+    public boolean save() {
         if (persist) {
             em.persist(this);
-        } else {
+        } else if (changed) {
             em.merge(this);
+        } else {
+            return false;
         }
         persist = false;
+        changed = false;
+        return true;
     }
 
     public void delete() {
@@ -179,6 +344,14 @@ public class CacheEntity implements Serializable {
 
         private static final ObjectMapper O = new ObjectMapper();
 
+        private static String toJson(ManifestationInformation content) throws IllegalStateException {
+            try {
+                return O.writeValueAsString(content);
+            } catch (JsonProcessingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
         @Override
         public PGobject convertToDatabaseColumn(ManifestationInformation content) throws IllegalStateException {
             try {
@@ -20,9 +20,12 @@ package dk.dbc.search.work.presentation.api.jpa;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import javax.persistence.Column;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
@@ -30,16 +33,20 @@ import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.Query;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.persistence.Version;
 
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
 /**
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
 @Entity
-@Table(name = "workContainsV" + JsonSchemaVersion.VERSION)
+@Table(name = WorkContainsEntity.TABLE_NAME)
 @NamedQueries({
     @NamedQuery(
             name = "allWithCorepoWorkId",
@@ -48,12 +55,26 @@ import javax.persistence.Version;
     @NamedQuery(
             name = "withManifestationId",
             query = "SELECT w FROM WorkContainsEntity w WHERE w.manifestationId = :manifestationId"
+    ),
+    @NamedQuery(
+            name = "workIdsWithCorepoWorkId",
+            query = "SELECT w.manifestationId, w.corepoWorkId FROM WorkContainsEntity w WHERE w.corepoWorkId = :corepoWorkId"
+    ),
+    @NamedQuery(
+            name = "workIdsWithCorepoWorkIdOrManifestationIds",
+            query = "SELECT w.manifestationId, w.corepoWorkId FROM WorkContainsEntity w WHERE w.corepoWorkId = :corepoWorkId OR w.manifestationId IN :manifestationIds"
+    ),
+    @NamedQuery(
+            name = "deleteWithCorepoWorkIdAndManifestationIds",
+            query = "DELETE FROM WorkContainsEntity w WHERE w.corepoWorkId = :corepoWorkId AND w.manifestationId IN :manifestationIds"
     )
 })
 public class WorkContainsEntity implements Serializable {
 
     private static final long serialVersionUID = 0x1d74b2313c990594L;
 
+    static final String TABLE_NAME = "workContainsV" + JsonSchemaVersion.VERSION;
+
     @Version
     int version;
 
@@ -135,14 +156,117 @@ public class WorkContainsEntity implements Serializable {
      * @param works        The elements that comprises this work
      */
     public static void updateToList(EntityManager em, String corepoWorkId, Collection<WorkContainsEntity> works) {
-        HashSet<WorkContainsEntity> existing = new HashSet<>(listFrom(em, corepoWorkId));
-        works.forEach(w -> {
-            existing.remove(w);
-            w.save();
-        });
-        existing.forEach(w -> {
-            w.delete();
-        });
+        Set<String> manifestationIds = works.stream()
+                .map(WorkContainsEntity::getManifestationId)
+                .collect(toSet());
+        updateToManifestationIds(em, corepoWorkId, manifestationIds);
+    }
+
+    /**
+     * Ensure that the database only contains the given manifestations for a
+     * work after commit
+     * <p>
+     * This is done using one query to find the difference, and bulk statements
+     * for inserting/moving and removing manifestations. Entities from the
+     * entity manager should not be used afterwards.
+     *
+     * @param em               EntityManager
+     * @param corepoWorkId     The common work id for all the manifestations
+     * @param manifestationIds The manifestations that comprises this work
+     * @return map of manifestationId to previous corepoWorkId for all the
+     *         manifestations that were in the work or are in the work now
+     *         (if they existed)
+     */
+    public static Map<String, String> updateToManifestationIds(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        Map<String, String> existing = corepoWorkIdsOf(em, corepoWorkId, manifestationIds);
+        Set<String> wanted = new HashSet<>(manifestationIds);
+        List<String> removed = existing.entrySet().stream()
+                .filter(e -> corepoWorkId.equals(e.getValue()))
+                .map(Map.Entry::getKey)
+                .filter(m -> !wanted.contains(m))
+                .collect(toList());
+        List<String> added = manifestationIds.stream()
+                .distinct()
+                .filter(m -> !corepoWorkId.equals(existing.get(m)))
+                .collect(toList());
+        delete(em, corepoWorkId, removed);
+        upsert(em, corepoWorkId, added);
+        return existing;
+    }
+
+    /**
+     * Find which works the manifestations of a work, and a set of
+     * manifestations belong to
+     *
+     * @param em               EntityManager
+     * @param corepoWorkId     The work
+     * @param manifestationIds Manifestations that might belong elsewhere
+     * @return map of manifestationId to corepoWorkId
+     */
+    public static Map<String, String> corepoWorkIdsOf(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        HashMap<String, String> existing = new HashMap<>();
+        if (manifestationIds.isEmpty()) {
+            em.createNamedQuery("workIdsWithCorepoWorkId", Object[].class)
+                    .setParameter("corepoWorkId", corepoWorkId)
+                    .getResultList()
+                    .forEach(row -> existing.put((String) row[0], (String) row[1]));
+        } else {
+            for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+                em.createNamedQuery("workIdsWithCorepoWorkIdOrManifestationIds", Object[].class)
+                        .setParameter("corepoWorkId", corepoWorkId)
+                        .setParameter("manifestationIds", chunk)
+                        .getResultList()
+                        .forEach(row -> existing.put((String) row[0], (String) row[1]));
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Add manifestations to a work, moving them from other works if needed
+     *
+     * @param em               EntityManager
+     * @param corepoWorkId     The work
+     * @param manifestationIds The manifestations to add (distinct)
+     * @return number of rows inserted or moved
+     */
+    public static int upsert(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        int written = 0;
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            StringBuilder sql = new StringBuilder()
+                    .append("INSERT INTO ").append(TABLE_NAME).append(" (corepoWorkId, manifestationId)");
+            BulkStatements.values(sql, chunk.size(), 2)
+                    .append(" ON CONFLICT (manifestationId) DO UPDATE")
+                    .append(" SET corepoWorkId = EXCLUDED.corepoWorkId, version = ").append(TABLE_NAME).append(".version + 1")
+                    .append(" WHERE ").append(TABLE_NAME).append(".corepoWorkId <> EXCLUDED.corepoWorkId");
+            Query query = em.createNativeQuery(sql.toString());
+            int pos = 1;
+            for (String manifestationId : chunk) {
+                query.setParameter(pos++, corepoWorkId);
+                query.setParameter(pos++, manifestationId);
+            }
+            written += query.executeUpdate();
+        }
+        return written;
+    }
+
+    /**
+     * Remove manifestations from a work
+     *
+     * @param em               EntityManager
+     * @param corepoWorkId     The work
+     * @param manifestationIds The manifestations to remove
+     * @return number of rows removed
+     */
+    public static int delete(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        int deleted = 0;
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            deleted += em.createNamedQuery("deleteWithCorepoWorkIdAndManifestationIds")
+                    .setParameter("corepoWorkId", corepoWorkId)
+                    .setParameter("manifestationIds", chunk)
+                    .executeUpdate();
+        }
+        return deleted;
     }
 
     protected WorkContainsEntity() {
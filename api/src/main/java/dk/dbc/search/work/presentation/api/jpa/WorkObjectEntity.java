@@ -21,6 +21,7 @@ package dk.dbc.search.work.presentation.api.jpa;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import dk.dbc.search.work.presentation.api.pojo.WorkPartials;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.postgresql.util.PGobject;
 
@@ -37,24 +38,40 @@ import javax.persistence.Version;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import javax.persistence.LockModeType;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 
+import static java.util.stream.Collectors.toList;
+
 /**
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
 @Entity
-@Table(name = "workObjectV" + JsonSchemaVersion.VERSION)
-@NamedQuery(
-        name = "withCorepoWorkId",
-        query = "SELECT r FROM WorkObjectEntity r WHERE r.corepoWorkId = :corepoWorkId"
-)
+@Table(name = WorkObjectEntity.TABLE_NAME)
+@NamedQueries({
+    @NamedQuery(
+            name = "withCorepoWorkId",
+            query = "SELECT r FROM WorkObjectEntity r WHERE r.corepoWorkId = :corepoWorkId"
+    ),
+    @NamedQuery(
+            name = "fingerprintWithCorepoWorkId",
+            query = "SELECT r.fingerprint FROM WorkObjectEntity r WHERE r.corepoWorkId = :corepoWorkId"
+    )
+})
 public class WorkObjectEntity implements Serializable {
 
     private static final long serialVersionUID = 0x6d07e1639b2ced36L;
 
+    static final String TABLE_NAME = "workObjectV" + JsonSchemaVersion.VERSION;
+    static final String DELETED_TABLE_NAME = "workDeletedV" + JsonSchemaVersion.VERSION;
+
     @Version
     int version;
 
@@ -72,16 +89,36 @@ public class WorkObjectEntity implements Serializable {
     @Convert(converter = WorkObjectEntity.JsonConverter.class)
     private WorkInformation content;
 
+    @Column
+    private String fingerprint;
+
+    @Column
+    @Convert(converter = WorkObjectEntity.PartialsConverter.class)
+    private WorkPartials partials;
+
     @Transient
     transient boolean persist;
 
+    @Transient
+    transient boolean changed;
+
     @Transient
     transient EntityManager em;
 
+    /**
+     * Load an entity for updating
+     * <p>
+     * The version is only incremented if the entity is changed, so saving
+     * an unchanged entity doesn't write to the database
+     *
+     * @param em               entity manager
+     * @param persistentWorkId the key
+     * @return entity (new if none exists)
+     */
     public static WorkObjectEntity from(EntityManager em, String persistentWorkId) {
         WorkObjectEntity entity = em.find(WorkObjectEntity.class,
                                           persistentWorkId,
-                                          LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+                                          LockModeType.OPTIMISTIC);
         if (entity == null) {
             entity = new WorkObjectEntity(persistentWorkId);
         }
@@ -101,7 +138,7 @@ public class WorkObjectEntity implements Serializable {
     public static WorkObjectEntity fromCorepoWorkId(EntityManager em, String corepoWorkId) {
         WorkObjectEntity entity = em.createNamedQuery("withCorepoWorkId", WorkObjectEntity.class)
                 .setParameter("corepoWorkId", corepoWorkId)
-                .setLockMode(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+                .setLockMode(LockModeType.OPTIMISTIC)
                 .setMaxResults(1)
                 .getResultStream()
                 .findAny()
@@ -124,6 +161,132 @@ public class WorkObjectEntity implements Serializable {
         return entity;
     }
 
+    /**
+     * Load an entity read only, without any locking
+     *
+     * @param em           entity manager
+     * @param corepoWorkId corepo-work-id of the work
+     * @return entity (detached) or null if none exists
+     */
+    public static WorkObjectEntity detachedFromCorepoWorkId(EntityManager em, String corepoWorkId) {
+        WorkObjectEntity entity = em.createNamedQuery("withCorepoWorkId", WorkObjectEntity.class)
+                .setParameter("corepoWorkId", corepoWorkId)
+                .setLockMode(LockModeType.NONE)
+                .setMaxResults(1)
+                .getResultStream()
+                .findAny()
+                .orElse(null);
+        if (entity != null)
+            em.detach(entity);
+        return entity;
+    }
+
+    /**
+     * Get the fingerprint of the work tree, a work was built from, without
+     * loading the work
+     *
+     * @param em           entity manager
+     * @param corepoWorkId corepo-work-id of the work
+     * @return fingerprint or null if none exists
+     */
+    public static String fingerprintFromCorepoWorkId(EntityManager em, String corepoWorkId) {
+        return em.createNamedQuery("fingerprintWithCorepoWorkId", String.class)
+                .setParameter("corepoWorkId", corepoWorkId)
+                .setMaxResults(1)
+                .getResultStream()
+                .findAny()
+                .orElse(null);
+    }
+
+    /**
+     * Get the modified timestamp of a number of works, without loading the
+     * content
+     * <p>
+     * The ids are bound as one array parameter, so this is a single query
+     * regardless of the number of ids
+     *
+     * @param em                entity manager
+     * @param persistentWorkIds the keys
+     * @return map of persistentWorkId to modified, for those that exist
+     */
+    public static Map<String, Timestamp> modifiedOf(EntityManager em, Collection<String> persistentWorkIds) {
+        HashMap<String, Timestamp> modified = new HashMap<>();
+        if (persistentWorkIds.isEmpty())
+            return modified;
+        List<Object[]> rows = em.createNativeQuery(
+                "SELECT persistentWorkId, modified FROM " + TABLE_NAME +
+                " WHERE persistentWorkId = ANY(?1)")
+                .setParameter(1, persistentWorkIds.toArray(String[]::new))
+                .getResultList();
+        rows.forEach(row -> modified.put((String) row[0], (Timestamp) row[1]));
+        return modified;
+    }
+
+    /**
+     * Get the works that have changed after a position in the change feed
+     * <p>
+     * Only changes made by transactions older than any running transaction
+     * are included, so no change can appear before the last one returned,
+     * later on. Deleted works are included (from the tombstones the delete
+     * trigger leaves) with the modified time they had when they were deleted.
+     *
+     * @param em               entity manager
+     * @param changeTxid       the transaction id of the position
+     * @param persistentWorkId the work id of the position
+     * @param limit            max number of changes
+     * @return list of changes in order
+     */
+    public static List<Change> changesAfter(EntityManager em, long changeTxid, String persistentWorkId, int limit) {
+        List<Object[]> rows = em.createNativeQuery(
+                "SELECT persistentWorkId, modified, changeTxid, deleted FROM (" +
+                " (" + changesAfterQuery(TABLE_NAME, false) + ")" +
+                " UNION ALL" +
+                " (" + changesAfterQuery(DELETED_TABLE_NAME, true) + ")" +
+                ") AS changes" +
+                " ORDER BY changeTxid, persistentWorkId" +
+                " LIMIT ?3")
+                .setParameter(1, changeTxid)
+                .setParameter(2, persistentWorkId)
+                .setParameter(3, limit)
+                .getResultList();
+        return rows.stream()
+                .map(row -> new Change((String) row[0], (Timestamp) row[1], ( (Number) row[2] ).longValue(), (Boolean) row[3]))
+                .collect(toList());
+    }
+
+    private static String changesAfterQuery(String table, boolean deleted) {
+        return "SELECT persistentWorkId, modified, changeTxid, " + deleted + " AS deleted FROM " + table +
+               " WHERE (changeTxid, persistentWorkId) > (?1, ?2)" +
+               " AND changeTxid < txid_snapshot_xmin(txid_current_snapshot())" +
+               " ORDER BY changeTxid, persistentWorkId" +
+               " LIMIT ?3";
+    }
+
+    /**
+     * Remove tombstones of works deleted before a point in time
+     * <p>
+     * Followers of the change feed, with a cursor from before that, will not
+     * see those deletes. At most limit tombstones are removed, and those
+     * locked by other transactions are skipped, so concurrent callers don't
+     * wait for each other.
+     *
+     * @param em     entity manager
+     * @param before when the oldest tombstone to keep was made
+     * @param limit  max number of tombstones to remove
+     * @return number of tombstones removed
+     */
+    public static int pruneDeleted(EntityManager em, Timestamp before, int limit) {
+        return em.createNativeQuery(
+                "DELETE FROM " + DELETED_TABLE_NAME + " WHERE persistentWorkId IN (" +
+                " SELECT persistentWorkId FROM " + DELETED_TABLE_NAME +
+                " WHERE deleted < ?1" +
+                " LIMIT ?2" +
+                " FOR UPDATE SKIP LOCKED)")
+                .setParameter(1, before)
+                .setParameter(2, limit)
+                .executeUpdate();
+    }
+
     protected WorkObjectEntity() {
         this.persist = false;
     }
@@ -143,13 +306,22 @@ public class WorkObjectEntity implements Serializable {
         this.persist = true;
     }
 
-    public void save() {
+    /**
+     * Write the entity to the database, unless it is unchanged
+     *
+     * @return if the entity has been written
+     */
+    public boolean save() {
         if (persist) {
             em.persist(this);
-        } else {
+        } else if (changed) {
             em.merge(this);
+        } else {
+            return false;
         }
         persist = false;
+        changed = false;
+        return true;
     }
 
     public void delete() {
@@ -173,7 +345,10 @@ public class WorkObjectEntity implements Serializable {
     }
 
     public void setCorepoWorkId(String corepoWorkId) {
-        this.corepoWorkId = corepoWorkId;
+        if (!Objects.equals(this.corepoWorkId, corepoWorkId)) {
+            this.corepoWorkId = corepoWorkId;
+            this.changed = true;
+        }
     }
 
     @SuppressFBWarnings("EI_EXPOSE_REP")
@@ -183,7 +358,10 @@ public class WorkObjectEntity implements Serializable {
 
     @SuppressFBWarnings("EI_EXPOSE_REP2")
     public void setModified(Timestamp modified) {
-        this.modified = modified;
+        if (!Objects.equals(this.modified, modified)) {
+            this.modified = modified;
+            this.changed = true;
+        }
     }
 
     public WorkInformation getContent() {
@@ -191,7 +369,32 @@ public class WorkObjectEntity implements Serializable {
     }
 
     public void setContent(WorkInformation content) {
-        this.content = content;
+        if (!Objects.equals(this.content, content)) {
+            this.content = content;
+            this.changed = true;
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        if (!Objects.equals(this.fingerprint, fingerprint)) {
+            this.fingerprint = fingerprint;
+            this.changed = true;
+        }
+    }
+
+    public WorkPartials getPartials() {
+        return partials;
+    }
+
+    public void setPartials(WorkPartials partials) {
+        if (!Objects.equals(this.partials, partials)) {
+            this.partials = partials;
+            this.changed = true;
+        }
     }
 
     @Override
@@ -201,6 +404,7 @@ public class WorkObjectEntity implements Serializable {
         hash = 47 * hash + Objects.hashCode(this.corepoWorkId);
         hash = 47 * hash + Objects.hashCode(this.modified);
         hash = 47 * hash + Objects.hashCode(this.content);
+        hash = 47 * hash + Objects.hashCode(this.fingerprint);
         hash = 47 * hash + this.version;
         return hash;
     }
@@ -216,6 +420,7 @@ public class WorkObjectEntity implements Serializable {
                Objects.equals(this.persistentWorkId, other.persistentWorkId) &&
                Objects.equals(this.corepoWorkId, other.corepoWorkId) &&
                Objects.equals(this.content, other.content) &&
+               Objects.equals(this.fingerprint, other.fingerprint) &&
                Objects.equals(this.modified, other.modified);
     }
 
@@ -224,6 +429,47 @@ public class WorkObjectEntity implements Serializable {
         return "RecordEntity{" + "persistentWorkId=" + persistentWorkId + ", corepoWorkId=" + corepoWorkId + ", modified=" + modified + ", version=" + version + '}';
     }
 
+    /**
+     * An entry in the change feed
+     */
+    public static class Change {
+
+        private final String persistentWorkId;
+        private final Timestamp modified;
+        private final long changeTxid;
+        private final boolean deleted;
+
+        @SuppressFBWarnings("EI_EXPOSE_REP2")
+        public Change(String persistentWorkId, Timestamp modified, long changeTxid, boolean deleted) {
+            this.persistentWorkId = persistentWorkId;
+            this.modified = modified;
+            this.changeTxid = changeTxid;
+            this.deleted = deleted;
+        }
+
+        public String getPersistentWorkId() {
+            return persistentWorkId;
+        }
+
+        @SuppressFBWarnings("EI_EXPOSE_REP")
+        public Timestamp getModified() {
+            return modified;
+        }
+
+        public long getChangeTxid() {
+            return changeTxid;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        @Override
+        public String toString() {
+            return "Change{" + "persistentWorkId=" + persistentWorkId + ", modified=" + modified + ", changeTxid=" + changeTxid + ", deleted=" + deleted + '}';
+        }
+    }
+
     @Converter
     public static class JsonConverter implements AttributeConverter<WorkInformation, PGobject> {
 
@@ -257,4 +503,38 @@ public class WorkObjectEntity implements Serializable {
             }
         }
     }
+
+    @Converter
+    public static class PartialsConverter implements AttributeConverter<WorkPartials, PGobject> {
+
+        private static final ObjectMapper O = new ObjectMapper();
+
+        @Override
+        public PGobject convertToDatabaseColumn(WorkPartials partials) throws IllegalStateException {
+            try {
+                final PGobject res = new PGobject();
+                res.setType("jsonb");
+                if (partials == null) {
+                    res.setValue(null);
+                } else {
+                    res.setValue(O.writeValueAsString(partials));
+                }
+                return res;
+            } catch (SQLException | JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public WorkPartials convertToEntityAttribute(PGobject pgObject) {
+            if (pgObject == null || pgObject.getValue() == null) {
+                return null;
+            }
+            try {
+                return O.readValue(pgObject.getValue(), WorkPartials.class);
+            } catch (JsonProcessingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-api
+ *
+ * work-presentation-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.api.jpa;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
+import javax.persistence.Table;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reverse index of relations
+ * <p>
+ * For every manifestation, that is embedded as a relation in a work, this
+ * has the corepoWorkIds of the works that embed it.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Entity
+@Table(name = WorkRelationEntity.TABLE_NAME)
+@NamedQueries({
+    @NamedQuery(
+            name = "relationManifestationIdsWithCorepoWorkId",
+            query = "SELECT w.pk.manifestationId FROM WorkRelationEntity w WHERE w.pk.corepoWorkId = :corepoWorkId"
+    ),
+    @NamedQuery(
+            name = "relationCorepoWorkIdsWithManifestationIds",
+            query = "SELECT DISTINCT w.pk.corepoWorkId FROM WorkRelationEntity w WHERE w.pk.manifestationId IN :manifestationIds"
+    ),
+    @NamedQuery(
+            name = "deleteRelationsWithCorepoWorkIdAndManifestationIds",
+            query = "DELETE FROM WorkRelationEntity w WHERE w.pk.corepoWorkId = :corepoWorkId AND w.pk.manifestationId IN :manifestationIds"
+    )
+})
+public class WorkRelationEntity implements Serializable {
+
+    private static final long serialVersionUID = 0x2b7f6c09e4d1a853L;
+
+    static final String TABLE_NAME = "workRelationsV" + JsonSchemaVersion.VERSION;
+
+    @EmbeddedId
+    private WorkRelationKey pk;
+
+    /**
+     * Ensure that the database only contains the given relation
+     * manifestations for a work after commit
+     * <p>
+     * This is done using one query to find the difference, and bulk statements
+     * for inserting and removing rows.
+     *
+     * @param em               EntityManager
+     * @param corepoWorkId     The work
+     * @param manifestationIds The manifestations that the work has relations
+     *                         to
+     */
+    public static void updateToManifestationIds(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        Set<String> existing = new HashSet<>(
+                em.createNamedQuery("relationManifestationIdsWithCorepoWorkId", String.class)
+                        .setParameter("corepoWorkId", corepoWorkId)
+                        .getResultList());
+        Set<String> wanted = new HashSet<>(manifestationIds);
+        List<String> removed = existing.stream()
+                .filter(m -> !wanted.contains(m))
+                .collect(toList());
+        List<String> added = wanted.stream()
+                .filter(m -> !existing.contains(m))
+                .collect(toList());
+        delete(em, corepoWorkId, removed);
+        insert(em, corepoWorkId, added);
+    }
+
+    /**
+     * Find the works, that have relations to any of a number of
+     * manifestations
+     *
+     * @param em               EntityManager
+     * @param manifestationIds The relation targets
+     * @return set of corepoWorkIds
+     */
+    public static Set<String> corepoWorkIdsWithRelationsTo(EntityManager em, Collection<String> manifestationIds) {
+        HashSet<String> corepoWorkIds = new HashSet<>();
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            corepoWorkIds.addAll(em.createNamedQuery("relationCorepoWorkIdsWithManifestationIds", String.class)
+                    .setParameter("manifestationIds", chunk)
+                    .getResultList());
+        }
+        return corepoWorkIds;
+    }
+
+    private static int insert(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        int written = 0;
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            StringBuilder sql = new StringBuilder()
+                    .append("INSERT INTO ").append(TABLE_NAME).append(" (corepoWorkId, manifestationId)");
+            BulkStatements.values(sql, chunk.size(), 2)
+                    .append(" ON CONFLICT DO NOTHING");
+            Query query = em.createNativeQuery(sql.toString());
+            int pos = 1;
+            for (String manifestationId : chunk) {
+                query.setParameter(pos++, corepoWorkId);
+                query.setParameter(pos++, manifestationId);
+            }
+            written += query.executeUpdate();
+        }
+        return written;
+    }
+
+    private static int delete(EntityManager em, String corepoWorkId, Collection<String> manifestationIds) {
+        int deleted = 0;
+        for (List<String> chunk : BulkStatements.chunks(manifestationIds)) {
+            deleted += em.createNamedQuery("deleteRelationsWithCorepoWorkIdAndManifestationIds")
+                    .setParameter("corepoWorkId", corepoWorkId)
+                    .setParameter("manifestationIds", chunk)
+                    .executeUpdate();
+        }
+        return deleted;
+    }
+
+    protected WorkRelationEntity() {
+        this.pk = new WorkRelationKey();
+    }
+
+    public String getCorepoWorkId() {
+        return pk.getCorepoWorkId();
+    }
+
+    public String getManifestationId() {
+        return pk.getManifestationId();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(this.pk);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        final WorkRelationEntity other = (WorkRelationEntity) obj;
+        return Objects.equals(this.pk, other.pk);
+    }
+
+    @Override
+    public String toString() {
+        return "WorkRelationEntity{" + "corepoWorkId=" + getCorepoWorkId() + ", manifestationId=" + getManifestationId() + '}';
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-api
+ *
+ * work-presentation-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.api.pojo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Intermediate results of building a work, stored with the work, so that a
+ * work can be rebuilt from the units that has changed only
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@SuppressFBWarnings("UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WorkPartials implements Serializable {
+
+    private static final long serialVersionUID = 0x5a0c3e9b27d4f611L;
+
+    // Unit -> partial results
+    public Map<String, UnitPartial> units;
+
+    /**
+     * The parts of the work aggregates that come from one unit
+     */
+    @SuppressFBWarnings("UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class UnitPartial implements Serializable {
+
+        private static final long serialVersionUID = 0x1f6b7d2e4c9a3850L;
+
+        // Fingerprint of the unit tree, the results were built from
+        public String fingerprint;
+
+        // Union of the subjects of the manifestations in the unit
+        public Set<TypedValue> subjects;
+
+        // Series of the manifestations in the unit (one per manifestation
+        // that has a series), for counting
+        public List<SeriesInformation> series;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            UnitPartial that = (UnitPartial) o;
+            return Objects.equals(fingerprint, that.fingerprint) &&
+                   Objects.equals(subjects, that.subjects) &&
+                   Objects.equals(series, that.series);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, subjects, series);
+        }
+
+        @Override
+        public String toString() {
+            return "UnitPartial{" + "fingerprint=" + fingerprint + ", subjects=" + subjects + ", series=" + series + '}';
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        WorkPartials that = (WorkPartials) o;
+        return Objects.equals(units, that.units);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(units);
+    }
+
+    @Override
+    public String toString() {
+        return "WorkPartials{" + "units=" + units + '}';
+    }
+}
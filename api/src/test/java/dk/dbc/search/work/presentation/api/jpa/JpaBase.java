@@ -61,6 +61,7 @@ public abstract class JpaBase<BF extends AutoCloseable> {
     public static final String CACHE_TABLE_NAME = CacheEntity.class.getAnnotation(Table.class).name();
     public static final String WORK_CONTAINS_TABLE_NAME = WorkContainsEntity.class.getAnnotation(Table.class).name();
     public static final String WORK_OBJECT_TABLE_NAME = WorkObjectEntity.class.getAnnotation(Table.class).name();
+    public static final String WORK_RELATION_TABLE_NAME = WorkRelationEntity.class.getAnnotation(Table.class).name();
 
     private static EntityManagerFactory entityManagerFactory;
 
@@ -112,7 +113,9 @@ public abstract class JpaBase<BF extends AutoCloseable> {
         try (Connection connection = wpPg.createConnection() ;
              Statement stmt = connection.createStatement()) {
             stmt.executeUpdate("TRUNCATE " + WORK_OBJECT_TABLE_NAME);
+            stmt.executeUpdate("TRUNCATE " + WorkObjectEntity.DELETED_TABLE_NAME);
             stmt.executeUpdate("TRUNCATE " + WORK_CONTAINS_TABLE_NAME);
+            stmt.executeUpdate("TRUNCATE " + WORK_RELATION_TABLE_NAME);
             stmt.executeUpdate("TRUNCATE " + CACHE_TABLE_NAME);
         } catch (SQLException ex) {
             log.error("Could not clean database: {}", ex.getMessage());
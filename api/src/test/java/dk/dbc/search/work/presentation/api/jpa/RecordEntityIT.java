@@ -115,6 +115,97 @@ public class RecordEntityIT extends JpaBase<AutoCloseable> {
         });
     }
 
+    @Test
+    public void testUnchangedIsNotWritten() throws Exception {
+        System.out.println("testUnchangedIsNotWritten");
+
+        Timestamp modified = Timestamp.from(Instant.parse("2020-01-01T12:34:56.789Z"));
+        WorkInformation wi = new WorkInformation();
+        wi.workId = "work-of-y";
+        wi.title = "title";
+        jpa(em -> {
+            WorkObjectEntity rec = WorkObjectEntity.from(em, "work-of-y");
+            rec.setContent(wi);
+            rec.setCorepoWorkId("any");
+            rec.setModified(modified);
+            assertThat(rec.save(), is(true));
+        });
+        jpa(em -> {
+            WorkObjectEntity rec = WorkObjectEntity.from(em, "work-of-y");
+            WorkInformation same = new WorkInformation();
+            same.workId = "work-of-y";
+            same.title = "title";
+            rec.setContent(same);
+            rec.setCorepoWorkId("any");
+            rec.setModified(Timestamp.from(modified.toInstant()));
+            assertThat(rec.save(), is(false));
+        });
+        jpa(em -> {
+            WorkObjectEntity rec = WorkObjectEntity.from(em, "work-of-y");
+            assertThat(rec.version, is(0));
+            WorkInformation other = new WorkInformation();
+            other.workId = "work-of-y";
+            other.title = "other title";
+            rec.setContent(other);
+            assertThat(rec.save(), is(true));
+        });
+        jpa(em -> {
+            WorkObjectEntity rec = WorkObjectEntity.from(em, "work-of-y");
+            assertThat(rec.version, is(1));
+            assertThat(rec.getContent().title, is("other title"));
+        });
+    }
+
+    @Test
+    public void testBulkCache() throws Exception {
+        System.out.println("testBulkCache");
+
+        Timestamp modified = Timestamp.from(Instant.parse("2020-01-01T12:34:56.789Z"));
+        jpa(em -> {
+            int written = CacheEntity.upsert(em, Arrays.asList(
+                                             CacheEntity.of("bulk-a", modified, manifestation("bulk-a", "a")),
+                                             CacheEntity.of("bulk-b", modified, manifestation("bulk-b", "b"))));
+            assertThat(written, is(2));
+        });
+        jpa(em -> {
+            Map<String, CacheEntity> cached = CacheEntity.detachedFrom(em, Arrays.asList("bulk-a", "bulk-b", "bulk-c"));
+            assertThat(cached.keySet(), is(Set.of("bulk-a", "bulk-b")));
+            assertThat(cached.get("bulk-a").getContent().title, is("a"));
+            assertThat(cached.get("bulk-a").getModified(), is(modified));
+        });
+        Timestamp later = Timestamp.from(modified.toInstant().plusSeconds(60));
+        jpa(em -> {
+            int written = CacheEntity.upsert(em, Arrays.asList(
+                                             CacheEntity.of("bulk-a", later, manifestation("bulk-a", "A")),
+                                             CacheEntity.of("bulk-c", later, manifestation("bulk-c", "c"))));
+            assertThat(written, is(2));
+        });
+        jpa(em -> {
+            int written = CacheEntity.upsert(em, Arrays.asList(
+                                             CacheEntity.of("bulk-a", modified, manifestation("bulk-a", "stale")),
+                                             CacheEntity.of("bulk-c", later, manifestation("bulk-c", "same"))));
+            assertThat(written, is(0));
+        });
+        jpa(em -> {
+            CacheEntity a = CacheEntity.from(em, "bulk-a");
+            assertThat(a.getContent().title, is("A"));
+            assertThat(a.getModified(), is(later));
+            assertThat(a.version, is(1));
+            assertThat(CacheEntity.delete(em, Arrays.asList("bulk-a", "bulk-b", "bulk-x")), is(2));
+        });
+        jpa(em -> {
+            Map<String, CacheEntity> cached = CacheEntity.detachedFrom(em, Arrays.asList("bulk-a", "bulk-b", "bulk-c"));
+            assertThat(cached.keySet(), is(Set.of("bulk-c")));
+        });
+    }
+
+    private static ManifestationInformation manifestation(String manifestationId, String title) {
+        ManifestationInformation mi = new ManifestationInformation();
+        mi.manifestationId = manifestationId;
+        mi.title = title;
+        return mi;
+    }
+
     @Override
     public AutoCloseable createBeanFactory(Map<String, String> env, EntityManager em, EntityManagerFactory emf) {
         return () -> {
@@ -75,6 +75,36 @@ public class WorkContainsEntityIT extends JpaBase<AutoCloseable> {
         });
     }
 
+    @Test
+    public void moveManifestation() throws Exception {
+        System.out.println("moveManifestation");
+
+        System.out.println(" - Make two works");
+        jpa(em -> {
+            WorkContainsEntity.updateToManifestationIds(em, "work:1", List.of("a", "b"));
+            WorkContainsEntity.updateToManifestationIds(em, "work:2", List.of("c"));
+        });
+
+        System.out.println(" - Move a manifestation, and drop one");
+        jpa(em -> {
+            Map<String, String> old = WorkContainsEntity.updateToManifestationIds(em, "work:2", List.of("b", "c", "d"));
+            System.out.println("old = " + old);
+            assertThat(old, is(Map.of("b", "work:1", "c", "work:2")));
+            old = WorkContainsEntity.updateToManifestationIds(em, "work:1", List.of());
+            System.out.println("old = " + old);
+            assertThat(old, is(Map.of("a", "work:1")));
+        });
+
+        System.out.println(" - Verify works from database");
+        jpa(em -> {
+            assertThat(WorkContainsEntity.listFrom(em, "work:1"), empty());
+            List<String> manifestationIds = WorkContainsEntity.listFrom(em, "work:2").stream()
+                    .map(WorkContainsEntity::getManifestationId)
+                    .collect(toList());
+            assertThat(manifestationIds, containsInAnyOrder("b", "c", "d"));
+        });
+    }
+
     @Override
     public AutoCloseable createBeanFactory(Map<String, String> env, EntityManager em, EntityManagerFactory emf) {
         return () -> {
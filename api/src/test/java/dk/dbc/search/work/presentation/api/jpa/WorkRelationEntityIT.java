@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-api
+ *
+ * work-presentation-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.api.jpa;
+
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class WorkRelationEntityIT extends JpaBase<AutoCloseable> {
+
+    @Test
+    public void updateRelations() throws Exception {
+        System.out.println("updateRelations");
+
+        System.out.println(" - Make two works with relations");
+        jpa(em -> {
+            WorkRelationEntity.updateToManifestationIds(em, "work:1", List.of("a", "b"));
+            WorkRelationEntity.updateToManifestationIds(em, "work:2", List.of("b", "c"));
+        });
+
+        System.out.println(" - Verify reverse lookup");
+        jpa(em -> {
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("a")), containsInAnyOrder("work:1"));
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("b")), containsInAnyOrder("work:1", "work:2"));
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("c", "d")), containsInAnyOrder("work:2"));
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("d")), empty());
+        });
+
+        System.out.println(" - Change relations, and remove a work");
+        jpa(em -> {
+            WorkRelationEntity.updateToManifestationIds(em, "work:1", List.of("b", "d"));
+            WorkRelationEntity.updateToManifestationIds(em, "work:2", List.of());
+        });
+
+        System.out.println(" - Verify reverse lookup");
+        jpa(em -> {
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("a", "c")), empty());
+            assertThat(WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, List.of("b", "d")), containsInAnyOrder("work:1"));
+        });
+    }
+
+    @Override
+    public AutoCloseable createBeanFactory(Map<String, String> env, EntityManager em, EntityManagerFactory emf) {
+        return () -> {
+        };
+    }
+
+}
@@ -0,0 +1,5 @@
+-- Fingerprint of the work tree a work object is built from
+-- If a work tree has the same fingerprint, the work object doesn't need to
+-- be rebuilt. NULL (existing rows) never matches
+
+ALTER TABLE workObjectV4 ADD COLUMN fingerprint TEXT;
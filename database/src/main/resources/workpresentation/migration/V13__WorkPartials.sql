@@ -0,0 +1,5 @@
+-- Intermediate results of building a work, per unit
+-- Used for rebuilding only the units of a work, that has changed. NULL
+-- (existing rows) means the work is rebuilt from scratch
+
+ALTER TABLE workObjectV4 ADD COLUMN partials JSONB;
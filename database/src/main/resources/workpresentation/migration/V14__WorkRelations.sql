@@ -0,0 +1,11 @@
+-- Reverse index of relations: which works embed a manifestation in their
+-- dbRelUnits. When the content of a manifestation changes, the works
+-- that refer to it can be requeued, instead of requeuing everything
+
+CREATE TABLE workRelationsV4 (
+  corepoWorkId TEXT NOT NULL,
+  manifestationId TEXT NOT NULL,
+  PRIMARY KEY (manifestationId, corepoWorkId)
+);
+
+CREATE INDEX workRelationsV4_corepoWorkId ON workRelationsV4(corepoWorkId);
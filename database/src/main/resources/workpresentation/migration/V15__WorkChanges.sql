@@ -0,0 +1,24 @@
+-- Change feed of work objects
+-- changeTxid is the id of the transaction, that last changed the content
+-- (or modified) of a work. When every transaction before a changeTxid has
+-- completed, no more rows can appear before it, so (changeTxid,
+-- persistentWorkId) can be used as a cursor for following changes.
+-- Existing rows are all at the start of the feed
+
+ALTER TABLE workObjectV4 ADD COLUMN changeTxid BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX workObjectV4_changes ON workObjectV4(changeTxid, persistentWorkId);
+
+CREATE OR REPLACE FUNCTION workObjectV4_changeTxid() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP = 'INSERT' OR
+     NEW.content IS DISTINCT FROM OLD.content OR
+     NEW.modified IS DISTINCT FROM OLD.modified THEN
+    NEW.changeTxid = txid_current();
+  END IF;
+  RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER workObjectV4_changeTxid BEFORE INSERT OR UPDATE ON workObjectV4
+  FOR EACH ROW EXECUTE PROCEDURE workObjectV4_changeTxid();
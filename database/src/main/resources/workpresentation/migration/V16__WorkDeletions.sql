@@ -0,0 +1,30 @@
+-- Deleted works in the change feed
+-- When a work is deleted, a tombstone with the id of the deleting
+-- transaction (and the last modified of the work) is kept, so followers of
+-- the feed learn about it. Creating the work again removes the tombstone,
+-- the new row is later in the feed anyway
+
+CREATE TABLE workDeletedV4 (
+  persistentWorkId TEXT NOT NULL PRIMARY KEY,
+  modified TIMESTAMP NOT NULL,
+  changeTxid BIGINT NOT NULL
+);
+
+CREATE INDEX workDeletedV4_changes ON workDeletedV4(changeTxid, persistentWorkId);
+
+CREATE OR REPLACE FUNCTION workObjectV4_deleted() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    INSERT INTO workDeletedV4(persistentWorkId, modified, changeTxid)
+      VALUES(OLD.persistentWorkId, OLD.modified, txid_current())
+      ON CONFLICT (persistentWorkId) DO UPDATE
+        SET modified = EXCLUDED.modified, changeTxid = EXCLUDED.changeTxid;
+    RETURN OLD;
+  END IF;
+  DELETE FROM workDeletedV4 WHERE persistentWorkId = NEW.persistentWorkId;
+  RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER workObjectV4_deleted AFTER INSERT OR DELETE ON workObjectV4
+  FOR EACH ROW EXECUTE PROCEDURE workObjectV4_deleted();
@@ -0,0 +1,22 @@
+-- When a work was deleted
+-- Tombstones are only kept for a while (the worker prunes them), so a
+-- follower of the change feed, with a cursor older than that, has to resync.
+-- Existing tombstones are counted from now
+
+ALTER TABLE workDeletedV4 ADD COLUMN deleted TIMESTAMP NOT NULL DEFAULT now();
+
+CREATE INDEX workDeletedV4_deleted ON workDeletedV4(deleted);
+
+CREATE OR REPLACE FUNCTION workObjectV4_deleted() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    INSERT INTO workDeletedV4(persistentWorkId, modified, changeTxid, deleted)
+      VALUES(OLD.persistentWorkId, OLD.modified, txid_current(), now())
+      ON CONFLICT (persistentWorkId) DO UPDATE
+        SET modified = EXCLUDED.modified, changeTxid = EXCLUDED.changeTxid, deleted = EXCLUDED.deleted;
+    RETURN OLD;
+  END IF;
+  DELETE FROM workDeletedV4 WHERE persistentWorkId = NEW.persistentWorkId;
+  RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-javascript
+ *
+ * work-presentation-javascript is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-javascript is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.javascript;
+
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.api.pojo.SeriesInformation;
+import dk.dbc.search.work.presentation.api.pojo.TypedValue;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+/**
+ * A Java implementation of ManifestationInfo.use.js
+ * <p>
+ * Each data stream is read once using StAX, collecting only the parts of the
+ * dkabm:record (and adminData) that the JavaScript looks at. No DOM is built,
+ * no XPath is evaluated, and there's no JSON in between.
+ * <p>
+ * This has to produce the same output as the JavaScript, which
+ * JavaManifestationInformationExtractorTest checks. Changes to the JavaScript
+ * has to be mirrored here.
+ * <p>
+ * This is stateless, and can be shared between threads.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class JavaManifestationInformationExtractor implements ManifestationInformationExtractor {
+
+    private static final String AC = "http://biblstandard.dk/ac/namespace/";
+    private static final String DC = "http://purl.org/dc/elements/1.1/";
+    private static final String DCTERMS = "http://purl.org/dc/terms/";
+    private static final String DKABM = "http://biblstandard.dk/abm/namespace/dkabm/";
+    private static final String DKDCPLUS = "http://biblstandard.dk/abm/namespace/dkdcplus/";
+    private static final String OAI_DC = "http://www.openarchives.org/OAI/2.0/oai_dc/";
+    private static final String TING = "http://www.dbc.dk/ting";
+    private static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+    private static final String SAMMENSAT = "Sammensat materiale";
+
+    // As JavaScript: '^(.+) ; (.+)$' (. doesn't match line terminators)
+    private static final Pattern INSTALMENT = Pattern.compile("([^\\n\\r\\u2028\\u2029]+) ; ([^\\n\\r\\u2028\\u2029]+)");
+
+    private static final XMLInputFactory FACTORY = makeXMLInputFactory();
+
+    private static XMLInputFactory makeXMLInputFactory() {
+        synchronized (XMLInputFactory.class) {
+            XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    }
+
+    @Override
+    public ManifestationInformation extractManifestationInformation(String manifestationId, Map<String, String> xmlObjects) throws Exception {
+        String dcStream = xmlObjects.get("DC");
+        String commonStream = xmlObjects.get("commonData");
+        String localStream = xmlObjects.get("localData");
+        if (dcStream == null || dcStream.isEmpty() || commonStream == null || commonStream.isEmpty())
+            throw new IllegalArgumentException("ManifestationInfo.getManifestationInfoFromXmlObjects missing either commonData or DC stream");
+        List<String> dcTypes = dcTypes(dcStream);
+        Dkabm common = dkabm(commonStream, "container");
+        Dkabm local = localStream == null || localStream.isEmpty() ? new Dkabm() : dkabm(localStream, "localData");
+
+        ManifestationInformation mi = new ManifestationInformation();
+        mi.manifestationId = manifestationId;
+        mi.title = first(local.title, common.title);
+        if (mi.title == null)
+            throw new IllegalArgumentException("ManifestationInfo.getTitle title was found in local or common stream");
+        mi.fullTitle = first(local.fullTitle, common.fullTitle);
+        if (mi.fullTitle == null)
+            throw new IllegalArgumentException("ManifestationInfo.getFullTitle no full title was found in local or common stream");
+        mi.series = series(local, common);
+        mi.creators = typedValues(local.creators.isEmpty() ? common.creators : local.creators,
+                                  JavaManifestationInformationExtractor::creatorType);
+        mi.description = first(local.description, common.description);
+        mi.subjects = typedValues(local.subjects.isEmpty() ? common.subjects : local.subjects,
+                                  JavaManifestationInformationExtractor::subjectType);
+        mi.materialTypes = materialTypes(dcTypes);
+        if (common.workTypes.isEmpty())
+            throw new IllegalArgumentException("ManifestationInfo.getWorkTypes no workType was found in adminData in common stream");
+        mi.workTypes = common.workTypes;
+        LinkedHashMap<String, String> priorityKeys = new LinkedHashMap<>();
+        priorityKeys.put("identifier", first(local.identifier, common.identifier));
+        priorityKeys.put("date", first(local.date, common.date));
+        priorityKeys.put("version", first(local.version, common.version));
+        mi.priorityKeys = priorityKeys;
+        return mi;
+    }
+
+    /**
+     * The values of the first matching element (in document order) and
+     * repeated elements from the dkabm:record(s)
+     * <p>
+     * Single values are null if no element matched, and untrimmed
+     */
+    private static class Dkabm {
+
+        private String title;
+        private String fullTitle;
+        private String seriesTitle;
+        private String seriesDescription;
+        private String description;
+        private final List<TypedValue> creators = new ArrayList<>();
+        private final List<TypedValue> subjects = new ArrayList<>();
+        // Only from the first dkabm:record
+        private String identifier;
+        private String date;
+        private String version;
+        // From adminData
+        private final List<String> workTypes = new ArrayList<>();
+    }
+
+    private static Dkabm dkabm(String xml, String root) throws XMLStreamException {
+        Dkabm dkabm = new Dkabm();
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xml));
+        try {
+            if (!root(reader, TING, root))
+                return dkabm;
+            boolean firstRecord = true;
+            while (nextChild(reader)) {
+                if (is(reader, DKABM, "record")) {
+                    record(reader, dkabm, firstRecord);
+                    firstRecord = false;
+                } else if (is(reader, "", "adminData")) {
+                    while (nextChild(reader)) {
+                        if (is(reader, "", "workType")) {
+                            dkabm.workTypes.add(text(reader));
+                        } else {
+                            skip(reader);
+                        }
+                    }
+                } else {
+                    skip(reader);
+                }
+            }
+            return dkabm;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void record(XMLStreamReader reader, Dkabm dkabm, boolean firstRecord) throws XMLStreamException {
+        while (nextChild(reader)) {
+            String ns = namespace(reader);
+            String name = reader.getLocalName();
+            String type = reader.getAttributeValue(XSI, "type");
+            if (DC.equals(ns) && "title".equals(name)) {
+                String text = text(reader);
+                if (type == null) {
+                    if (dkabm.title == null)
+                        dkabm.title = text;
+                } else if (type.equals("dkdcplus:full")) {
+                    if (dkabm.fullTitle == null)
+                        dkabm.fullTitle = text;
+                } else if (type.equals("dkdcplus:series")) {
+                    if (dkabm.seriesTitle == null)
+                        dkabm.seriesTitle = text;
+                }
+            } else if (DC.equals(ns) && "description".equals(name) && "dkdcplus:series".equals(type)) {
+                String text = text(reader);
+                if (dkabm.seriesDescription == null)
+                    dkabm.seriesDescription = text;
+            } else if (DC.equals(ns) && "creator".equals(name) && !"oss:sort".equals(type)) {
+                dkabm.creators.add(new TypedValue(type, text(reader)));
+            } else if (DC.equals(ns) && "subject".equals(name)) {
+                dkabm.subjects.add(new TypedValue(type, text(reader)));
+            } else if (DCTERMS.equals(ns) && "abstract".equals(name)) {
+                String text = text(reader);
+                if (dkabm.description == null)
+                    dkabm.description = text;
+            } else if (firstRecord && AC.equals(ns) && "identifier".equals(name)) {
+                String text = text(reader);
+                if (dkabm.identifier == null)
+                    dkabm.identifier = text;
+            } else if (firstRecord && DC.equals(ns) && "date".equals(name)) {
+                String text = text(reader);
+                if (dkabm.date == null)
+                    dkabm.date = text;
+            } else if (firstRecord && DKDCPLUS.equals(ns) && "version".equals(name)) {
+                String text = text(reader);
+                if (dkabm.version == null)
+                    dkabm.version = text;
+            } else {
+                skip(reader);
+            }
+        }
+    }
+
+    private static List<String> dcTypes(String xml) throws XMLStreamException {
+        ArrayList<String> types = new ArrayList<>();
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xml));
+        try {
+            if (root(reader, OAI_DC, "dc")) {
+                while (nextChild(reader)) {
+                    if (is(reader, DC, "type")) {
+                        types.add(text(reader));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            }
+            return types;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> materialTypes(List<String> dcTypes) {
+        ArrayList<String> types = new ArrayList<>();
+        boolean foundSammensat = false;
+        for (String dcType : dcTypes) {
+            String type = trim(dcType);
+            if (SAMMENSAT.equals(type)) {
+                foundSammensat = true;
+            } else if (!type.contains("WORK:") && !type.contains("RECORD:")) {
+                types.add(type);
+            }
+        }
+        if (types.isEmpty() && foundSammensat)
+            types.add(SAMMENSAT);
+        return types;
+    }
+
+    private static SeriesInformation series(Dkabm local, Dkabm common) {
+        String series = trim(local.seriesTitle);
+        boolean split = true;
+        if (series.isEmpty()) {
+            series = trim(local.seriesDescription);
+            split = false;
+        }
+        if (series.isEmpty()) {
+            series = trim(common.seriesTitle);
+            split = true;
+        }
+        if (series.isEmpty()) {
+            series = trim(common.seriesDescription);
+            split = false;
+        }
+        if (series.isEmpty())
+            return null;
+        SeriesInformation seriesInformation = new SeriesInformation();
+        seriesInformation.title = series;
+        if (split) {
+            Matcher matcher = INSTALMENT.matcher(series);
+            if (matcher.matches()) {
+                seriesInformation.title = matcher.group(1);
+                seriesInformation.instalment = matcher.group(2);
+            }
+        }
+        return seriesInformation;
+    }
+
+    private static List<TypedValue> typedValues(List<TypedValue> raw, UnaryOperator<String> typeMapper) {
+        ArrayList<TypedValue> typedValues = new ArrayList<>(raw.size());
+        for (TypedValue typedValue : raw) {
+            typedValues.add(new TypedValue(typeMapper.apply(typedValue.type), trim(typedValue.value)));
+        }
+        return typedValues;
+    }
+
+    private static String creatorType(String type) {
+        if (type == null || type.isEmpty())
+            return null;
+        if (type.startsWith("dkdcplus:"))
+            return type.substring(9);
+        if (type.startsWith("dcterms:"))
+            return type.substring(8);
+        return type;
+    }
+
+    private static String subjectType(String type) {
+        if (type == null || type.isEmpty())
+            return null;
+        if (type.startsWith("dkdcplus:"))
+            return type.substring(9);
+        return type;
+    }
+
+    /**
+     * The first value that isn't empty when trimmed
+     *
+     * @param local  value from localData
+     * @param common value from commonData
+     * @return trimmed value or null
+     */
+    private static String first(String local, String common) {
+        String value = trim(local);
+        if (value.isEmpty())
+            value = trim(common);
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Trim as JavaScript's String.prototype.trim()
+     *
+     * @param s string or null
+     * @return trimmed string ("" for null)
+     */
+    static String trim(String s) {
+        if (s == null)
+            return "";
+        int start = 0;
+        int end = s.length();
+        while (start < end && isJavaScriptWhitespace(s.charAt(start))) {
+            start++;
+        }
+        while (end > start && isJavaScriptWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return s.substring(start, end);
+    }
+
+    private static boolean isJavaScriptWhitespace(char c) {
+        switch (c) {
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+            case '\u2028':
+            case '\u2029':
+            case '\uFEFF':
+                return true;
+            default:
+                return Character.getType(c) == Character.SPACE_SEPARATOR;
+        }
+    }
+
+    private static boolean root(XMLStreamReader reader, String ns, String localName) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == START_ELEMENT)
+                return is(reader, ns, localName);
+        }
+        return false;
+    }
+
+    /**
+     * Move to the next child element of the current element
+     *
+     * @param reader positioned at the start of the parent, or at the end of
+     *               the previous child
+     * @return if a child start element has been reached, false if the end of
+     *         the parent has been reached
+     * @throws XMLStreamException if the xml is invalid
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case START_ELEMENT:
+                    return true;
+                case END_ELEMENT:
+                    return false;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skip the current element
+     *
+     * @param reader positioned at a start element, will be positioned at the
+     *               end element
+     * @throws XMLStreamException if the xml is invalid
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case START_ELEMENT:
+                    depth++;
+                    break;
+                case END_ELEMENT:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The text content (as XPath string value) of the current element
+     *
+     * @param reader positioned at a start element, will be positioned at the
+     *               end element
+     * @return text of all descendant text nodes
+     * @throws XMLStreamException if the xml is invalid
+     */
+    private static String text(XMLStreamReader reader) throws XMLStreamException {
+        String text = null;
+        StringBuilder sb = null;
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case START_ELEMENT:
+                    depth++;
+                    break;
+                case END_ELEMENT:
+                    depth--;
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    if (text == null) {
+                        text = reader.getText();
+                    } else {
+                        if (sb == null)
+                            sb = new StringBuilder(text);
+                        sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (sb != null)
+            return sb.toString();
+        return text == null ? "" : text;
+    }
+
+    private static boolean is(XMLStreamReader reader, String ns, String localName) {
+        return ns.equals(namespace(reader)) && localName.equals(reader.getLocalName());
+    }
+
+    private static String namespace(XMLStreamReader reader) {
+        String ns = reader.getNamespaceURI();
+        return ns == null ? "" : ns;
+    }
+}
@@ -21,8 +21,12 @@ package dk.dbc.search.work.presentation.javascript;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import jdk.nashorn.api.scripting.JSObject;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -31,7 +35,7 @@ import org.slf4j.MDC;
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
-public class JavascriptCacheObjectBuilder extends AbstractJavascript {
+public class JavascriptCacheObjectBuilder extends AbstractJavascript implements ManifestationInformationExtractor {
 
     private static final Logger log = LoggerFactory.getLogger(JavascriptCacheObjectBuilder.class);
     private static final ObjectMapper O = new ObjectMapper()
@@ -72,13 +76,16 @@ public class JavascriptCacheObjectBuilder extends AbstractJavascript {
      * @throws Exception If JavaScript fail, or the return type cannot be
      *                   converted to the Java Object
      */
+    @Override
     public ManifestationInformation extractManifestationInformation(String manifestationId, Map<String, String> xmlObjects) throws Exception {
         String oldManifestationId = MDC.get("manifestationId");
         try {
             MDC.put("manifestationId", manifestationId);
-            Object json = environment.callMethod(methodName, new Object[] {manifestationId, xmlObjects});
-            log.trace("json = {}", json);
-            return O.readValue(String.valueOf(json), ManifestationInformation.class);
+            Object result = environment.callMethod(methodName, new Object[] {manifestationId, xmlObjects});
+            log.trace("result = {}", result);
+            if (result instanceof CharSequence) // Script returning JSON.stringify()
+                return O.readValue(result.toString(), ManifestationInformation.class);
+            return O.convertValue(unwrap(result), ManifestationInformation.class);
         } finally {
             if (oldManifestationId == null) {
                 MDC.remove("manifestationId");
@@ -87,4 +94,47 @@ public class JavascriptCacheObjectBuilder extends AbstractJavascript {
             }
         }
     }
+
+    /**
+     * Convert a script value into Map/List/scalar values that Jackson can
+     * map onto a pojo
+     * <p>
+     * This is what JSON.stringify() followed by parsing would produce, without
+     * making the string: undefined and function values are left out of
+     * objects, and are null in arrays.
+     *
+     * @param value value from the script engine
+     * @return plain Java value
+     */
+    @SuppressWarnings("removal")
+    static Object unwrap(Object value) {
+        if (value instanceof JSObject) {
+            JSObject object = (JSObject) value;
+            if (object.isArray()) {
+                int length = ( (Number) object.getMember("length") ).intValue();
+                ArrayList<Object> list = new ArrayList<>(length);
+                for (int i = 0 ; i < length ; i++) {
+                    Object element = object.getSlot(i);
+                    list.add(isOmitted(element) ? null : unwrap(element));
+                }
+                return list;
+            }
+            LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+            for (String key : object.keySet()) {
+                Object member = object.getMember(key);
+                if (!isOmitted(member))
+                    map.put(key, unwrap(member));
+            }
+            return map;
+        }
+        if (value instanceof CharSequence) // ConsString
+            return value.toString();
+        return value;
+    }
+
+    @SuppressWarnings("removal")
+    private static boolean isOmitted(Object value) {
+        return ScriptObjectMirror.isUndefined(value) ||
+               value instanceof JSObject && ( (JSObject) value ).isFunction();
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-javascript
+ *
+ * work-presentation-javascript is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-javascript is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.javascript;
+
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import java.util.Map;
+
+/**
+ * Something that can make a ManifestationInformation object from the
+ * datastreams of a corepo record
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@FunctionalInterface
+public interface ManifestationInformationExtractor {
+
+    /**
+     * Make a ManifestationInformation object
+     *
+     * @param manifestationId Id to set in result object (and used for logging)
+     * @param xmlObjects      map of stream name to xml for the object
+     * @return Manifestation Information
+     * @throws Exception If the data streams cannot be processed
+     */
+    ManifestationInformation extractManifestationInformation(String manifestationId, Map<String, String> xmlObjects) throws Exception;
+}
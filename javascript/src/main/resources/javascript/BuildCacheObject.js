@@ -4,6 +4,7 @@ use( "ManifestationInfo" );
 function buildManifestationInformation( manifestationId, xmlObjects ) {
     Log.debug( "buildManifestationInformation(", manifestationId, ")" );
 
-    return JSON.stringify(ManifestationInfo.getManifestationInfoFromXmlObjects( manifestationId, xmlObjects ));
+    // The object is converted directly to a Java object, no need for JSON.stringify()
+    return ManifestationInfo.getManifestationInfoFromXmlObjects( manifestationId, xmlObjects );
 
 }
@@ -7,6 +7,154 @@ EXPORTED_SYMBOLS = [ "ManifestationInfo" ];
 
 var ManifestationInfo = (function() {
 
+    var NS = {
+        ac: "http://biblstandard.dk/ac/namespace/",
+        dc: "http://purl.org/dc/elements/1.1/",
+        dcterms: "http://purl.org/dc/terms/",
+        dkabm: "http://biblstandard.dk/abm/namespace/dkabm/",
+        dkdcplus: "http://biblstandard.dk/abm/namespace/dkdcplus/",
+        ting: "http://www.dbc.dk/ting",
+        xsi: "http://www.w3.org/2001/XMLSchema-instance"
+    };
+
+    /**
+     * Constructor of an index of a commonData or localData stream
+     *
+     * The stream is walked once, and the children of the dkabm:record(s) and
+     * adminData that the getters need are collected, so that the getters
+     * doesn't have to evaluate XPaths from the document root one by one.
+     * Nodes are kept in document order, the same order as XPath.select
+     * would have returned them in.
+     *
+     * This is not exposed beyond the module
+     *
+     * @type {function}
+     * @syntax new DkabmIndex( xml, rootName )
+     * @param {Document} xml the stream as xml
+     * @param {String} rootName the local name of the ting: root element (container or localData)
+     * @function
+     */
+
+    function DkabmIndex( xml, rootName ) {
+
+        this.title = []; // dc:title[not(@xsi:type)]
+        this.fullTitle = []; // dc:title[@xsi:type="dkdcplus:full"]
+        this.seriesTitle = []; // dc:title[@xsi:type="dkdcplus:series"]
+        this.seriesDescription = []; // dc:description[@xsi:type="dkdcplus:series"]
+        this.creators = []; // dc:creator[not(@xsi:type = 'oss:sort')]
+        this.subjects = []; // dc:subject
+        this.abstract = []; // dcterms:abstract
+        this.firstRecord = null; // the first dkabm:record, for priority keys
+        this.workTypes = []; // adminData/workType
+
+        var root = xml.documentElement;
+        if ( !root || !isElement( root, NS.ting, rootName ) ) {
+            return;
+        }
+        for ( var child = root.firstChild; child; child = child.nextSibling ) {
+            if ( isElement( child, NS.dkabm, "record" ) ) {
+                if ( this.firstRecord === null ) {
+                    this.firstRecord = {
+                        identifier: [], // ac:identifier
+                        date: [], // dc:date
+                        version: [] // dkdcplus:version
+                    };
+                    this.addRecord( child, this.firstRecord );
+                } else {
+                    this.addRecord( child, null );
+                }
+            } else if ( isElement( child, null, "adminData" ) ) {
+                for ( var adminData = child.firstChild; adminData; adminData = adminData.nextSibling ) {
+                    if ( isElement( adminData, null, "workType" ) ) {
+                        this.workTypes.push( adminData );
+                    }
+                }
+            }
+        }
+    }
+
+    DkabmIndex.prototype.addRecord = function( record, firstRecord ) {
+        for ( var node = record.firstChild; node; node = node.nextSibling ) {
+            var type = node.hasAttributeNS && node.hasAttributeNS( NS.xsi, "type" ) ? String( node.getAttributeNS( NS.xsi, "type" ) ) : null;
+            if ( isElement( node, NS.dc, "title" ) ) {
+                if ( type === null ) {
+                    this.title.push( node );
+                } else if ( type === "dkdcplus:full" ) {
+                    this.fullTitle.push( node );
+                } else if ( type === "dkdcplus:series" ) {
+                    this.seriesTitle.push( node );
+                }
+            } else if ( isElement( node, NS.dc, "description" ) ) {
+                if ( type === "dkdcplus:series" ) {
+                    this.seriesDescription.push( node );
+                }
+            } else if ( isElement( node, NS.dc, "creator" ) ) {
+                if ( type !== "oss:sort" ) {
+                    this.creators.push( node );
+                }
+            } else if ( isElement( node, NS.dc, "subject" ) ) {
+                this.subjects.push( node );
+            } else if ( isElement( node, NS.dcterms, "abstract" ) ) {
+                this.abstract.push( node );
+            } else if ( firstRecord !== null ) {
+                if ( isElement( node, NS.ac, "identifier" ) ) {
+                    firstRecord.identifier.push( node );
+                } else if ( isElement( node, NS.dc, "date" ) ) {
+                    firstRecord.date.push( node );
+                } else if ( isElement( node, NS.dkdcplus, "version" ) ) {
+                    firstRecord.version.push( node );
+                }
+            }
+        }
+    };
+
+    /**
+     * Function that returns an index of a stream, building it if a document
+     * is given
+     *
+     * This is not exposed beyond the module
+     *
+     * @type {function}
+     * @syntax dkabmIndex( xml, rootName )
+     * @param {Document|DkabmIndex} xml the stream as xml or an already built index
+     * @param {String} rootName the local name of the ting: root element (container or localData)
+     * @return {DkabmIndex} the index of the stream
+     * @function
+     */
+
+    function dkabmIndex( xml, rootName ) {
+        if ( xml instanceof DkabmIndex ) {
+            return xml;
+        }
+        return new DkabmIndex( xml, rootName );
+    }
+
+    function isElement( node, namespace, localName ) {
+        return node.localName !== null && node.localName !== undefined &&
+            String( node.localName ) === localName &&
+            String( node.namespaceURI || "" ) === ( namespace || "" );
+    }
+
+    /**
+     * Function that returns the trimmed text of the first node of a list (as
+     * XPath.selectText would have), or "" if the list is empty
+     *
+     * This is not exposed beyond the module
+     *
+     * @type {function}
+     * @syntax firstText( nodes )
+     * @param {Array} nodes list of nodes
+     * @return {String} trimmed text content of the first node
+     * @function
+     */
+
+    function firstText( nodes ) {
+        if ( nodes.length === 0 ) {
+            return "";
+        }
+        return XmlUtil.getText( nodes[ 0 ] ).trim();
+    }
+
     /**
      * Function that extracts manifestation info like title, full title, creators, description, subject and types
      * from the provided datastreams from a corepo record (manifestation)
@@ -52,6 +200,9 @@ var ManifestationInfo = (function() {
         } else {
             localDataXml = XmlUtil.fromString( "<empty/>" );
         }
+        //walk the common and local streams once, and let the getters use the result
+        commonDataXml = dkabmIndex( commonDataXml, "container" );
+        localDataXml = dkabmIndex( localDataXml, "localData" );
         manifestationObject.title = getTitle( commonDataXml, localDataXml );
         manifestationObject.fullTitle = getFullTitle( commonDataXml, localDataXml );
         manifestationObject.series = getSeries( commonDataXml, localDataXml );
@@ -74,8 +225,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getTitle( dcStreamXml )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {String} the extracted title
      * @function
      * @name ManifestationInfo.getTitle
@@ -85,13 +236,14 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getTitle function" );
 
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
         //first check if localData has a basic title (unclassified)
-        var title = XPath.selectText( '/ting:localData/dkabm:record/dc:title[not(@xsi:type)]', localData );
-        title = title.trim();
+        var title = firstText( localData.title );
 
         if ( "" === title ) {
-            title = XPath.selectText( '/ting:container/dkabm:record/dc:title[not(@xsi:type)]', commonData );
-            title = title.trim();
+            title = firstText( commonData.title );
         }
 
         if ( "" === title ) {
@@ -110,8 +262,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getFullTitle( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {String} the extracted full title
      * @function
      * @name ManifestationInfo.getFullTitle
@@ -121,13 +273,14 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getFullTitle function" );
 
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
         //first check if localData has a full title
-        var titleFull = XPath.selectText( '/ting:localData/dkabm:record/dc:title[@xsi:type="dkdcplus:full"]', localData );
-        titleFull = titleFull.trim();
+        var titleFull = firstText( localData.fullTitle );
 
         if ( "" === titleFull ) {
-            titleFull = XPath.selectText( '/ting:container/dkabm:record/dc:title[@xsi:type="dkdcplus:full"]', commonData );
-            titleFull = titleFull.trim();
+            titleFull = firstText( commonData.fullTitle );
         }
 
         if ( "" === titleFull ) {
@@ -148,8 +301,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getSeries( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {Object|null} the extracted and processed series title (keys: title, instalment) or null if none is found
      * @function
      * @name ManifestationInfo.getSeries
@@ -159,30 +312,29 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getSeries function" );
 
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
         //first check if localData has a full title
-        var series = XPath.selectText( '/ting:localData/dkabm:record/dc:title[@xsi:type="dkdcplus:series"]', localData );
+        var series = firstText( localData.seriesTitle );
         Log.trace( "local title=", series );
-        series = series.trim();
         var split = true;
 
         if ( "" === series ) {
-            series = XPath.selectText( '/ting:localData/dkabm:record/dc:description[@xsi:type="dkdcplus:series"]', localData );
+            series = firstText( localData.seriesDescription );
             Log.trace( "local desc=", series );
-            series = series.trim();
             split = false;
         }
 
         if ( "" === series ) {
-            series = XPath.selectText( '/ting:container/dkabm:record/dc:title[@xsi:type="dkdcplus:series"]', commonData );
+            series = firstText( commonData.seriesTitle );
             Log.trace( "common title=", series );
-            series = series.trim();
             split = true;
         }
 
         if ( "" === series ) {
-            series = XPath.selectText( '/ting:container/dkabm:record/dc:description[@xsi:type="dkdcplus:series"]', commonData );
+            series = firstText( commonData.seriesDescription );
             Log.trace( "common desc=", series );
-            series = series.trim();
             split = false;
         }
 
@@ -217,8 +369,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getCreators( dcStreamXml )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {Array} the extracted creators
      * @function
      * @name ManifestationInfo.getCreators
@@ -228,15 +380,19 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getCreators function" );
 
-        var creators = XPath.select( "/ting:localData/dkabm:record/dc:creator[not(@xsi:type = 'oss:sort')]", localData );
-        if ( creators.length === 0 ) {
-            creators = XPath.select( "/ting:container/dkabm:record/dc:creator[not(@xsi:type = 'oss:sort')]", commonData );
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
+        var nodes = localData.creators;
+        if ( nodes.length === 0 ) {
+            nodes = commonData.creators;
         }
 
-        for ( var i in creators ) {
+        var creators = [];
+        for ( var i = 0; i < nodes.length; i++ ) {
 
-            var type = XmlUtil.getAttribute( creators[ i ], "type", XmlNamespaces.xsi );
-            var value = XmlUtil.getText( creators[ i ] ).trim();
+            var type = XmlUtil.getAttribute( nodes[ i ], "type", XmlNamespaces.xsi );
+            var value = XmlUtil.getText( nodes[ i ] ).trim();
 
             if ( type === undefined ) {
                 type = null;
@@ -252,10 +408,10 @@ var ManifestationInfo = (function() {
                 Log.warn( "ManifestationInfo.getSubjects type is: " + type );
             }
 
-            creators[ i ] = {
+            creators.push( {
                 "type": type,
                 "value": value
-            };
+            } );
 
         }
 
@@ -312,7 +468,7 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getWorkTypes( commonData )
-     * @param {Document} commonData the common data stream as xml
+     * @param {Document|DkabmIndex} commonData the common data stream as xml
      * @return {Array} the extracted work types
      * @function
      * @name ManifestationInfo.getWorkTypes
@@ -322,7 +478,12 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getWorkTypes function" );
 
-        var workTypes = XPath.selectMultipleText( "/ting:container/adminData/workType", commonData );
+        commonData = dkabmIndex( commonData, "container" );
+
+        var workTypes = [];
+        for ( var i = 0; i < commonData.workTypes.length; i++ ) {
+            workTypes.push( XmlUtil.getText( commonData.workTypes[ i ] ) );
+        }
 
         if ( 0 === workTypes.length ) {
             RecordProcessing.terminateProcessingAndFailRecord(
@@ -340,8 +501,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getAbstract( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {String|null} the extracted abstract or null if no abstract
      * @function
      * @name ManifestationInfo.getAbstract
@@ -351,13 +512,14 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getAbstract function" );
 
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
         //first check if localData has an abstract
-        var abstract = XPath.selectText( '/ting:localData/dkabm:record/dcterms:abstract', localData );
-        abstract = abstract.trim();
+        var abstract = firstText( localData.abstract );
 
         if ( "" === abstract ) {
-            abstract = XPath.selectText( '/ting:container/dkabm:record/dcterms:abstract', commonData );
-            abstract = abstract.trim();
+            abstract = firstText( commonData.abstract );
         }
 
 
@@ -377,8 +539,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getSubjects( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {Array} the extracted subjects
      * @function
      * @name ManifestationInfo.getSubjects
@@ -388,14 +550,19 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getSubjects function" );
 
-        var subjects = XPath.select( "/ting:localData/dkabm:record/dc:subject", localData );
-        if ( subjects.length === 0 ) {
-            subjects = XPath.select( "/ting:container/dkabm:record/dc:subject", commonData );
+        commonData = dkabmIndex( commonData, "container" );
+        localData = dkabmIndex( localData, "localData" );
+
+        var nodes = localData.subjects;
+        if ( nodes.length === 0 ) {
+            nodes = commonData.subjects;
         }
-        for ( var i in subjects ) {
 
-            var type = XmlUtil.getAttribute( subjects[ i ], "type", XmlNamespaces.xsi );
-            var value = XmlUtil.getText( subjects[ i ] ).trim();
+        var subjects = [];
+        for ( var i = 0; i < nodes.length; i++ ) {
+
+            var type = XmlUtil.getAttribute( nodes[ i ], "type", XmlNamespaces.xsi );
+            var value = XmlUtil.getText( nodes[ i ] ).trim();
 
             if ( type === undefined ) {
                 type = null;
@@ -408,10 +575,10 @@ var ManifestationInfo = (function() {
                 Log.warn( "ManifestationInfo.getSubjects type is: " + type );
             }
 
-            subjects[ i ] = {
+            subjects.push( {
                 "type": type,
                 "value": value
-            };
+            } );
 
         }
 
@@ -434,8 +601,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax dkabmGetterFunction( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {DkabmIndex} commonData the index of the common stream
+     * @param {DkabmIndex} localData the index of the local stream
      * @return {function} that extracts text values from dkabm
      * @function
      */
@@ -443,8 +610,8 @@ var ManifestationInfo = (function() {
     function dkabmGetterFunction( commonData, localData ) {
         Log.trace( "Entering: ManifestationInfo.getSubjects function" );
 
-        var localDkabm = XPath.selectNode( "/ting:localData/dkabm:record", localData );
-        var commonDkabm = XPath.selectNode( "/ting:container/dkabm:record", commonData );
+        var localDkabm = localData.firstRecord;
+        var commonDkabm = commonData.firstRecord;
 
         /**
          * Function that creates a function, which in turn extracts data from the
@@ -454,20 +621,20 @@ var ManifestationInfo = (function() {
          * once that is done, it is considered missing if it is empty
          *
          * @type {function}
-         * @syntax dkabmGetterFunction( commonData, localData )( xpath )
-         * @param {String} xpath Expression to extract data by
-         * @return {String} content of xpath of either localData og commonDatas dkabm
+         * @syntax dkabmGetterFunction( commonData, localData )( field )
+         * @param {String} field Name of the indexed field to extract data from
+         * @return {String} content of field of either localData og commonDatas dkabm
          * @function
          */
-        var func = function dkabmGetter( xpath ) {
+        var func = function dkabmGetter( field ) {
 
             var value = "";
 
-            if ( value === "" && localDkabm !== undefined ) {
-                value = XPath.selectText( xpath, localDkabm ).trim();
+            if ( value === "" && localDkabm !== null ) {
+                value = firstText( localDkabm[ field ] );
             }
-            if ( value === "" && commonDkabm !== undefined ) {
-                value = XPath.selectText( xpath, commonDkabm ).trim();
+            if ( value === "" && commonDkabm !== null ) {
+                value = firstText( commonDkabm[ field ] );
             }
 
             if ( value === "" ) {
@@ -489,8 +656,8 @@ var ManifestationInfo = (function() {
      *
      * @type {function}
      * @syntax ManifestationInfo.getPriorityKeys( commonData, localData )
-     * @param {Document} commonData the common stream as xml
-     * @param {Document} localData the local stream as xml
+     * @param {Document|DkabmIndex} commonData the common stream as xml
+     * @param {Document|DkabmIndex} localData the local stream as xml
      * @return {Object} String-to-String of selected fields from the dkabm
      * @function
      * @name ManifestationInfo.getPriorityKeys
@@ -500,12 +667,12 @@ var ManifestationInfo = (function() {
 
         Log.trace( "Entering: ManifestationInfo.getPriorityKeys function" );
 
-        var dkabmGetter = dkabmGetterFunction( commonData, localData );
+        var dkabmGetter = dkabmGetterFunction( dkabmIndex( commonData, "container" ), dkabmIndex( localData, "localData" ) );
 
         var priorityKeys = {
-            "identifier": dkabmGetter( "ac:identifier" ),
-            "date": dkabmGetter( "dc:date" ),
-            "version": dkabmGetter( "dkdcplus:version" )
+            "identifier": dkabmGetter( "identifier" ),
+            "date": dkabmGetter( "date" ),
+            "version": dkabmGetter( "version" )
         };
 
         Log.trace( "Leaving: ManifestationInfo.getPriorityKeys function" );
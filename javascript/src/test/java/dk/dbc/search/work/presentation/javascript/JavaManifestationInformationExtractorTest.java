@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-javascript
+ *
+ * work-presentation-javascript is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-javascript is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.javascript;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ensures that the Java implementation produces the same as the JavaScript
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class JavaManifestationInformationExtractorTest {
+
+    private static final ObjectMapper O = new ObjectMapper();
+
+    private static Supplier<JavascriptCacheObjectBuilder> jsSupplier;
+    private static final JavaManifestationInformationExtractor JAVA = new JavaManifestationInformationExtractor();
+
+    @BeforeAll
+    public static void setUpClass() {
+        jsSupplier = JavascriptCacheObjectBuilder.builder()
+                .classLoader(JavaManifestationInformationExtractorTest.class.getClassLoader())
+                .build();
+    }
+
+    @ParameterizedTest
+    @MethodSource("testParameters")
+    public void testAcceptTests(Path dir) throws Exception {
+        System.out.println("testAcceptTests");
+        String manifestationId = dir.getFileName().toString();
+        System.out.println(" `-- " + manifestationId);
+        HashMap<String, String> xmlObjects = xmlObjects(dir);
+        ManifestationInformation expected = O.readValue(dir.resolve("expected.json").toFile(), ManifestationInformation.class);
+        ManifestationInformation information = JAVA.extractManifestationInformation(manifestationId, xmlObjects);
+        assertThat(information, is(expected));
+        assertThat(information, is(jsSupplier.get().extractManifestationInformation(manifestationId, xmlObjects)));
+    }
+
+    /**
+     * The fixtures from ManifestationInfo.test.js
+     * <p>
+     * The JavaScript unit tests call the individual getters with partial
+     * streams. Here they are completed with the streams (or title/full
+     * title/workType) the getter doesn't look at, so that the entire record
+     * can be processed by both implementations.
+     *
+     * @param dir directory with the datastreams
+     * @throws Exception if the javascript could not be run
+     */
+    @ParameterizedTest
+    @MethodSource("fixtureParameters")
+    public void testJavaScriptFixtures(Path dir) throws Exception {
+        System.out.println("testJavaScriptFixtures");
+        String manifestationId = dir.getFileName().toString();
+        System.out.println(" `-- " + manifestationId);
+        HashMap<String, String> xmlObjects = xmlObjects(dir);
+        ManifestationInformation expected;
+        try {
+            expected = jsSupplier.get().extractManifestationInformation(manifestationId, xmlObjects);
+        } catch (Exception ex) {
+            System.out.println("JavaScript failed: " + ex.getMessage());
+            assertThrows(Exception.class, () -> JAVA.extractManifestationInformation(manifestationId, xmlObjects));
+            return;
+        }
+        assertThat(JAVA.extractManifestationInformation(manifestationId, xmlObjects), is(expected));
+    }
+
+    @Test
+    public void testSeriesAndLocalData() throws Exception {
+        System.out.println("testSeriesAndLocalData");
+        HashMap<String, String> xmlObjects = new HashMap<>();
+        xmlObjects.put("DC", dc("<dc:type>Bog</dc:type><dc:type>WORK:work</dc:type><dc:type> Sammensat materiale </dc:type>"));
+        xmlObjects.put("commonData", common("<dc:title>  Common title\n</dc:title>" +
+                                            "<dc:title xsi:type='dkdcplus:full'>Common full title</dc:title>" +
+                                            "<dc:title xsi:type='dkdcplus:series'>Series ; 3</dc:title>" +
+                                            "<dc:creator xsi:type='dkdcplus:aut'>Common creator</dc:creator>" +
+                                            "<dc:subject xsi:type='dkdcplus:DK5'>51.8</dc:subject>" +
+                                            "<dcterms:abstract>Abstract</dcterms:abstract>" +
+                                            "<ac:identifier>12345678|870970</ac:identifier>" +
+                                            "<dc:date>1972</dc:date>",
+                                            "<workType>literature</workType><workType>book</workType>"));
+        xmlObjects.put("localData", local("<dc:title>Local <b>title</b></dc:title>" +
+                                          "<dc:description xsi:type='dkdcplus:series'>Local ; series</dc:description>" +
+                                          "<dc:creator xsi:type='oss:sort'>Sort, Creator</dc:creator>" +
+                                          "<dc:creator xsi:type='dcterms:contributor'>Local contributor</dc:creator>" +
+                                          "<dc:creator>Untyped</dc:creator>" +
+                                          "<dc:subject xsi:type='dkdcplus:DBCS'>Local subject</dc:subject>" +
+                                          "<dc:subject>Untyped subject</dc:subject>" +
+                                          "<dkdcplus:version>2. udgave</dkdcplus:version>"));
+
+        ManifestationInformation information = JAVA.extractManifestationInformation("id", xmlObjects);
+        System.out.println("information = " + information);
+        assertThat(information.title, is("Local title"));
+        assertThat(information.fullTitle, is("Common full title"));
+        assertThat(information.series.title, is("Local ; series"));
+        assertThat(information.series.instalment, nullValue());
+        assertThat(information.creators.size(), is(2));
+        assertThat(information.creators.get(0).type, is("contributor"));
+        assertThat(information.creators.get(1).type, nullValue());
+        assertThat(information.materialTypes, contains("Bog"));
+        assertThat(information.workTypes, contains("literature", "book"));
+        assertThat(information.priorityKeys.get("version"), is("2. udgave"));
+        assertThat(information, is(jsSupplier.get().extractManifestationInformation("id", xmlObjects)));
+    }
+
+    @Test
+    public void testSeriesSplitAndSammensat() throws Exception {
+        System.out.println("testSeriesSplitAndSammensat");
+        HashMap<String, String> xmlObjects = new HashMap<>();
+        xmlObjects.put("DC", dc("<dc:type>RECORD:record</dc:type><dc:type>Sammensat materiale</dc:type>"));
+        xmlObjects.put("commonData", common("<dc:title>Title</dc:title>" +
+                                            "<dc:title xsi:type='dkdcplus:full'>Full title</dc:title>" +
+                                            "<dc:title xsi:type='dkdcplus:series'>A ; B ; 3. del</dc:title>",
+                                            "<workType>other</workType>"));
+
+        ManifestationInformation information = JAVA.extractManifestationInformation("id", xmlObjects);
+        System.out.println("information = " + information);
+        assertThat(information.series.title, is("A ; B"));
+        assertThat(information.series.instalment, is("3. del"));
+        assertThat(information.description, nullValue());
+        assertThat(information.materialTypes, contains("Sammensat materiale"));
+        assertThat(information.priorityKeys.get("identifier"), nullValue());
+        assertThat(information, is(jsSupplier.get().extractManifestationInformation("id", xmlObjects)));
+    }
+
+    @Test
+    public void testMissingData() throws Exception {
+        System.out.println("testMissingData");
+        HashMap<String, String> xmlObjects = new HashMap<>();
+        xmlObjects.put("DC", dc("<dc:type>Bog</dc:type>"));
+        Exception ex = assertThrows(Exception.class, () -> JAVA.extractManifestationInformation("id", xmlObjects));
+        assertThat(ex.getMessage(), containsString("missing either commonData or DC stream"));
+        assertThrows(Exception.class, () -> jsSupplier.get().extractManifestationInformation("id", xmlObjects));
+
+        xmlObjects.put("commonData", common("<dc:title>Title</dc:title>", "<workType>other</workType>"));
+        ex = assertThrows(Exception.class, () -> JAVA.extractManifestationInformation("id", xmlObjects));
+        assertThat(ex.getMessage(), containsString("no full title was found"));
+
+        xmlObjects.put("commonData", common("<dc:title>Title</dc:title>" +
+                                            "<dc:title xsi:type='dkdcplus:full'>Full title</dc:title>", ""));
+        ex = assertThrows(Exception.class, () -> JAVA.extractManifestationInformation("id", xmlObjects));
+        assertThat(ex.getMessage(), containsString("no workType was found"));
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        System.out.println("testTrim");
+        assertThat(JavaManifestationInformationExtractor.trim(" \t  a b\n\u3000\uFEFF"), is("a b"));
+        assertThat(JavaManifestationInformationExtractor.trim(null), is(""));
+    }
+
+    private static String dc(String content) {
+        return "<oai_dc:dc xmlns:dc='http://purl.org/dc/elements/1.1/'" +
+               " xmlns:oai_dc='http://www.openarchives.org/OAI/2.0/oai_dc/'>" +
+               content +
+               "</oai_dc:dc>";
+    }
+
+    private static String common(String record, String workTypes) {
+        return "<ting:container" + NAMESPACES + ">" +
+               "<dkabm:record>" + record + "</dkabm:record>" +
+               "<adminData>" + workTypes + "</adminData>" +
+               "</ting:container>";
+    }
+
+    private static String local(String record) {
+        return "<ting:localData" + NAMESPACES + ">" +
+               "<dkabm:record>" + record + "</dkabm:record>" +
+               "</ting:localData>";
+    }
+
+    private static final String NAMESPACES =
+            " xmlns:ac='http://biblstandard.dk/ac/namespace/'" +
+            " xmlns:dc='http://purl.org/dc/elements/1.1/'" +
+            " xmlns:dcterms='http://purl.org/dc/terms/'" +
+            " xmlns:dkabm='http://biblstandard.dk/abm/namespace/dkabm/'" +
+            " xmlns:dkdcplus='http://biblstandard.dk/abm/namespace/dkdcplus/'" +
+            " xmlns:ting='http://www.dbc.dk/ting'" +
+            " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'";
+
+    private static HashMap<String, String> xmlObjects(Path dir) throws IOException {
+        HashMap<String, String> xmlObjects = new HashMap<>();
+        for (File file : dir.toFile().listFiles()) {
+            String name = file.getName();
+            if (name.toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                xmlObjects.put(name.substring(0, name.length() - 4), FileUtils.readFileToString(file, UTF_8));
+            }
+        }
+        return xmlObjects;
+    }
+
+    private static Stream<Arguments> testParameters() {
+        return directories("accept-test");
+    }
+
+    private static Stream<Arguments> fixtureParameters() {
+        return directories("fixture-test");
+    }
+
+    private static Stream<Arguments> directories(String resource) {
+        return Stream.of(new File(
+                JavaManifestationInformationExtractorTest.class.getClassLoader()
+                        .getResource(".")
+                        .getPath())
+                .toPath()
+                .resolve(resource)
+                .toFile()
+                .listFiles())
+                .filter(File::isDirectory)
+                .map(File::toPath)
+                .map(p -> Arguments.of(p));
+    }
+}
@@ -25,12 +25,18 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -89,6 +95,22 @@ public class JavascriptCacheObjectBuilderTest {
               });
     }
 
+    @Test
+    public void testUnwrap() throws Exception {
+        System.out.println("testUnwrap");
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+        engine.eval("function f() {" +
+                    " var s = 'a'; s += 'b';" +
+                    " return { a: [ 1, undefined, s ], f: function() {}, u: undefined, n: null, o: { k: 'v' } };" +
+                    "}");
+        Object unwrapped = JavascriptCacheObjectBuilder.unwrap(( (Invocable) engine ).invokeFunction("f"));
+        HashMap<String, Object> expected = new HashMap<>();
+        expected.put("a", Arrays.asList(1, null, "ab"));
+        expected.put("n", null);
+        expected.put("o", Map.of("k", "v"));
+        assertThat(unwrapped, is(expected));
+    }
+
     private static Stream<Arguments> testParameters() {
         return Stream.of(new File(
                 JavascriptCacheObjectBuilderTest.class.getClassLoader()
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-javascript
+ *
+ * work-presentation-javascript is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-javascript is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.javascript;
+
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Records per second for the JavaScript and the Java manifestation
+ * information extractors
+ * <p>
+ * Not run as a part of the build. Run it with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dk.dbc.search.work.presentation.javascript.ManifestationInformationExtractorBenchmark}
+ * (allocation rates are reported using the gc profiler)
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ManifestationInformationExtractorBenchmark {
+
+    @Param({"example", "harrypotter", "koraan-empty-local-data", "vildheks"})
+    public String record;
+
+    private Map<String, String> xmlObjects;
+    private JavascriptCacheObjectBuilder javascript;
+    private JavaManifestationInformationExtractor java;
+
+    @Setup
+    public void setup() throws IOException {
+        xmlObjects = new HashMap<>();
+        for (String stream : new String[] {"DC", "commonData", "localData"}) {
+            xmlObjects.put(stream, resource("accept-test/" + record + "/" + stream + ".xml"));
+        }
+        javascript = JavascriptCacheObjectBuilder.builder()
+                .classLoader(ManifestationInformationExtractorBenchmark.class.getClassLoader())
+                .build()
+                .get();
+        java = new JavaManifestationInformationExtractor();
+    }
+
+    @Benchmark
+    public ManifestationInformation javascript() throws Exception {
+        return javascript.extractManifestationInformation(record, xmlObjects);
+    }
+
+    @Benchmark
+    public ManifestationInformation java() throws Exception {
+        return java.extractManifestationInformation(record, xmlObjects);
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream is = ManifestationInformationExtractorBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            if (is == null)
+                throw new IllegalArgumentException("Cannot find resource: " + name);
+            return new String(is.readAllBytes(), UTF_8);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ManifestationInformationExtractorBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}
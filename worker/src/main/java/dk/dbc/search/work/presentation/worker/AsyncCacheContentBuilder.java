@@ -21,19 +21,17 @@ package dk.dbc.search.work.presentation.worker;
 import dk.dbc.search.work.presentation.api.jpa.CacheEntity;
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
 import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.Future;
-import javax.ejb.AsyncResult;
-import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 import org.eclipse.microprofile.metrics.annotation.Timed;
-import org.slf4j.MDC;
 
 /**
  *
@@ -48,44 +46,62 @@ public class AsyncCacheContentBuilder {
     @PersistenceContext(unitName = "workPresentation_PU")
     EntityManager em;
 
+    @Inject
+    @Metric(name = "skipped-writes")
+    Counter skippedWrites;
+
     /**
-     * Acquire cache content, asynchronously and in its own transaction
+     * Load all the existing cache entries for a work in one go
+     *
+     * @param manifestationIds the manifestations of the work (and its
+     *                         relations)
+     * @return map of manifestationId to (detached) entity, for those in the
+     *         cache
+     */
+    @Timed
+    public Map<String, CacheEntity> getFromCache(Collection<String> manifestationIds) {
+        return CacheEntity.detachedFrom(em, manifestationIds);
+    }
+
+    /**
+     * Build cache content
      * <p>
-     * This allows for saving cache entries outside the master transaction.
+     * This is called from the {@link ManifestationBuildExecutor} threads. It
+     * doesn't touch the database, the content is written by
+     * {@link #saveToCache(java.util.Collection, java.util.Collection)} when
+     * everything for the work has been built.
      *
+     * @param scope       The corepo cache of the job
      * @param dataBuilder The content provider
-     * @param mdc         the log mdc values
-     * @param delete      if the databuilder is tagged as deleted, should we
-     *                    delete from the database
-     * @return null if deleted otherwise the content from the cache
+     * @return the content for the cache
      */
-    @Asynchronous
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     @Timed
-    public Future<ManifestationInformation> getFromCache(CacheContentBuilder dataBuilder, Map<String, String> mdc, boolean delete) {
-        try {
-            MDC.setContextMap(mdc == null ? Collections.EMPTY_MAP : mdc);
-            String manifestationId = dataBuilder.getManifestationId();
-            CacheEntity cacheObj = CacheEntity.detachedFrom(em, manifestationId); // null if none existant
+    public ManifestationInformation buildContent(CorepoCacheScope scope, CacheContentBuilder dataBuilder) {
+        return jsEnv.cacheBuild(scope, dataBuilder);
+    }
 
-            if (delete && dataBuilder.isDeleted()) {
-                if (cacheObj != null) { // delete entry in database
-                    CacheEntity.from(em, manifestationId).delete();
-                }
-                return new AsyncResult<>(null);
-            }
-            if (cacheObj == null ||
-                cacheObj.getModified().before(dataBuilder.getModified())) {
-                ManifestationInformation content = jsEnv.cacheBuild(dataBuilder);
-                cacheObj = CacheEntity.from(em, manifestationId);
-                cacheObj.setContent(content);
-                cacheObj.setModified(dataBuilder.getModified());
-                cacheObj.save();
-                return new AsyncResult<>(content);
-            }
-            return new AsyncResult<>(cacheObj.getContent());
-        } finally {
-            MDC.clear();
+    /**
+     * Write built cache entries and remove deleted ones, in its own
+     * transaction
+     * <p>
+     * This allows for saving cache entries outside the master transaction.
+     * Entries are written using upsert, so a concurrent build of the same
+     * manifestation doesn't cause an optimistic lock failure. Entries that
+     * are already as new as the built content aren't touched (and counted as
+     * skipped writes).
+     *
+     * @param built   new content
+     * @param deleted manifestationIds that should be removed
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Timed
+    public void saveToCache(Collection<CacheEntity> built, Collection<String> deleted) {
+        if (!deleted.isEmpty())
+            CacheEntity.delete(em, deleted);
+        if (!built.isEmpty()) {
+            int written = CacheEntity.upsert(em, built);
+            skippedWrites.inc(built.size() - written);
         }
     }
 }
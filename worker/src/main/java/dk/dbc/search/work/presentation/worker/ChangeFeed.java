@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameters;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Feed of works that have changed
+ * <p>
+ * This allows clients to follow updates of works, instead of asking for the
+ * timestamp of every work they know of. The feed is ordered by the
+ * transaction that changed a work, and a cursor is returned, that can be
+ * used for getting the changes after it. Deleted works are in the feed too.
+ * If there are no changes, the request can wait for some to happen
+ * (long-poll). While waiting, the request is suspended, and polling is done
+ * by a scheduled task, so no request thread is held.
+ * <p>
+ * Deleted works are only kept in the feed for a while (see
+ * {@link Config#getChangesDeletedRetention()}), a follower with a cursor older
+ * than that may have missed deletes, and has to resync.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Stateless
+@Path("changes")
+public class ChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+    private static final long POLL_INTERVAL = 1000L;
+    private static final int MAX_LIMIT = 10000;
+
+    @Inject
+    WorkChanges workChanges;
+
+    @Resource(type = ManagedScheduledExecutorService.class)
+    ScheduledExecutorService scheduler;
+
+    @Inject
+    Config config;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @Operation(
+            summary = "follow changes of works",
+            description = "Retrieve the works that have changed (or have been deleted) after a cursor, with their modification time")
+    @Parameters({
+        @Parameter(name = "since",
+                   description = "cursor from a previous response, if omitted the feed starts from the beginning." +
+                                 " Deleted works are only kept for a while, start from the beginning if the cursor is older than that"),
+        @Parameter(name = "limit",
+                   description = "max number of changes in a response (default: 1000, max: 10000)"),
+        @Parameter(name = "wait",
+                   description = "number of seconds to wait for changes, if there are none (default: 0)")
+    })
+    @APIResponses({
+        @APIResponse(
+                name = "changes",
+                description = "the changes (possibly none) and the cursor for the next request",
+                content = @Content(
+                        mediaType = MediaType.APPLICATION_JSON,
+                        schema = @Schema(implementation = ChangesResponse.class))),
+        @APIResponse(
+                name = "bad request",
+                description = "when the cursor, limit or wait is invalid",
+                responseCode = "400 BAD REQUEST"
+        )
+    })
+    public void getChanges(@QueryParam("since") String since,
+                           @QueryParam("limit") @DefaultValue("1000") int limit,
+                           @QueryParam("wait") @DefaultValue("0") int wait,
+                           @Suspended AsyncResponse response) {
+        if (limit < 1 || limit > MAX_LIMIT)
+            throw new BadRequestException("limit should be between 1 and " + MAX_LIMIT);
+        if (wait < 0)
+            throw new BadRequestException("wait cannot be negative");
+        long changeTxid = -1L;
+        String persistentWorkId = "";
+        if (since != null && !since.isEmpty()) {
+            String[] parts = since.split(":", 2);
+            if (parts.length != 2)
+                throw new BadRequestException("Invalid cursor: " + since);
+            try {
+                changeTxid = Long.parseLong(parts[0]);
+            } catch (NumberFormatException ex) {
+                throw new BadRequestException("Invalid cursor: " + since);
+            }
+            persistentWorkId = parts[1];
+        }
+        log.debug("Changes after: {}:{}", changeTxid, persistentWorkId);
+
+        long deadline = System.currentTimeMillis() + Long.min(TimeUnit.SECONDS.toMillis(wait), config.getChangesMaxWait());
+        new Poll(workChanges, scheduler, response, since, changeTxid, persistentWorkId, limit, deadline).run();
+    }
+
+    /**
+     * Look for changes, and answer the request if there are any (or the
+     * deadline has passed), otherwise look again later
+     * <p>
+     * This runs on the scheduler, after the request has returned, so it holds
+     * on to what it needs, and not the bean that started it
+     */
+    private static class Poll implements Runnable {
+
+        private final WorkChanges workChanges;
+        private final ScheduledExecutorService scheduler;
+        private final AsyncResponse response;
+        private final String since;
+        private final long changeTxid;
+        private final String persistentWorkId;
+        private final int limit;
+        private final long deadline;
+
+        private Poll(WorkChanges workChanges, ScheduledExecutorService scheduler, AsyncResponse response, String since, long changeTxid, String persistentWorkId, int limit, long deadline) {
+            this.workChanges = workChanges;
+            this.scheduler = scheduler;
+            this.response = response;
+            this.since = since;
+            this.changeTxid = changeTxid;
+            this.persistentWorkId = persistentWorkId;
+            this.limit = limit;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            if (!response.isSuspended())
+                return; // Client has gone away
+            try {
+                List<WorkObjectEntity.Change> changes = workChanges.changesAfter(changeTxid, persistentWorkId, limit);
+                long remaining = deadline - System.currentTimeMillis();
+                if (changes.isEmpty() && remaining > 0) {
+                    scheduler.schedule(this, Long.min(POLL_INTERVAL, remaining), TimeUnit.MILLISECONDS);
+                } else {
+                    response.resume(changesResponse(since, changes));
+                }
+            } catch (RuntimeException ex) {
+                log.error("Error polling for changes: {}", ex.getMessage());
+                log.debug("Error polling for changes: ", ex);
+                response.resume(ex);
+            }
+        }
+    }
+
+    private static ChangesResponse changesResponse(String since, List<WorkObjectEntity.Change> changes) {
+        ChangesResponse response = new ChangesResponse();
+        response.changes = changes.stream()
+                .map(ChangeFeed::changeOf)
+                .collect(toList());
+        if (changes.isEmpty()) {
+            response.cursor = since == null ? "" : since;
+        } else {
+            WorkObjectEntity.Change last = changes.get(changes.size() - 1);
+            response.cursor = last.getChangeTxid() + ":" + last.getPersistentWorkId();
+        }
+        return response;
+    }
+
+    private static ChangesResponse.Change changeOf(WorkObjectEntity.Change change) {
+        ChangesResponse.Change response = new ChangesResponse.Change();
+        response.persistentWorkId = change.getPersistentWorkId();
+        response.modified = change.getModified().toInstant().toString();
+        response.deleted = change.isDeleted();
+        return response;
+    }
+}
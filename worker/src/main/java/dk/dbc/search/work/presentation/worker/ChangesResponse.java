@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.List;
+
+/**
+ * Data structure for returning a page of the change feed
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+public class ChangesResponse {
+
+    public List<Change> changes;
+
+    public String cursor;
+
+    @SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+    public static class Change {
+
+        public String persistentWorkId;
+
+        public String modified;
+
+        public boolean deleted;
+
+        @Override
+        public String toString() {
+            return "Change{" + "persistentWorkId=" + persistentWorkId + ", modified=" + modified + ", deleted=" + deleted + '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChangesResponse{" + "changes=" + changes + ", cursor=" + cursor + '}';
+    }
+}
@@ -19,6 +19,8 @@
 package dk.dbc.search.work.presentation.worker;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
@@ -53,11 +55,27 @@ public class Config {
     private final Map<String, String> env;
 
     private UriBuilder corepoContentService;
+    private boolean corepoPrefetch;
+    private long corepoCacheSize;
+    private HttpClient corepoHttpClient;
+    private Duration corepoHttpTimeout;
     private Client httpClient;
+    private String userAgent;
     private int jsPoolSize;
+    private int jsPoolMinIdle;
+    private long jsPoolIdleTimeout;
+    private int jsPoolWarmup;
+    private int manifestationBuildQueue;
+    private boolean javaManifestationExtractor;
     private String[] queues;
     private boolean queueDeduplicate;
+    private String relationQueue;
     private int threads;
+    private int treeBuildThreads;
+    private boolean workFingerprint;
+    private boolean workIncremental;
+    private long changesMaxWait;
+    private long changesDeletedRetention;
     private long postponeFrom;
     private long postponeRange;
 
@@ -77,8 +95,10 @@ public class Config {
                 .filter(s -> !s.isEmpty())
                 .toArray(String[]::new);
         this.queueDeduplicate = Boolean.parseBoolean(getOrDefault("QUEUE_DEDUPLICATE", "true"));
+        this.relationQueue = getOrDefault("RELATION_QUEUE", "").trim();
         this.threads = Integer.max(1, Integer.parseInt(getOrDefault("THREADS", "5")));
-        String userAgent = getOrDefault("USER_AGENT", "WorkPresentationWorker/1.0");
+        this.treeBuildThreads = Integer.max(0, Integer.parseInt(getOrDefault("TREE_BUILD_THREADS", "8")));
+        this.userAgent = getOrDefault("USER_AGENT", "WorkPresentationWorker/1.0");
         log.debug("Using: {} as HttpUserAgent", userAgent);
         this.httpClient = clientBuilder()
                 .register((ClientRequestFilter) (ClientRequestContext context) ->
@@ -86,7 +106,36 @@ public class Config {
                 )
                 .build();
         this.corepoContentService = UriBuilder.fromPath(getOrFail("COREPO_CONTENT_SERVICE_URL"));
+        this.corepoPrefetch = Boolean.parseBoolean(getOrDefault("COREPO_PREFETCH", "true"));
+        this.corepoCacheSize = Long.max(0, Long.parseLong(getOrDefault("COREPO_CACHE_MB", "256"))) * 1024L * 1024L;
+        this.corepoHttpTimeout = Duration.ofMillis(ms(getOrDefault("COREPO_HTTP_TIMEOUT", "30s")));
+        if (Boolean.parseBoolean(getOrDefault("COREPO_ASYNC_HTTP", "false"))) {
+            this.corepoHttpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(corepoHttpTimeout)
+                    .build();
+        }
         this.jsPoolSize = Integer.max(1, Integer.parseInt(getOrFail("JS_POOL_SIZE")));
+        this.jsPoolMinIdle = Integer.min(jsPoolSize, Integer.max(0, Integer.parseInt(getOrDefault("JS_POOL_MIN_IDLE", "2"))));
+        this.jsPoolIdleTimeout = ms(getOrDefault("JS_POOL_IDLE_TIMEOUT", "5m"));
+        this.jsPoolWarmup = Integer.max(0, Integer.parseInt(getOrDefault("JS_POOL_WARMUP", "25")));
+        this.manifestationBuildQueue = Integer.max(0, Integer.parseInt(getOrDefault("MANIFESTATION_BUILD_QUEUE", "64")));
+        String manifestationExtractor = getOrDefault("MANIFESTATION_EXTRACTOR", "javascript");
+        switch (manifestationExtractor) {
+            case "javascript":
+                this.javaManifestationExtractor = false;
+                break;
+            case "java":
+                this.javaManifestationExtractor = true;
+                break;
+            default:
+                throw new EJBException("MANIFESTATION_EXTRACTOR should be 'javascript' or 'java', got: " + manifestationExtractor);
+        }
+        this.workFingerprint = Boolean.parseBoolean(getOrDefault("WORK_FINGERPRINT", "true"));
+        this.workIncremental = Boolean.parseBoolean(getOrDefault("WORK_INCREMENTAL", "true"));
+        this.changesMaxWait = ms(getOrDefault("CHANGES_MAX_WAIT", "30s"));
+        this.changesDeletedRetention = ms(getOrDefault("CHANGES_DELETED_RETENTION", "30d"));
 
         computePostponeParameters(getOrFail("JPA_POSTPONE"));
     }
@@ -106,14 +155,68 @@ public class Config {
         return corepoContentService.clone();
     }
 
+    public boolean hasCorepoPrefetch() {
+        return corepoPrefetch;
+    }
+
+    public long getCorepoCacheSize() {
+        return corepoCacheSize;
+    }
+
+    /**
+     * Non-blocking http client for corepo-content-service
+     * <p>
+     * Negotiates HTTP/2 if the server supports it, otherwise requests are
+     * made on a pool of keep-alive HTTP/1.1 connections.
+     *
+     * @return client or null if the blocking JAX-RS client should be used
+     */
+    public HttpClient getCorepoHttpClient() {
+        return corepoHttpClient;
+    }
+
+    public Duration getCorepoHttpTimeout() {
+        return corepoHttpTimeout;
+    }
+
     public int getJsPoolSize() {
         return jsPoolSize;
     }
 
+    public int getManifestationBuildQueue() {
+        return manifestationBuildQueue;
+    }
+
+    public int getJsPoolMinIdle() {
+        return jsPoolMinIdle;
+    }
+
+    public long getJsPoolIdleTimeout() {
+        return jsPoolIdleTimeout;
+    }
+
+    public int getJsPoolWarmup() {
+        return jsPoolWarmup;
+    }
+
+    /**
+     * Should manifestation information be extracted by the Java
+     * implementation instead of the JavaScript
+     *
+     * @return if MANIFESTATION_EXTRACTOR is java
+     */
+    public boolean hasJavaManifestationExtractor() {
+        return javaManifestationExtractor;
+    }
+
     public Client getHttpClient() {
         return httpClient;
     }
 
+    public String getUserAgent() {
+        return userAgent;
+    }
+
     @SuppressFBWarnings("EI_EXPOSE_REP")
     public String[] getQueues() {
         return queues;
@@ -127,6 +230,56 @@ public class Config {
         return threads;
     }
 
+    public int getTreeBuildThreads() {
+        return treeBuildThreads;
+    }
+
+    public boolean hasWorkFingerprint() {
+        return workFingerprint;
+    }
+
+    /**
+     * Should works be rebuilt from the changed units only
+     * <p>
+     * This reuses earlier results, like the fingerprint, so disabling the
+     * fingerprint disables this too
+     *
+     * @return if the previous version of a work should be used
+     */
+    public boolean hasWorkIncremental() {
+        return workFingerprint && workIncremental;
+    }
+
+    /**
+     * Where to queue works, that have relations to manifestations that have
+     * changed
+     *
+     * @return queue name or empty for not queuing them
+     */
+    public String getRelationQueue() {
+        return relationQueue;
+    }
+
+    /**
+     * How long a request for changes can wait for a change to happen
+     *
+     * @return number of milliseconds
+     */
+    public long getChangesMaxWait() {
+        return changesMaxWait;
+    }
+
+    /**
+     * How long deleted works are kept in the change feed
+     * <p>
+     * Followers with a cursor older than this have to resync
+     *
+     * @return number of milliseconds
+     */
+    public long getChangesDeletedRetention() {
+        return changesDeletedRetention;
+    }
+
     public long postponeDuration() {
         return postponeFrom + (long) ( Math.random() * (double) postponeRange );
     }
@@ -161,6 +314,14 @@ public class Config {
         }
         long amount = Long.parseLong(matcher.group(1));
         switch (matcher.group(2).toLowerCase(Locale.ROOT).trim()) {
+            case "d":
+            case "day":
+            case "days":
+                return TimeUnit.DAYS.toMillis(amount);
+            case "h":
+            case "hour":
+            case "hours":
+                return TimeUnit.HOURS.toMillis(amount);
             case "m":
             case "min":
             case "mins":
@@ -180,7 +341,7 @@ public class Config {
             case "milliseconds":
                 return TimeUnit.MILLISECONDS.toMillis(amount);
             default:
-                throw new EJBException("Duration: '" + duration + "' with unknown unit (ms/s/m)");
+                throw new EJBException("Duration: '" + duration + "' with unknown unit (ms/s/m/h/d)");
         }
     }
 }
@@ -19,37 +19,154 @@
 package dk.dbc.search.work.presentation.worker;
 
 import java.net.URI;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 /**
  * Cache object to deduplicate calls to corepo-content-service, when multiple
  * units in the same work are referred by the same relations.
+ * <p>
+ * The values are the parsed responses, so a response is parsed only once per
+ * job. The values are keyed by the uri and the parsed type, so the same uri
+ * read by different parsers is requested once for each of them.
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
 class CorepoCache {
 
-    private final ConcurrentHashMap<URI, Object> objects;
+    private final ConcurrentHashMap<Key, Object> objects;
 
     CorepoCache() {
         this.objects = new ConcurrentHashMap<>();
     }
 
-    // As Map::computeIfAbsent
-    byte[] computeIfAbsent(URI key, Function<URI, byte[]> mappingFunction) {
-        Object value = objects.computeIfAbsent(key, k -> {
-                                           try {
-                                               return mappingFunction.apply(k);
-                                           } catch (RuntimeException ex) {
-                                               return ex;
-                                           }
-                                       });
-        if (value instanceof byte[])
-            return (byte[]) value;
+    /**
+     * As Map::computeIfAbsent
+     * <p>
+     * Only a placeholder is put into the map, the mapping function is called
+     * outside of the map, so that a slow request doesn't lock other keys.
+     * Concurrent callers with the same key wait for the first one.
+     *
+     * @param <R>             the parsed type
+     * @param uri             the uri of the request
+     * @param type            the parsed type
+     * @param mappingFunction function that makes the request
+     * @return the parsed response or null if the mapping function returned
+     *         null
+     */
+    <R> R computeIfAbsent(URI uri, Class<R> type, Function<URI, R> mappingFunction) {
+        Key key = new Key(uri, type);
+        CompletableFuture<Object> placeholder = new CompletableFuture<>();
+        Object value = objects.putIfAbsent(key, placeholder);
+        if (value == null)
+            value = compute(key, placeholder, mappingFunction);
+        else if (value instanceof Future)
+            value = resolve(key, (Future<?>) value);
         if (value instanceof RuntimeException)
             throw (RuntimeException) value;
-        throw new IllegalStateException("This cannot happen");
+        return type.cast(value);
+    }
+
+    /**
+     * Register a request that is in flight, unless the key is already known
+     * <p>
+     * The response is resolved (and the outcome cached) upon the first
+     * {@link #computeIfAbsent(java.net.URI, java.lang.Class, java.util.function.Function)}
+     * of the key.
+     *
+     * @param <R>     the parsed type
+     * @param uri     the uri of the request
+     * @param type    the parsed type
+     * @param request function that starts the request
+     * @return the (possibly completed) request for the key
+     */
+    <R> CompletableFuture<R> prefetch(URI uri, Class<R> type, Function<URI, CompletableFuture<R>> request) {
+        Key key = new Key(uri, type);
+        CompletableFuture<Object> placeholder = new CompletableFuture<>();
+        Object value = objects.putIfAbsent(key, placeholder);
+        if (value == null) {
+            try {
+                request.apply(uri).whenComplete((v, ex) -> {
+                    if (ex == null)
+                        placeholder.complete(v);
+                    else
+                        placeholder.completeExceptionally(ex);
+                });
+            } catch (RuntimeException ex) {
+                objects.replace(key, placeholder, ex);
+                placeholder.completeExceptionally(ex);
+            }
+            return placeholder.thenApply(type::cast);
+        }
+        if (value instanceof CompletableFuture)
+            return ( (CompletableFuture<?>) value ).thenApply(type::cast);
+        if (value instanceof RuntimeException)
+            return CompletableFuture.failedFuture((RuntimeException) value);
+        return CompletableFuture.completedFuture(type.cast(value));
+    }
+
+    // As Map::containsKey
+    boolean contains(URI uri, Class<?> type) {
+        return objects.containsKey(new Key(uri, type));
+    }
+
+    /**
+     * Call the mapping function for a key, that this thread has put a
+     * placeholder in the map for, and store the outcome
+     *
+     * @param key             the key of the request
+     * @param placeholder     the future other threads wait for
+     * @param mappingFunction function that makes the request
+     * @return the value or the exception of the mapping function
+     */
+    private Object compute(Key key, CompletableFuture<Object> placeholder, Function<URI, ?> mappingFunction) {
+        Object value;
+        try {
+            value = mappingFunction.apply(key.uri);
+        } catch (RuntimeException ex) {
+            objects.replace(key, placeholder, ex);
+            placeholder.completeExceptionally(ex);
+            return ex;
+        } catch (Error err) {
+            objects.remove(key, placeholder);
+            placeholder.completeExceptionally(err);
+            throw err;
+        }
+        store(key, placeholder, value);
+        placeholder.complete(value);
+        return value;
+    }
+
+    private Object resolve(Key key, Future<?> future) {
+        Object value;
+        try {
+            value = future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                value = cause;
+            } else {
+                value = new RuntimeException(cause);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for: " + key.uri, ex);
+        }
+        store(key, future, value);
+        return value;
+    }
+
+    private void store(Key key, Future<?> future, Object value) {
+        if (value == null) {
+            // As Map::computeIfAbsent, null isn't cached
+            objects.remove(key, future);
+        } else {
+            objects.replace(key, future, value);
+        }
     }
 
     // As Map::clear
@@ -57,4 +174,30 @@ class CorepoCache {
         objects.clear();
     }
 
+    private static final class Key {
+
+        private final URI uri;
+        private final Class<?> type;
+
+        private Key(URI uri, Class<?> type) {
+            this.uri = uri;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, type);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            final Key other = (Key) obj;
+            return Objects.equals(this.uri, other.uri) &&
+                   Objects.equals(this.type, other.type);
+        }
+    }
 }
@@ -19,20 +19,33 @@
 package dk.dbc.search.work.presentation.worker;
 
 /**
- * AutoClosable to clear {@link CorepoCache}
+ * Cache of corepo-content-service requests for one job
+ * <p>
+ * This is passed along with every call made on behalf of the job, so that
+ * jobs running concurrently never share (or clear) each others content.
+ * Closing it releases the content, and makes any late use of it fail.
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
 public class CorepoCacheScope implements AutoCloseable {
 
     private final CorepoCache cache;
+    private volatile boolean closed;
 
     CorepoCacheScope(CorepoCache cache) {
         this.cache = cache;
+        this.closed = false;
+    }
+
+    CorepoCache cache() {
+        if (closed)
+            throw new IllegalStateException("Corepo cache scope is closed");
+        return cache;
     }
 
     @Override
     public void close() {
+        closed = true;
         cache.clear();
     }
 }
@@ -26,13 +26,23 @@ import dk.dbc.search.work.presentation.worker.corepo.RelsSys;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import org.apache.commons.io.IOUtils;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,67 +61,62 @@ public class CorepoContentServiceConnector {
     @Inject
     public Config config;
 
-    private final CorepoCache cache = new CorepoCache();
+    @Inject
+    CorepoSharedCache sharedCache;
 
     /**
-     * Transactional cache of http requests
-     * <p>
-     * This is to fake, that there's no @{@link javax.ejb.BeforeCompletion} on
-     * \@{@link javax.ejb.Stateless} beans, to clear up the transaction based cache.
+     * Cache of http requests for a job
      * <p>
-     * The bean cannot be @{@link javax.ejb.Stateful}, since there's no transaction to
-     * bind it to.
+     * The scope has to be passed to every call made on behalf of the job, and
+     * closed when the job is done. The bean itself holds no state, so any
+     * instance from the pool (or any thread) can serve the calls.
      *
      * @return AutoClosable cache scope
      */
     public CorepoCacheScope cacheScope() {
-        cache.clear();
-        return new CorepoCacheScope(cache);
+        return new CorepoCacheScope(new CorepoCache());
     }
 
     /**
      * Fetch a RELS-SYS stream from corepo-content-service
      *
-     * @param id the repository-id
+     * @param scope the cache of the job
+     * @param id    the repository-id
      * @return parsed RELS-SYS
      */
     @Timed
-    public RelsSys relsSys(String id) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}/datastreams/RELS-SYS/content")
-                .build(id);
+    public RelsSys relsSys(CorepoCacheScope scope, String id) {
+        URI uri = relsSysUri(id);
         log.debug("Fetching {} to RelsSys object", id);
-        return callUrl(uri, RelsSys::new, false);
+        return callUrl(scope.cache(), id, uri, RelsSys.class, RelsSys::new, false);
     }
 
     /**
      * Fetch a RELS-EXT stream from corepo-content-service
      *
-     * @param id the repository-id
+     * @param scope the cache of the job
+     * @param id    the repository-id
      * @return parsed RELS-EXT or null if not found
      */
     @Timed
-    public RelsExt relsExt(String id) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}/datastreams/RELS-EXT/content")
-                .build(id);
+    public RelsExt relsExt(CorepoCacheScope scope, String id) {
+        URI uri = relsExtUri(id);
         log.debug("Fetching {} to RelsExt object", id);
-        return callUrl(uri, RelsExt::new, true);
+        return callUrl(scope.cache(), id, uri, RelsExt.class, RelsExt::new, true);
     }
 
     /**
      * Check if an object exists and is active
      *
-     * @param id the repository-id
+     * @param scope the cache of the job
+     * @param id    the repository-id
      * @return alive and well
      */
     @Timed
-    public boolean objectIsActive(String id) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}")
-                .build(id);
+    public boolean objectIsActive(CorepoCacheScope scope, String id) {
+        URI uri = objectMetaDataUri(id);
         log.debug("Fetching {} to boolean", id);
-        ObjectMetaData meta = callUrl(uri, ObjectMetaData::new, true);
+        ObjectMetaData meta = callUrl(scope.cache(), uri, ObjectMetaData.class, ObjectMetaData::new, true);
         return meta != null && meta.isActive();
     }
 
@@ -120,16 +125,15 @@ public class CorepoContentServiceConnector {
      * <p>
      * Timestamps and active/deleted
      *
-     * @param id the repository-id
+     * @param scope the cache of the job
+     * @param id    the repository-id
      * @return parsed Metadata
      */
     @Timed
-    public ObjectMetaData objectMetaData(String id) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}")
-                .build(id);
+    public ObjectMetaData objectMetaData(CorepoCacheScope scope, String id) {
+        URI uri = objectMetaDataUri(id);
         log.debug("Fetching {} to ObjectMetaData object", id);
-        return callUrl(uri, ObjectMetaData::new, false);
+        return callUrl(scope.cache(), uri, ObjectMetaData.class, ObjectMetaData::new, false);
     }
 
     /**
@@ -137,49 +141,142 @@ public class CorepoContentServiceConnector {
      * <p>
      * Timestamp and active/deleted
      *
+     * @param scope  the cache of the job
      * @param id     the repository-id
      * @param stream the stream of the repositoryId
      * @return parsed Metadata
      */
     @Timed
-    public DataStreamMetaData datastreamMetaData(String id, String stream) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}/datastreams/{stream}")
-                .build(id, stream);
+    public DataStreamMetaData datastreamMetaData(CorepoCacheScope scope, String id, String stream) {
+        URI uri = datastreamMetaDataUri(id, stream);
         log.debug("Fetching {}/{} to DataStreamMetaData object", id, stream);
-        return callUrl(uri, DataStreamMetaData::new, false);
+        return callUrl(scope.cache(), id, uri, DataStreamMetaData.class, DataStreamMetaData::new, false);
     }
 
     /**
      * Fetch a list of a datastream for an object (work/unit/obj) from
      * corepo-content-service
      *
-     * @param id the repository-id
+     * @param scope the cache of the job
+     * @param id    the repository-id
      * @return list of stream names
      */
     @Timed
-    public DataStreams datastreams(String id) {
-        URI uri = config.getCorepoContentService()
-                .path("/rest/objects/{id}/datastreams")
-                .build(id);
+    public DataStreams datastreams(CorepoCacheScope scope, String id) {
+        URI uri = datastreamsUri(id);
         log.debug("Fetching {} to DataStreams object", id);
-        return callUrl(uri, DataStreams::new, false);
+        return callUrl(scope.cache(), id, uri, DataStreams.class, DataStreams::new, false);
     }
 
     /**
      * Fetch a content of a datastream from corepo-content-service
      *
+     * @param scope  the cache of the job
      * @param id     the repository-id
      * @param stream the stream of the repositoryId
      * @return XML content as a String
      */
     @Timed
-    public String datastreamContent(String id, String stream) {
-        URI uri = config.getCorepoContentService()
+    public String datastreamContent(CorepoCacheScope scope, String id, String stream) {
+        URI uri = datastreamContentUri(id, stream);
+        log.debug("Fetching {}/{} to String", id, stream);
+        return callUrl(scope.cache(), id, uri, String.class, is -> new String(is.readAllBytes(), UTF_8), false);
+    }
+
+    /**
+     * Request parts of a number of objects from corepo-content-service
+     * concurrently
+     * <p>
+     * The responses end up in the cache, so that subsequent calls to the
+     * methods that fetch the individual parts, doesn't have to wait for more
+     * than the slowest response. Errors are reported, when the parts are
+     * fetched.
+     *
+     * @param scope the cache of the job
+     * @param ids   the repository-ids
+     * @param parts which parts of the objects to request
+     */
+    public void prefetch(CorepoCacheScope scope, Collection<String> ids, ObjectPart... parts) {
+        CorepoCache cache = scope.cache();
+        for (String id : ids) {
+            for (ObjectPart part : parts) {
+                switch (part) {
+                    case META_DATA:
+                        prefetchUrl(cache, objectMetaDataUri(id), ObjectMetaData.class, ObjectMetaData::new);
+                        break;
+                    case RELS_SYS:
+                        prefetchUrl(cache, id, relsSysUri(id), RelsSys.class, RelsSys::new);
+                        break;
+                    case RELS_EXT:
+                        prefetchUrl(cache, id, relsExtUri(id), RelsExt.class, RelsExt::new);
+                        break;
+                    case DATASTREAMS:
+                        prefetchUrl(cache, id, datastreamsUri(id), DataStreams.class, DataStreams::new);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown part: " + part);
+                }
+            }
+        }
+    }
+
+    /**
+     * Request metadata of a number of datastreams from corepo-content-service
+     * concurrently
+     *
+     * @param scope   the cache of the job
+     * @param id      the repository-id
+     * @param streams the streams of the repositoryId
+     * @see #prefetch(CorepoCacheScope, java.util.Collection, ObjectPart...)
+     */
+    public void prefetchDatastreamMetaData(CorepoCacheScope scope, String id, Collection<String> streams) {
+        CorepoCache cache = scope.cache();
+        for (String stream : streams) {
+            prefetchUrl(cache, id, datastreamMetaDataUri(id, stream), DataStreamMetaData.class, DataStreamMetaData::new);
+        }
+    }
+
+    /**
+     * The parts of an object that can be prefetched
+     */
+    public enum ObjectPart {
+        META_DATA, RELS_SYS, RELS_EXT, DATASTREAMS
+    }
+
+    private URI objectMetaDataUri(String id) {
+        return config.getCorepoContentService()
+                .path("/rest/objects/{id}")
+                .build(id);
+    }
+
+    private URI relsSysUri(String id) {
+        return config.getCorepoContentService()
+                .path("/rest/objects/{id}/datastreams/RELS-SYS/content")
+                .build(id);
+    }
+
+    private URI relsExtUri(String id) {
+        return config.getCorepoContentService()
+                .path("/rest/objects/{id}/datastreams/RELS-EXT/content")
+                .build(id);
+    }
+
+    private URI datastreamsUri(String id) {
+        return config.getCorepoContentService()
+                .path("/rest/objects/{id}/datastreams")
+                .build(id);
+    }
+
+    private URI datastreamMetaDataUri(String id, String stream) {
+        return config.getCorepoContentService()
+                .path("/rest/objects/{id}/datastreams/{stream}")
+                .build(id, stream);
+    }
+
+    private URI datastreamContentUri(String id, String stream) {
+        return config.getCorepoContentService()
                 .path("/rest/objects/{id}/datastreams/{stream}/content")
                 .build(id, stream);
-        log.debug("Fetching {}/{} to String", id, stream);
-        return callUrl(uri, is -> IOUtils.toString(is, UTF_8), false);
     }
 
     @FunctionalInterface
@@ -188,13 +285,52 @@ public class CorepoContentServiceConnector {
         R call(InputStream is) throws IOException;
     }
 
-    private <R> R callUrl(URI uri, Callback<R> callback, boolean nullOn404) {
+    /**
+     * Request a part of an object, that isn't shared between jobs
+     * <p>
+     * The response is parsed while it is read from the network, and only the
+     * parsed value is kept.
+     *
+     * @param <R>       the parsed type
+     * @param cache     the cache of the job
+     * @param uri       the part
+     * @param type      the parsed type
+     * @param callback  the parser
+     * @param nullOn404 if not found should result in null
+     * @return parsed value
+     */
+    private <R> R callUrl(CorepoCache cache, URI uri, Class<R> type, Callback<R> callback, boolean nullOn404) {
+        return callCached(cache, uri, type, u -> getHttpContent(u, callback), nullOn404);
+    }
+
+    /**
+     * Request a part of an object, using the shared cache if the object hasn't
+     * been modified
+     * <p>
+     * The shared cache holds the raw content, which is parsed once per job.
+     * The object metadata is requested along with the part, and the timestamp
+     * is verified when both have arrived.
+     *
+     * @param <R>       the parsed type
+     * @param cache     the cache of the job
+     * @param id        the repository-id the uri is a part of
+     * @param uri       the part
+     * @param type      the parsed type
+     * @param callback  the parser
+     * @param nullOn404 if not found should result in null
+     * @return parsed value
+     */
+    private <R> R callUrl(CorepoCache cache, String id, URI uri, Class<R> type, Callback<R> callback, boolean nullOn404) {
+        if (!sharedCache.isEnabled() || cache.contains(uri, type))
+            return callUrl(cache, uri, type, callback, nullOn404);
+        CompletableFuture<Instant> modified = objectModified(cache, id);
+        return callCached(cache, uri, type, u -> parse(join(sharedCache.computeIfAbsentAsync(u, modified, this::getHttpContentAsync)), callback), nullOn404);
+    }
+
+    private <R> R callCached(CorepoCache cache, URI uri, Class<R> type, Function<URI, R> request, boolean nullOn404) {
         try {
-            byte[] content = cache.computeIfAbsent(uri, this::getHttpContent);
-            try (InputStream is = new ByteArrayInputStream(content)) {
-                return callback.call(is);
-            }
-        } catch (WebApplicationException | IOException ex) {
+            return cache.computeIfAbsent(uri, type, request);
+        } catch (WebApplicationException | UncheckedIOException ex) {
             if (ex instanceof NotFoundException && nullOn404) {
                 return null;
             }
@@ -204,11 +340,139 @@ public class CorepoContentServiceConnector {
         }
     }
 
-    private byte[] getHttpContent(URI uri) {
+    private CompletableFuture<Instant> objectModified(CorepoCache cache, String id) {
+        return prefetchUrl(cache, objectMetaDataUri(id), ObjectMetaData.class, ObjectMetaData::new)
+                .handle((meta, ex) -> {
+                    if (ex == null)
+                        return meta.getModified();
+                    log.debug("Cannot get modified timestamp of: {}: {}", id, ex.getMessage());
+                    return null;
+                });
+    }
+
+    private <R> CompletableFuture<R> prefetchUrl(CorepoCache cache, URI uri, Class<R> type, Callback<R> callback) {
+        log.trace("Prefetching {}", uri);
+        return cache.prefetch(uri, type, u -> getHttpContentAsync(u)
+                               .thenApply(content -> parse(content, callback)));
+    }
+
+    /**
+     * Request a part of an object, unless it is in the shared cache and the
+     * object hasn't been modified
+     * <p>
+     * The part is requested along with the object metadata, unless there's an
+     * entry in the shared cache, that has to be validated by the metadata
+     * first.
+     *
+     * @param <R>      the parsed type
+     * @param cache    the cache of the job
+     * @param id       the repository-id the uri is a part of
+     * @param uri      the part
+     * @param type     the parsed type
+     * @param callback the parser
+     */
+    private <R> void prefetchUrl(CorepoCache cache, String id, URI uri, Class<R> type, Callback<R> callback) {
+        if (!sharedCache.isEnabled()) {
+            prefetchUrl(cache, uri, type, callback);
+            return;
+        }
+        log.trace("Prefetching {}", uri);
+        CompletableFuture<Instant> modified = objectModified(cache, id);
+        cache.prefetch(uri, type, u -> sharedCache.computeIfAbsentAsync(u, modified, this::getHttpContentAsync)
+                               .thenApply(content -> parse(content, callback)));
+    }
+
+    private static <R> R parse(byte[] content, Callback<R> callback) {
+        try (InputStream is = new ByteArrayInputStream(content)) {
+            return callback.call(is);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Request a part, and parse it while it is read from the network
+     *
+     * @param <R>      the parsed type
+     * @param uri      the part
+     * @param callback the parser
+     * @return parsed value
+     */
+    private <R> R getHttpContent(URI uri, Callback<R> callback) {
+        HttpClient client = config.getCorepoHttpClient();
+        try {
+            if (client != null) {
+                HttpResponse<InputStream> response = client.send(httpRequest(uri), HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream is = response.body()) {
+                    checkStatus(response);
+                    return callback.call(is);
+                }
+            }
+            try (InputStream is = config.getHttpClient()
+                    .target(uri)
+                    .request(MediaType.APPLICATION_XML_TYPE)
+                    .get(InputStream.class)) {
+                return callback.call(is);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted requesting: " + uri, ex);
+        }
+    }
+
+    private CompletableFuture<byte[]> getHttpContentAsync(URI uri) {
+        HttpClient client = config.getCorepoHttpClient();
+        if (client != null) {
+            return client.sendAsync(httpRequest(uri), HttpResponse.BodyHandlers.ofByteArray())
+                    .thenApply(response -> checkStatus(response).body());
+        }
         return config.getHttpClient()
                 .target(uri)
                 .request(MediaType.APPLICATION_XML_TYPE)
-                .get(byte[].class);
+                .rx()
+                .get(byte[].class)
+                .toCompletableFuture();
+    }
+
+    private HttpRequest httpRequest(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_XML)
+                .header(HttpHeaders.USER_AGENT, config.getUserAgent())
+                .timeout(config.getCorepoHttpTimeout())
+                .GET()
+                .build();
+    }
+
+    /**
+     * Map a response from the non-blocking client the way the JAX-RS client
+     * does
+     *
+     * @param <T>      the body type
+     * @param response http response
+     * @return the response
+     * @throws NotFoundException       if status is 404
+     * @throws WebApplicationException if status isn't 2xx
+     */
+    private static <T> HttpResponse<T> checkStatus(HttpResponse<T> response) {
+        int status = response.statusCode();
+        if (status == 404)
+            throw new NotFoundException("Not found: " + response.uri());
+        if (status < 200 || status >= 300)
+            throw new WebApplicationException("Unexpected status: " + status + " from: " + response.uri(), status);
+        return response;
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new ProcessingException(cause);
+        }
     }
 
 }
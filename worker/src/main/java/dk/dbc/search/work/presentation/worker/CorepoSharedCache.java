@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size bounded LRU cache of corepo-content-service responses, shared by all
+ * jobs
+ * <p>
+ * Every part of an object (rels, datastream lists, datastreams and their
+ * metadata) is stored with a modified timestamp of the object, that is known
+ * to be from before the part was requested. Corepo updates the modified timestamp
+ * of the object when any of its datastreams change, so an entry is only used
+ * when the object metadata (which is always requested fresh for a job) has
+ * the same timestamp. An entry stored with a timestamp, that is older than the
+ * content, can only result in a miss.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class CorepoSharedCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CorepoSharedCache.class);
+
+    // Rough estimate of the memory used by an entry besides the content
+    private static final long ENTRY_OVERHEAD = 256;
+
+    // Allowed difference between the clocks of corepo and this host
+    private static final Duration CLOCK_SKEW = Duration.ofSeconds(5);
+
+    @Inject
+    Config config;
+
+    @Inject
+    @Metric(name = "corepo-cache-hit")
+    Counter hits;
+
+    @Inject
+    @Metric(name = "corepo-cache-miss")
+    Counter misses;
+
+    @Inject
+    @Metric(name = "corepo-cache-eviction")
+    Counter evictions;
+
+    private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long maxSize;
+    private long size;
+
+    @PostConstruct
+    public void init() {
+        this.maxSize = config.getCorepoCacheSize();
+        if (maxSize > 0) {
+            log.info("Sharing up to {} bytes of corepo content between jobs", maxSize);
+        } else {
+            log.info("Corepo content is not shared between jobs");
+        }
+    }
+
+    /**
+     * Is the cache configured with a size
+     *
+     * @return if there's any point in using the cache
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Look up content, or fetch and store it
+     *
+     * @param uri      the key
+     * @param modified the modified timestamp of the object the uri is a part
+     *                 of, null if unknown
+     * @param request  how to fetch the content
+     * @return content
+     */
+    public byte[] computeIfAbsent(URI uri, Instant modified, Function<URI, byte[]> request) {
+        if (modified == null)
+            return request.apply(uri);
+        byte[] content = get(uri, modified);
+        if (content == null) {
+            content = request.apply(uri);
+            put(uri, modified, content);
+        }
+        return content;
+    }
+
+    /**
+     * Look up content, or start fetching it and store it when it arrives
+     *
+     * @param uri      the key
+     * @param modified the modified timestamp of the object the uri is a part
+     *                 of, null if unknown
+     * @param request  how to start fetching the content
+     * @return future content
+     * @see #computeIfAbsent(java.net.URI, java.time.Instant, java.util.function.Function)
+     */
+    public CompletableFuture<byte[]> computeIfAbsentAsync(URI uri, Instant modified, Function<URI, CompletableFuture<byte[]>> request) {
+        if (modified == null)
+            return request.apply(uri);
+        byte[] content = get(uri, modified);
+        if (content != null)
+            return CompletableFuture.completedFuture(content);
+        return request.apply(uri)
+                .thenApply(c -> {
+                    put(uri, modified, c);
+                    return c;
+                });
+    }
+
+    /**
+     * Look up content, or fetch it while the modified timestamp is being
+     * fetched
+     * <p>
+     * If there's no entry for the uri, there's nothing to validate, so the
+     * content is requested right away instead of after the timestamp has
+     * arrived. The content is only stored, if the timestamp is older than the
+     * request for the content (with a margin for clock skew), as content, that
+     * may have been read before the timestamp was set, could be stale content
+     * stored with a current timestamp.
+     *
+     * @param uri      the key
+     * @param modified the future modified timestamp of the object the uri is
+     *                 a part of, null if unknown
+     * @param request  how to start fetching the content
+     * @return future content
+     * @see #computeIfAbsentAsync(java.net.URI, java.time.Instant, java.util.function.Function)
+     */
+    public CompletableFuture<byte[]> computeIfAbsentAsync(URI uri, CompletableFuture<Instant> modified, Function<URI, CompletableFuture<byte[]>> request) {
+        if (contains(uri))
+            return modified.thenCompose(m -> computeIfAbsentAsync(uri, m, request));
+        misses.inc();
+        Instant requested = Instant.now().minus(CLOCK_SKEW);
+        return request.apply(uri)
+                .thenCombine(modified, (c, m) -> {
+                    if (m != null && m.isBefore(requested))
+                        put(uri, m, c);
+                    return c;
+                });
+    }
+
+    boolean contains(URI uri) {
+        synchronized (entries) {
+            return entries.containsKey(uri);
+        }
+    }
+
+    byte[] get(URI uri, Instant modified) {
+        synchronized (entries) {
+            Entry entry = entries.get(uri);
+            if (entry != null) {
+                if (entry.modified.equals(modified)) {
+                    hits.inc();
+                    return entry.content;
+                }
+                remove(uri);
+            }
+        }
+        misses.inc();
+        return null;
+    }
+
+    void put(URI uri, Instant modified, byte[] content) {
+        long entrySize = content.length + ENTRY_OVERHEAD;
+        if (entrySize > maxSize)
+            return;
+        synchronized (entries) {
+            remove(uri);
+            entries.put(uri, new Entry(modified, content));
+            size += entrySize;
+            Iterator<Map.Entry<URI, Entry>> iterator = entries.entrySet().iterator();
+            while (size > maxSize) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                size -= eldest.content.length + ENTRY_OVERHEAD;
+                evictions.inc();
+            }
+        }
+    }
+
+    private void remove(URI uri) {
+        Entry old = entries.remove(uri);
+        if (old != null)
+            size -= old.content.length + ENTRY_OVERHEAD;
+    }
+
+    @Gauge(name = "corepo-cache-size", unit = MetricUnits.BYTES)
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    @Gauge(name = "corepo-cache-entries", unit = MetricUnits.NONE)
+    public long getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+
+        private final Instant modified;
+        private final byte[] content;
+
+        private Entry(Instant modified, byte[] content) {
+            this.modified = modified;
+            this.content = content;
+        }
+    }
+}
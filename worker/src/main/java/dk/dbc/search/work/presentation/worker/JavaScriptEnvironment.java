@@ -19,20 +19,42 @@
 package dk.dbc.search.work.presentation.worker;
 
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.javascript.JavaManifestationInformationExtractor;
 import dk.dbc.search.work.presentation.javascript.JavascriptCacheObjectBuilder;
 import dk.dbc.search.work.presentation.worker.pool.QuickPool;
 import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import javax.ejb.EJBException;
 import javax.ejb.Lock;
 import javax.ejb.LockType;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Inject;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
@@ -44,24 +66,85 @@ public class JavaScriptEnvironment {
 
     private static final Logger log = LoggerFactory.getLogger(JavaScriptEnvironment.class);
 
+    private static final String WARMUP_RESOURCES = "javascript-warmup/";
+    private static final String[] WARMUP_STREAMS = {"DC", "commonData", "localData"};
+
+    private Map<String, String> warmupRecord;
+
     QuickPool<JavascriptCacheObjectBuilder> jsWorkers;
 
+    private ExecutorService warmer;
+    private final AtomicBoolean growing = new AtomicBoolean();
+
+    private JavaManifestationInformationExtractor javaExtractor;
+
+    @Resource(type = ManagedThreadFactory.class)
+    ThreadFactory threadFactory;
+
     @Inject
     Config config;
 
     @Inject
     CorepoContentServiceConnector corepoContentService;
 
+    @Inject
+    @Metric(name = "js-pool-borrow-wait", unit = MetricUnits.MICROSECONDS)
+    Histogram borrowWait;
+
+    @Inject
+    @Metric(name = "js-pool-execution", unit = MetricUnits.MICROSECONDS)
+    Histogram execution;
+
+    @Inject
+    @Metric(name = "js-pool-created")
+    Counter created;
+
+    @Inject
+    @Metric(name = "js-pool-destroyed")
+    Counter destroyed;
+
+    @Inject
+    @Metric(name = "js-pool-invalidated")
+    Counter invalidated;
+
+    /**
+     * Set up the pool of JavaScript environments
+     * <p>
+     * The pool grows up to JS_POOL_SIZE, when all environments are in use, and
+     * shrinks back to JS_POOL_MIN_IDLE, when environments has been idle for
+     * JS_POOL_IDLE_TIMEOUT. New environments are warmed up before they're
+     * handed out, so that they're not running cold JavaScript. The warm-up
+     * happens in the background: on a separate thread at startup, and when a
+     * spare is prepared, because the last idle environment has been
+     * borrowed, and on the eviction thread, when the pool is filled back up
+     * to JS_POOL_MIN_IDLE.
+     * <p>
+     * When MANIFESTATION_EXTRACTOR is java, the JavaScript isn't used for
+     * building content, and no environments are created up front.
+     */
     @PostConstruct
     public void init() {
         try {
-            jsWorkers = new QuickPool<>(JavascriptCacheObjectBuilder.builder()
-                    .build());
-            jsWorkers.setMinIdle(0);
+            warmupRecord = loadWarmupRecord();
+            warmer = Executors.newSingleThreadExecutor(threadFactory);
+            Supplier<JavascriptCacheObjectBuilder> supplier = JavascriptCacheObjectBuilder.builder()
+                    .build();
+            jsWorkers = new QuickPool<>(() -> warmedUp(supplier.get()));
+            jsWorkers.setListener(new PoolMetrics());
+            if (config.hasJavaManifestationExtractor()) {
+                log.info("Using Java manifestation information extractor");
+                javaExtractor = new JavaManifestationInformationExtractor();
+            }
+            int minIdle = javaExtractor == null ? config.getJsPoolMinIdle() : 0;
+            jsWorkers.setMinIdle(minIdle);
             jsWorkers.setMaxIdle(config.getJsPoolSize());
             jsWorkers.setMaxTotal(config.getJsPoolSize());
-            jsWorkers.addObjects(config.getJsPoolSize());
-
+            // Shrink to minIdle, never below
+            jsWorkers.setMinEvictableIdleTimeMillis(-1);
+            jsWorkers.setSoftMinEvictableIdleTimeMillis(config.getJsPoolIdleTimeout());
+            jsWorkers.setTimeBetweenEvictionRunsMillis(Long.max(1000L, config.getJsPoolIdleTimeout() / 2));
+            if (minIdle > 0)
+                warmer.execute(() -> addObjects(minIdle));
         } catch (Exception ex) {
             log.error("Error building JavaScript environments: {}", ex.getMessage());
             log.debug("Error building JavaScript environments: ", ex);
@@ -69,17 +152,149 @@ public class JavaScriptEnvironment {
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        warmer.shutdownNow();
+        jsWorkers.close();
+    }
+
+    /**
+     * Prepare an environment in the background, when the last idle one has
+     * been borrowed, and the pool can grow
+     * <p>
+     * The next borrower can then get a warm environment, instead of warming
+     * one up itself.
+     */
+    private void prepareSpare() {
+        if (jsWorkers.getNumIdle() == 0 &&
+            jsWorkers.getNumActive() < jsWorkers.getMaxTotal() &&
+            growing.compareAndSet(false, true)) {
+            try {
+                warmer.execute(() -> {
+                    try {
+                        addObjects(1);
+                    } finally {
+                        growing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                growing.set(false);
+            }
+        }
+    }
+
+    private void addObjects(int count) {
+        try {
+            jsWorkers.addObjects(count);
+        } catch (Exception ex) {
+            log.error("Error building JavaScript environment: {}", ex.getMessage());
+            log.debug("Error building JavaScript environment: ", ex);
+        }
+    }
+
+    @Gauge(name = "js-pool-active", unit = MetricUnits.NONE)
+    public int getActive() {
+        return jsWorkers.getNumActive();
+    }
+
+    @Gauge(name = "js-pool-idle", unit = MetricUnits.NONE)
+    public int getIdle() {
+        return jsWorkers.getNumIdle();
+    }
+
+    /**
+     * Report pool events as metrics, and prepare spare environments
+     * <p>
+     * Borrow wait vs. execution time tells if JS_POOL_SIZE is too small for
+     * the number of THREADS
+     */
+    private class PoolMetrics implements QuickPool.Listener {
+
+        @Override
+        public void borrowed(long nanos) {
+            borrowWait.update(nanos / 1000L);
+            prepareSpare();
+        }
+
+        @Override
+        public void executed(long nanos) {
+            execution.update(nanos / 1000L);
+        }
+
+        @Override
+        public void created() {
+            created.inc();
+        }
+
+        @Override
+        public void destroyed() {
+            destroyed.inc();
+        }
+
+        @Override
+        public void invalidated() {
+            invalidated.inc();
+        }
+    }
+
+    /**
+     * Run the sample record through a new environment a number of times, so
+     * that the JavaScript engine has optimized the code paths
+     *
+     * @param js new environment
+     * @return the environment
+     */
+    private JavascriptCacheObjectBuilder warmedUp(JavascriptCacheObjectBuilder js) {
+        if (warmupRecord.isEmpty())
+            return js;
+        long start = System.nanoTime();
+        for (int i = 0 ; i < config.getJsPoolWarmup() ; i++) {
+            try {
+                js.extractManifestationInformation("warmup", warmupRecord);
+            } catch (Exception ex) {
+                log.warn("Error warming up JavaScript environment: {}", ex.getMessage());
+                log.debug("Error warming up JavaScript environment: ", ex);
+                break;
+            }
+        }
+        log.info("Warmed up JavaScript environment in {}ms", ( System.nanoTime() - start ) / 1_000_000L);
+        return js;
+    }
+
+    private static Map<String, String> loadWarmupRecord() {
+        HashMap<String, String> record = new HashMap<>();
+        for (String stream : WARMUP_STREAMS) {
+            try (InputStream is = JavaScriptEnvironment.class.getClassLoader().getResourceAsStream(WARMUP_RESOURCES + stream + ".xml")) {
+                if (is == null) {
+                    log.warn("Cannot find JavaScript warmup stream: {}", stream);
+                    return Collections.emptyMap();
+                }
+                record.put(stream, new String(is.readAllBytes(), UTF_8));
+            } catch (IOException ex) {
+                log.warn("Cannot read JavaScript warmup stream: {}: {}", stream, ex.getMessage());
+                return Collections.emptyMap();
+            }
+        }
+        return record;
+    }
+
     /**
      * Call the JavaScript environment to build a cache document
+     * <p>
+     * Or the Java extractor directly if that is configured, it is thread safe
+     * and doesn't need a pool
      *
+     * @param scope       corepo cache of the job
      * @param dataBuilder document builder.
      * @return The content to store in the database
      */
     @Timed
-    public ManifestationInformation cacheBuild(CacheContentBuilder dataBuilder) {
+    public ManifestationInformation cacheBuild(CorepoCacheScope scope, CacheContentBuilder dataBuilder) {
         try {
+            if (javaExtractor != null)
+                return dataBuilder.generateContent(scope, corepoContentService, javaExtractor);
             return jsWorkers
-                    .exec(js -> dataBuilder.generateContent(corepoContentService, js))
+                    .exec(js -> dataBuilder.generateContent(scope, corepoContentService, js))
                     .raise(Exception.class)
                     .value();
         } catch (Exception ex) {
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.EJBException;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Thread pool, shared by all jobs, for building manifestation cache content
+ * <p>
+ * There's one thread per JavaScript environment (JS_POOL_SIZE), so a build
+ * that has a thread never waits for an environment, and environments aren't
+ * idle while builds are queued.
+ * <p>
+ * Builds are run in the order the works were started, and within a work,
+ * the manifestations of the primary unit go first. A job submitting a build
+ * waits, if more than MANIFESTATION_BUILD_QUEUE builds are waiting for a
+ * thread, so that one large work cannot flood the queue.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class ManifestationBuildExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ManifestationBuildExecutor.class);
+
+    @Resource(type = ManagedThreadFactory.class)
+    ThreadFactory threadFactory;
+
+    @Inject
+    Config config;
+
+    @Inject
+    @Metric(name = "manifestation-build-submit-wait", unit = MetricUnits.MICROSECONDS)
+    Histogram submitWait;
+
+    @Inject
+    @Metric(name = "manifestation-build-queue-wait", unit = MetricUnits.MICROSECONDS)
+    Histogram queueWait;
+
+    private final AtomicLong workSequence = new AtomicLong();
+    private final AtomicLong taskSequence = new AtomicLong();
+    private ThreadPoolExecutor executor;
+    private Semaphore queueSlots;
+
+    @PostConstruct
+    public void init() {
+        start(config.getJsPoolSize(), config.getManifestationBuildQueue());
+    }
+
+    void start(int threads, int queueSize) {
+        log.info("Building manifestations using {} threads, with up to {} queued", threads, queueSize);
+        queueSlots = new Semaphore(threads + queueSize);
+        executor = new ThreadPoolExecutor(threads, threads,
+                                          1, TimeUnit.MINUTES,
+                                          new PriorityBlockingQueue<>(),
+                                          threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start submitting builds for a work
+     *
+     * @return handle for submitting builds, that are ordered after those of
+     *         works started earlier
+     */
+    public Work newWork() {
+        return new Work(workSequence.incrementAndGet());
+    }
+
+    /**
+     * Builds of one work
+     */
+    public class Work {
+
+        private final long work;
+
+        Work(long work) {
+            this.work = work;
+        }
+
+        /**
+         * Queue a build
+         * <p>
+         * This blocks while the queue is full, the log MDC values of the
+         * calling thread are used by the build.
+         *
+         * @param <T>     type of content
+         * @param primary if the manifestation is a part of the primary unit
+         * @param build   the build
+         * @return the future content, cancelling it cancels the build (if it
+         *         hasn't started)
+         */
+        public <T> CompletableFuture<T> submit(boolean primary, Callable<T> build) {
+            Task<T> task = new Task<>(work, primary ? 0 : 1, build);
+            long start = System.nanoTime();
+            try {
+                queueSlots.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new EJBException("Interrupted waiting to queue a manifestation build", ex);
+            }
+            submitWait.update(( System.nanoTime() - start ) / 1000L);
+            try {
+                task.queued = System.nanoTime();
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                queueSlots.release();
+                throw new EJBException("Could not queue a manifestation build", ex);
+            }
+            return task.completion;
+        }
+    }
+
+    @SuppressFBWarnings("EQ_COMPARETO_USE_OBJECT_EQUALS")
+    private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+
+        private final long work;
+        private final int priority;
+        private final long sequence;
+        private final Map<String, String> mdc;
+        private final CompletableFuture<T> completion = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                Task.this.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        private long queued;
+
+        private Task(long work, int priority, Callable<T> build) {
+            super(build);
+            this.work = work;
+            this.priority = priority;
+            this.sequence = taskSequence.incrementAndGet();
+            this.mdc = MDC.getCopyOfContextMap();
+        }
+
+        @Override
+        public void run() {
+            queueWait.update(( System.nanoTime() - queued ) / 1000L);
+            try {
+                MDC.setContextMap(mdc == null ? Collections.emptyMap() : mdc);
+                super.run();
+            } finally {
+                MDC.clear();
+            }
+        }
+
+        @Override
+        protected void done() {
+            queueSlots.release();
+            if (isCancelled()) {
+                completion.cancel(false);
+                return;
+            }
+            try {
+                completion.complete(get());
+            } catch (ExecutionException ex) {
+                completion.completeExceptionally(ex.getCause());
+            } catch (InterruptedException ex) { // Cannot happen, the task is done
+                Thread.currentThread().interrupt();
+                completion.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int cmp = Long.compare(work, other.work);
+            if (cmp == 0)
+                cmp = Integer.compare(priority, other.priority);
+            if (cmp == 0)
+                cmp = Long.compare(sequence, other.sequence);
+            return cmp;
+        }
+    }
+}
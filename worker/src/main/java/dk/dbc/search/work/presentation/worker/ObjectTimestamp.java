@@ -20,11 +20,18 @@ package dk.dbc.search.work.presentation.worker;
 
 import dk.dbc.search.work.presentation.api.jpa.CacheEntity;
 import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -35,11 +42,14 @@ import org.eclipse.microprofile.openapi.annotations.info.Info;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.ExampleObject;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.util.stream.Collectors.toList;
+
 /**
  * Get metadata about objects in records or cache table
  *
@@ -55,6 +65,8 @@ public class ObjectTimestamp {
 
     private static final Logger log = LoggerFactory.getLogger(ObjectTimestamp.class);
 
+    private static final int MAX_IDS = 10000;
+
     @PersistenceContext(unitName = "workPresentation_PU")
     EntityManager em;
 
@@ -93,15 +105,79 @@ public class ObjectTimestamp {
     })
     public String getTimestamp(@PathParam("id") String id) {
         log.info("Checking timestamp of: {}", id);
-        WorkObjectEntity work = WorkObjectEntity.readOnlyFrom(em, id);
-        if (work != null) {
-            return work.getModified().toInstant().toString();
-        }
-        CacheEntity cache = CacheEntity.detachedFrom(em, id);
-        if (cache != null) {
-            return cache.getModified().toInstant().toString();
+        String timestamp = timestampsOf(List.of(id)).get(id);
+        if (timestamp == null)
+            throw new NotFoundException();
+        return timestamp;
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+            summary = "find timestamps for update of a number of ids",
+            description = "Retrieve modification times for a number of objects (records/cache-entries)")
+    @RequestBody(
+            description = "list of identifiers for objects (max 10000)",
+            content = @Content(
+                    mediaType = "application/json",
+                    examples = {
+                        @ExampleObject(
+                                name = "ids",
+                                value = "[\"work-of:870970-basis:12345678\", \"870970-basis:12345678\"]"
+                        )}),
+            required = true)
+    @APIResponses({
+        @APIResponse(
+                name = "timestamps",
+                description = "map of id to last time the object was modified according to the database as an ISO instant text, ids that doesn't exist are left out",
+                content = @Content(
+                        mediaType = "application/json",
+                        examples = {
+                            @ExampleObject(
+                                    name = "modification times",
+                                    summary = "timestamps",
+                                    value = "{\"work-of:870970-basis:12345678\": \"2020-01-01T12:34:56.789Z\"}"
+                            )})),
+        @APIResponse(
+                name = "bad request",
+                description = "when no list or too many ids are given",
+                responseCode = "400 BAD REQUEST"
+        )
+    })
+    public Map<String, String> getTimestamps(List<String> ids) {
+        if (ids == null)
+            throw new BadRequestException("Expected a list of ids");
+        if (ids.size() > MAX_IDS)
+            throw new BadRequestException("Too many ids, max is " + MAX_IDS);
+        log.info("Checking timestamp of: {} ids", ids.size());
+        return timestampsOf(ids);
+    }
+
+    /**
+     * Look up modification times, without loading the content
+     * <p>
+     * Works take precedence over cache entries, the cache is only looked at
+     * for the ids that aren't works
+     *
+     * @param ids identifiers for objects
+     * @return map of id to ISO instant text, in the order of the ids, for
+     *         those that exist
+     */
+    private Map<String, String> timestampsOf(List<String> ids) {
+        Map<String, Timestamp> works = WorkObjectEntity.modifiedOf(em, ids);
+        List<String> notWorks = ids.stream()
+                .filter(id -> !works.containsKey(id))
+                .distinct()
+                .collect(toList());
+        Map<String, Timestamp> caches = CacheEntity.modifiedOf(em, notWorks);
+        LinkedHashMap<String, String> timestamps = new LinkedHashMap<>();
+        for (String id : ids) {
+            Timestamp modified = works.getOrDefault(id, caches.get(id));
+            if (modified != null)
+                timestamps.putIfAbsent(id, modified.toInstant().toString());
         }
-        throw new NotFoundException();
+        return timestamps;
     }
 
 }
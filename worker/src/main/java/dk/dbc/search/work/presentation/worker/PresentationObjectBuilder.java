@@ -23,9 +23,15 @@ import dk.dbc.corepo.queue.QueueJob;
 import dk.dbc.log.LogWith;
 import dk.dbc.pgqueue.consumer.FatalQueueError;
 import dk.dbc.pgqueue.consumer.JobMetaData;
+import dk.dbc.pgqueue.supplier.PreparedQueueSupplier;
+import dk.dbc.pgqueue.supplier.QueueSupplier;
+import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import dk.dbc.search.work.presentation.api.pojo.WorkPartials;
 import dk.dbc.search.work.presentation.worker.tree.WorkTree;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -36,6 +42,8 @@ import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.util.Collections.EMPTY_SET;
+
 /**
  * This produces all the fields a presentation request possibly can result in.
  * <p>
@@ -57,10 +65,21 @@ public class PresentationObjectBuilder {
     @Inject
     WorkConsolidator workConsolidator;
 
+    @Inject
+    Config config;
+
     @Inject
     @Metric(name = "success")
     Counter successes;
 
+    @Inject
+    @Metric(name = "unchanged")
+    Counter unchanged;
+
+    @Inject
+    @Metric(name = "requeued-relations")
+    Counter requeuedRelations;
+
     @Transactional(Transactional.TxType.REQUIRES_NEW)
     @Timed
     public void processJob(Connection connection, QueueJob job, JobMetaData metaData) throws FatalQueueError {
@@ -68,7 +87,8 @@ public class PresentationObjectBuilder {
         try (LogWith logWith = LogWith.track(job.getTrackingId())
                 .pid(corepoWorkId);) {
             if (corepoWorkId.startsWith("work:")) {
-                process(corepoWorkId, job.getTrackingId());
+                Set<String> related = process(corepoWorkId, job.getTrackingId());
+                requeue(connection, related, job.getTrackingId());
                 successes.inc();
             }
         } catch (RuntimeException ex) {
@@ -78,18 +98,33 @@ public class PresentationObjectBuilder {
         }
     }
 
-    void process(String corepoWorkId, String trackingId) throws FatalQueueError {
+    /**
+     * Build a work and save it
+     *
+     * @param corepoWorkId the work
+     * @param trackingId   tracking of the job
+     * @return works that have relations to manifestations of this work, that
+     *         have changed
+     * @throws FatalQueueError if the content cannot be built
+     */
+    Set<String> process(String corepoWorkId, String trackingId) throws FatalQueueError {
         log.info("Processing job: {}", corepoWorkId);
 
         try {
-            try (CorepoCacheScope cacheScope = corepoContent.cacheScope()) { // Ensure no objects live from older job
-                WorkTree tree = workTreeBuilder.buildTree(corepoWorkId);
+            try (CorepoCacheScope cacheScope = corepoContent.cacheScope()) { // Cache for this job only
+                WorkTree tree = workTreeBuilder.buildTree(cacheScope, corepoWorkId);
                 tree.prettyPrint(log::trace);
                 if (tree.isEmpty()) {
-                    workConsolidator.deleteWork(corepoWorkId);
+                    return workConsolidator.deleteWork(corepoWorkId);
+                } else if (config.hasWorkFingerprint() && workConsolidator.isUnchanged(tree)) {
+                    log.info("Work: {} is unchanged", corepoWorkId);
+                    unchanged.inc();
+                    return EMPTY_SET;
                 } else {
-                    WorkInformation content = workConsolidator.buildWorkInformation(tree, corepoWorkId);
-                    workConsolidator.saveWork(corepoWorkId, tree, content);
+                    WorkObjectEntity previous = config.hasWorkIncremental() ? workConsolidator.previousWork(corepoWorkId) : null;
+                    WorkPartials partials = new WorkPartials();
+                    WorkInformation content = workConsolidator.buildWorkInformation(cacheScope, tree, corepoWorkId, previous, partials);
+                    return workConsolidator.saveWork(corepoWorkId, tree, content, partials);
                 }
             } catch (EJBException ex) {
                 if (ex.getCause() instanceof RuntimeException)
@@ -102,4 +137,26 @@ public class PresentationObjectBuilder {
         }
     }
 
+    /**
+     * Queue the works that embed manifestations that have changed
+     * <p>
+     * This uses the connection of the job, so the jobs are committed with it.
+     *
+     * @param connection corepo database connection
+     * @param related    corepo-work-ids
+     * @param trackingId tracking of the job that caused the change
+     * @throws SQLException if the jobs cannot be queued
+     */
+    private void requeue(Connection connection, Set<String> related, String trackingId) throws SQLException {
+        String queue = config.getRelationQueue();
+        if (queue.isEmpty() || related.isEmpty())
+            return;
+        log.info("Queuing works with relations to changed manifestations: {}", related);
+        PreparedQueueSupplier<QueueJob> supplier = new QueueSupplier<>(QueueJob.STORAGE_ABSTRACTION).preparedSupplier(connection);
+        for (String corepoWorkId : related) {
+            supplier.enqueue(queue, new QueueJob(corepoWorkId, trackingId, false));
+        }
+        requeuedRelations.inc(related.size());
+    }
+
 }
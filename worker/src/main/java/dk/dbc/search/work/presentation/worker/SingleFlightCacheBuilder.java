@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+/**
+ * Registry of cache content builds in progress, shared by all jobs
+ * <p>
+ * When works that share manifestations (typically relations) are processed
+ * concurrently, they would each build the same cache content. A build is
+ * identified by manifestationId and modified timestamp, and a job requesting
+ * a build, that is already in progress, waits for that instead of starting
+ * a new one.
+ * <p>
+ * Starting a build may block (the build queue can be full), so it is done
+ * outside of the registry. The registry holds a placeholder, that is
+ * completed when the build completes.
+ * <p>
+ * A build that fails (or is cancelled) leaves the registry when it completes.
+ * A successful build stays until the job that started it has saved the
+ * result to the cache, and {@link Flight#release() released} it, so that
+ * other jobs, that still see the old cache entry, join it instead of
+ * building again. Jobs release their flights when they're done, no matter
+ * how they're done.
+ * <p>
+ * Only the job that started a build should write the result to the cache.
+ * Across instances the cache write is idempotent, so no coordination is
+ * attempted there.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Lock(LockType.READ)
+public class SingleFlightCacheBuilder {
+
+    @Inject
+    @Metric(name = "cache-build-shared")
+    Counter shared;
+
+    @Inject
+    @Metric(name = "cache-build-shared-wait", unit = MetricUnits.MICROSECONDS)
+    Histogram sharedWait;
+
+    private final ConcurrentHashMap<String, CompletableFuture<ManifestationInformation>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Start a build, or join one in progress
+     *
+     * @param dataBuilder The content provider
+     * @param start       How to start the build, if none is in progress
+     * @return the (future) content
+     */
+    public Flight build(CacheContentBuilder dataBuilder, Supplier<CompletableFuture<ManifestationInformation>> start) {
+        String key = dataBuilder.getManifestationId() + "@" + dataBuilder.getModified().toInstant();
+        CompletableFuture<ManifestationInformation> placeholder = new CompletableFuture<>();
+        CompletableFuture<ManifestationInformation> existing = inFlight.putIfAbsent(key, placeholder);
+        if (existing != null) {
+            shared.inc();
+            return new Flight(key, existing, null);
+        }
+        CompletableFuture<ManifestationInformation> build;
+        try {
+            build = start.get();
+        } catch (RuntimeException | Error ex) {
+            inFlight.remove(key, placeholder);
+            placeholder.completeExceptionally(ex);
+            throw ex;
+        }
+        build.whenComplete((content, error) -> {
+            if (error == null) {
+                placeholder.complete(content);
+            } else {
+                inFlight.remove(key, placeholder);
+                // Joined jobs should see a failed build, not be cancelled themselves
+                if (error instanceof CancellationException)
+                    error = new IllegalStateException("Build of " + key + " was cancelled", error);
+                placeholder.completeExceptionally(error);
+            }
+        });
+        return new Flight(key, placeholder, build);
+    }
+
+    /**
+     * Number of builds in progress (or not yet saved)
+     *
+     * @return number of distinct builds
+     */
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * A build as seen from one job
+     * <p>
+     * The job that started the build releases it, when the result has been
+     * saved. Any other job records how long it waited.
+     */
+    public class Flight implements Future<ManifestationInformation> {
+
+        private final String key;
+        private final CompletableFuture<ManifestationInformation> flight;
+        private final CompletableFuture<ManifestationInformation> build;
+
+        private Flight(String key, CompletableFuture<ManifestationInformation> flight, CompletableFuture<ManifestationInformation> build) {
+            this.key = key;
+            this.flight = flight;
+            this.build = build;
+        }
+
+        /**
+         * Did this job start the build
+         *
+         * @return if the result should be saved by this job
+         */
+        public boolean isOwner() {
+            return build != null;
+        }
+
+        /**
+         * Remove the build from the registry, if this job started it
+         * <p>
+         * This should be called when the result has been saved to the cache
+         * (or the job gave up), later requests will build again, if the cache
+         * isn't up to date
+         */
+        public void release() {
+            if (build != null)
+                inFlight.remove(key, flight);
+        }
+
+        @Override
+        public ManifestationInformation get() throws InterruptedException, ExecutionException {
+            long start = System.nanoTime();
+            try {
+                return flight.get();
+            } finally {
+                landed(start);
+            }
+        }
+
+        @Override
+        public ManifestationInformation get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long start = System.nanoTime();
+            try {
+                return flight.get(timeout, unit);
+            } finally {
+                landed(start);
+            }
+        }
+
+        private void landed(long start) {
+            if (build == null)
+                sharedWait.update(( System.nanoTime() - start ) / 1000L);
+        }
+
+        /**
+         * Cancel the build, if this job started it, and it hasn't started
+         * running
+         * <p>
+         * Jobs that joined the build, will see it fail
+         *
+         * @param mayInterruptIfRunning if a running build may be interrupted
+         * @return if the build was cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return build != null && build.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return build != null && build.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return flight.isDone();
+        }
+    }
+}
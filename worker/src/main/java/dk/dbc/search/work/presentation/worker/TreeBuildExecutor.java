@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded thread pool, shared by all jobs, for building the nodes of work
+ * trees concurrently
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class TreeBuildExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(TreeBuildExecutor.class);
+
+    @Resource(type = ManagedThreadFactory.class)
+    ThreadFactory threadFactory;
+
+    @Inject
+    Config config;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        int threads = config.getTreeBuildThreads();
+        if (threads > 0) {
+            log.info("Building work trees using {} threads", threads);
+            executor = new ThreadPoolExecutor(threads, threads,
+                                              1, TimeUnit.MINUTES,
+                                              new LinkedBlockingQueue<>(),
+                                              threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            log.info("Building work trees on the queue threads");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Should nodes be built by this executor, or on the calling thread
+     *
+     * @return if a thread pool is configured
+     */
+    public boolean isParallel() {
+        return executor != null;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
+import java.util.List;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Database access for the change feed
+ * <p>
+ * Polling for changes is done by scheduled tasks, outside of any request, so
+ * they look in the database through this bean, and not through the resource
+ * bean that started them.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Stateless
+public class WorkChanges {
+
+    @PersistenceContext(unitName = "workPresentation_PU")
+    EntityManager em;
+
+    /**
+     * Get the works that have changed after a position in the change feed
+     *
+     * @param changeTxid       the transaction id of the position
+     * @param persistentWorkId the work id of the position
+     * @param limit            max number of changes
+     * @return list of changes in order
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<WorkObjectEntity.Change> changesAfter(long changeTxid, String persistentWorkId, int limit) {
+        return WorkObjectEntity.changesAfter(em, changeTxid, persistentWorkId, limit);
+    }
+}
@@ -21,14 +21,20 @@ package dk.dbc.search.work.presentation.worker;
 import dk.dbc.search.work.presentation.api.jpa.CacheEntity;
 import dk.dbc.search.work.presentation.api.jpa.WorkContainsEntity;
 import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
+import dk.dbc.search.work.presentation.api.jpa.WorkRelationEntity;
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
 import dk.dbc.search.work.presentation.api.pojo.RelationInformation;
 import dk.dbc.search.work.presentation.api.pojo.SeriesInformation;
 import dk.dbc.search.work.presentation.api.pojo.TypedValue;
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import dk.dbc.search.work.presentation.api.pojo.WorkPartials;
 import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
 import dk.dbc.search.work.presentation.worker.tree.ObjectTree;
+import dk.dbc.search.work.presentation.worker.tree.TypedRelation;
+import dk.dbc.search.work.presentation.worker.tree.UnitTree;
 import dk.dbc.search.work.presentation.worker.tree.WorkTree;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,11 +45,16 @@ import javax.persistence.PersistenceContext;
 import javax.ws.rs.InternalServerErrorException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -52,9 +63,8 @@ import java.util.function.Predicate;
 import java.util.stream.Stream;
 import javax.ejb.EJBException;
 import javax.inject.Inject;
-import org.slf4j.MDC;
 
-import static java.util.Collections.EMPTY_LIST;
+import static java.util.Collections.EMPTY_SET;
 import static java.util.stream.Collectors.*;
 
 /**
@@ -69,34 +79,66 @@ public class WorkConsolidator {
 
     private static final Logger log = LoggerFactory.getLogger(WorkConsolidator.class);
 
+    private static final int PRUNE_DELETED_LIMIT = 100;
+
     @PersistenceContext(unitName = "workPresentation_PU")
     public EntityManager em;
 
     @Inject
     AsyncCacheContentBuilder asyncCacheContentBuilder;
 
+    @Inject
+    SingleFlightCacheBuilder singleFlightCacheBuilder;
+
+    @Inject
+    ManifestationBuildExecutor manifestationBuildExecutor;
+
     @Inject
     JavaScriptEnvironment jsEnv;
 
+    @Inject
+    Config config;
+
+    @Inject
+    @Metric(name = "skipped-writes")
+    Counter skippedWrites;
+
     /**
      * Remove a work record from the database
      *
      * @param corepoWorkId corepo-work-id of the work
+     * @return corepo-work-ids of the works that have relations to the
+     *         manifestations of the work
      */
     @Timed
-    public void deleteWork(String corepoWorkId) {
+    public Set<String> deleteWork(String corepoWorkId) {
         WorkObjectEntity work = WorkObjectEntity.fromCorepoWorkId(em, corepoWorkId);
-        if (work != null) {
-            List<WorkContainsEntity> oldWorkContainsList = WorkContainsEntity.listFrom(em, corepoWorkId);
-            oldWorkContainsList
-                    .stream()
-                    .map(WorkContainsEntity::getManifestationId)
-                    .forEach(manifestationId -> {
-                        CacheEntity.from(em, manifestationId).delete();
-                    });
-            WorkContainsEntity.updateToList(em, corepoWorkId, EMPTY_LIST);
-            work.delete();
-        }
+        if (work == null)
+            return EMPTY_SET;
+        Set<String> changed = changedManifestationIds(work.getContent(), null);
+        Map<String, String> oldWorkContains = WorkContainsEntity.updateToManifestationIds(em, corepoWorkId, EMPTY_SET);
+        CacheEntity.delete(em, oldWorkContains.keySet());
+        WorkRelationEntity.updateToManifestationIds(em, corepoWorkId, EMPTY_SET);
+        work.delete();
+        // Deleting leaves a tombstone for the change feed, remove some of the expired ones
+        Timestamp expired = Timestamp.from(Instant.now().minusMillis(config.getChangesDeletedRetention()));
+        int pruned = WorkObjectEntity.pruneDeleted(em, expired, PRUNE_DELETED_LIMIT);
+        if (pruned != 0)
+            log.debug("Pruned {} deleted works from the change feed", pruned);
+        return worksWithRelationsTo(corepoWorkId, changed);
+    }
+
+    /**
+     * Check if the work record is built from a tree with the same structure
+     * and timestamps as this
+     *
+     * @param tree The structure of the entire work
+     * @return if building and saving the work can be skipped
+     */
+    @Timed
+    public boolean isUnchanged(WorkTree tree) {
+        String fingerprint = WorkObjectEntity.fingerprintFromCorepoWorkId(em, tree.getCorepoWorkId());
+        return fingerprint != null && fingerprint.equals(tree.fingerprint());
     }
 
     /**
@@ -107,16 +149,22 @@ public class WorkConsolidator {
      * @param corepoWorkId corepo-work-id of the work
      * @param tree         The structure of the entire work
      * @param content      The record content
+     * @param partials     The intermediate results the content is built from
+     * @return corepo-work-ids of the works that have relations to
+     *         manifestations of this work, that have changed
      */
     @Timed
-    public void saveWork(String corepoWorkId, WorkTree tree, WorkInformation content) {
+    public Set<String> saveWork(String corepoWorkId, WorkTree tree, WorkInformation content, WorkPartials partials) {
         setWorkContains(tree);
+        WorkRelationEntity.updateToManifestationIds(em, corepoWorkId, tree.extractRelationManifestationIds());
 
         String persistentWorkId = content.workId;
         WorkObjectEntity work = WorkObjectEntity.from(em, persistentWorkId);
 
         WorkObjectEntity workByCorepoWorkId = WorkObjectEntity.fromCorepoWorkId(em, corepoWorkId);
         log.debug("record = {}, recordByCorepoWorkId = {}", work, workByCorepoWorkId);
+        // A new work cannot be embedded in other works with outdated content
+        Set<String> changed = workByCorepoWorkId == null ? EMPTY_SET : changedManifestationIds(workByCorepoWorkId.getContent(), content);
         if (workByCorepoWorkId == null) {
             log.info("Created persistent-work-id: {}", persistentWorkId);
         } else if (!workByCorepoWorkId.getPersistentWorkId().equals(persistentWorkId)) {
@@ -136,7 +184,67 @@ public class WorkConsolidator {
                 .orElseThrow(() -> new InternalServerErrorException("Could not extract modified from tree of " + corepoWorkId));
         work.setModified(Timestamp.from(modified));
         work.setContent(content);
-        work.save();
+        work.setFingerprint(tree.fingerprint());
+        work.setPartials(partials);
+        if (!work.save()) {
+            log.debug("Work: {} is unchanged", persistentWorkId);
+            skippedWrites.inc();
+        }
+        return worksWithRelationsTo(corepoWorkId, changed);
+    }
+
+    /**
+     * Find the manifestations that have been added, removed or changed in a
+     * way that is visible, when they're embedded as relations in other works
+     *
+     * @param before the old version of a work (or null)
+     * @param after  the new version of a work (or null)
+     * @return manifestationIds
+     */
+    static Set<String> changedManifestationIds(WorkInformation before, WorkInformation after) {
+        Map<String, ManifestationInformation> old = manifestationsOf(before);
+        Map<String, ManifestationInformation> now = manifestationsOf(after);
+        return Stream.concat(old.keySet().stream(), now.keySet().stream())
+                .filter(manifestationId -> !Objects.equals(old.get(manifestationId), now.get(manifestationId)))
+                .collect(toSet());
+    }
+
+    private static Map<String, ManifestationInformation> manifestationsOf(WorkInformation work) {
+        if (work == null || work.dbUnitInformation == null)
+            return Collections.emptyMap();
+        return work.dbUnitInformation.values().stream()
+                .flatMap(Collection::stream)
+                .collect(toMap(m -> m.manifestationId, m -> m, (t1, t2) -> t1));
+    }
+
+    /**
+     * Look up the works that have relations to some manifestations in the
+     * reverse index
+     *
+     * @param corepoWorkId     the work that the manifestations are from (this
+     *                         is excluded)
+     * @param manifestationIds the relation targets
+     * @return corepo-work-ids
+     */
+    private Set<String> worksWithRelationsTo(String corepoWorkId, Set<String> manifestationIds) {
+        if (manifestationIds.isEmpty())
+            return EMPTY_SET;
+        Set<String> corepoWorkIds = WorkRelationEntity.corepoWorkIdsWithRelationsTo(em, manifestationIds);
+        corepoWorkIds.remove(corepoWorkId);
+        log.debug("Changed manifestations: {} are related to from: {}", manifestationIds, corepoWorkIds);
+        return corepoWorkIds;
+    }
+
+    /**
+     * Load the current version of a work, for reusing the parts of it, that
+     * come from unchanged units
+     *
+     * @param corepoWorkId corepo-work-id of the work
+     * @return the work (detached) or null if none exists
+     */
+    @Timed
+    public WorkObjectEntity previousWork(String corepoWorkId) {
+        return WorkObjectEntity.detachedFromCorepoWorkId(em, corepoWorkId);
     }
 
     /**
@@ -144,17 +252,33 @@ public class WorkConsolidator {
      * <p>
      * This contains the sum of all the information that can be given from the
      * web-service. Which will then filter the content before presentation.
+     * <p>
+     * If the previous version of the work is given, the units that have the
+     * same fingerprint as when it was built, are copied from it, and only the
+     * manifestations of the other units (and the owner) are looked up. The
+     * work level aggregates are computed from the partial results of all the
+     * units.
      *
+     * @param scope        The corepo cache of the job
      * @param tree         The structure of the entire work
      * @param corepoWorkId For logging
+     * @param previous     The current version of the work or null for
+     *                     building from scratch
+     * @param partials     Where to store the intermediate results, for the
+     *                     next build
      * @return Work record
      */
     @Timed
-    public WorkInformation buildWorkInformation(WorkTree tree, String corepoWorkId) {
+    public WorkInformation buildWorkInformation(CorepoCacheScope scope, WorkTree tree, String corepoWorkId, WorkObjectEntity previous, WorkPartials partials) {
 
         WorkInformation work = new WorkInformation();
 
-        Map<String, ManifestationInformation> manifestationCache = buildManifestationCache(tree);
+        Map<String, String> unitFingerprints = tree.unitFingerprints();
+        Set<String> reusedUnits = reusableUnits(previous, unitFingerprints);
+        if (!reusedUnits.isEmpty())
+            log.debug("Reusing {} of {} units of {}", reusedUnits.size(), unitFingerprints.size(), corepoWorkId);
+
+        Map<String, ManifestationInformation> manifestationCache = buildManifestationCache(scope, tree, reusedUnits);
 
         removeDeletedPrimaries(manifestationCache, tree);
 
@@ -178,55 +302,113 @@ public class WorkConsolidator {
         // Map into unit->manifestations and unit->relationType->relationManifestation
         work.dbUnitInformation = new HashMap<>();
         work.dbRelUnitInformation = new HashMap<>();
+        partials.units = new HashMap<>();
 
         HashMap<SeriesInformation, AtomicInteger> allSI = new HashMap<>();
 
         Set<TypedValue> subjects = new HashSet<>();
         tree.forEach((unitId, unit) -> {
-            List<ManifestationInformation> fullManifestations = unit.values().stream() // All ObjectTree from a unit
+            WorkPartials.UnitPartial partial;
+            if (reusedUnits.contains(unitId)) {
+                partial = previous.getPartials().units.get(unitId);
+                work.dbUnitInformation.put(unitId, previous.getContent().dbUnitInformation.get(unitId));
+                work.dbRelUnitInformation.put(unitId, previous.getContent().dbRelUnitInformation.get(unitId));
+            } else {
+                partial = buildUnit(work, tree, unitId, unit, manifestationCache);
+                partial.fingerprint = unitFingerprints.get(unitId);
+            }
+            partials.units.put(unitId, partial);
+
+            if (partial.series != null)
+                partial.series.forEach(series -> allSI.computeIfAbsent(series, k -> new AtomicInteger()).incrementAndGet());
+            if (partial.subjects != null)
+                subjects.addAll(partial.subjects);
+        });
+
+        work.series = findSeriesInformation(allSI, primary.series);
+        work.subjects = TypedValue.distinctSet(subjects);
+
+        return work;
+    }
+
+    /**
+     * Add the manifestations and relations of a unit to a work
+     *
+     * @param work               the work to add to
+     * @param tree               the tree structure
+     * @param unitId             the unit
+     * @param unit               the unit structure
+     * @param manifestationCache all the manifestations that are looked up
+     * @return the partial results for the work aggregates
+     */
+    private WorkPartials.UnitPartial buildUnit(WorkInformation work, WorkTree tree, String unitId, UnitTree unit, Map<String, ManifestationInformation> manifestationCache) {
+        WorkPartials.UnitPartial partial = new WorkPartials.UnitPartial();
+
+        List<ManifestationInformation> fullManifestations = unit.values().stream() // All ObjectTree from a unit
+                .map(ObjectTree::values) // Find manifestationIds
+                .flatMap(Collection::stream) // as a stream of manifestation references
+                .map(CacheContentBuilder::getManifestationId)
+                .map(manifestationCache::get) // Lookup manifestation data
+                .filter(notNull()) // Not deleted
+                .collect(toList());
+
+        partial.series = fullManifestations.stream()
+                .map(m -> m.series)
+                .filter(notNull())
+                .collect(toList());
+
+        partial.subjects = fullManifestations.stream()
+                .map(m -> m.subjects) // as a stream of Set<String>
+                .filter(notNull())
+                .flatMap(Collection::stream) // as a stream of String
+                .collect(toSet());
+
+        Set<ManifestationInformation> manifestations = fullManifestations.stream()
+                .map(ManifestationInformation::onlyPresentationFields)
+                .collect(toSet());
+        work.dbUnitInformation.put(unitId, manifestations);
+
+        HashSet<RelationInformation> relationsForUnit = new HashSet<>();
+        unit.getRelations().forEach(tr -> {
+            tree.getRelations().get(tr).values().stream()
                     .map(ObjectTree::values) // Find manifestationIds
                     .flatMap(Collection::stream) // as a stream of manifestation references
                     .map(CacheContentBuilder::getManifestationId)
                     .map(manifestationCache::get) // Lookup manifestation data
                     .filter(notNull()) // Not deleted
-                    .collect(toList());
-
-            fullManifestations.forEach(m -> {
-                if (m.series != null)
-                    allSI.computeIfAbsent(m.series, k -> new AtomicInteger()).incrementAndGet();
-            });
-
-            fullManifestations.stream()
-                    .map(m -> m.subjects) // as a stream of Set<String>
-                    .filter(notNull())
-                    .flatMap(Collection::stream) // as a stream of String
-                    .forEach(subjects::add);
-
-            Set<ManifestationInformation> manifestations = fullManifestations.stream()
-                    .map(ManifestationInformation::onlyPresentationFields)
-                    .collect(toSet());
-            work.dbUnitInformation.put(unitId, manifestations);
-
-            HashSet<RelationInformation> relationsForUnit = new HashSet<>();
-            unit.getRelations().forEach(tr -> {
-                tree.getRelations().get(tr).values().stream()
-                        .map(ObjectTree::values) // Find manifestationIds
-                        .flatMap(Collection::stream) // as a stream of manifestation references
-                        .map(CacheContentBuilder::getManifestationId)
-                        .map(manifestationCache::get) // Lookup manifestation data
-                        .filter(notNull()) // Not deleted
-                        .map(RelationInformation.mapperWith(tr.getType().getName()))
-                        .map(RelationInformation::onlyPresentationFields)
-                        .forEach(relationsForUnit::add);
-            });
-
-            work.dbRelUnitInformation.put(unitId, relationsForUnit);
+                    .map(RelationInformation.mapperWith(tr.getType().getName()))
+                    .map(RelationInformation::onlyPresentationFields)
+                    .forEach(relationsForUnit::add);
         });
 
-        work.series = findSeriesInformation(allSI, primary.series);
-        work.subjects = TypedValue.distinctSet(subjects);
+        work.dbRelUnitInformation.put(unitId, relationsForUnit);
+        return partial;
+    }
 
-        return work;
+    /**
+     * Find the units, that can be copied from the previous version of the work
+     *
+     * @param previous         the previous version of the work (or null)
+     * @param unitFingerprints the fingerprints of the units as they are now
+     * @return set of unit ids
+     */
+    private static Set<String> reusableUnits(WorkObjectEntity previous, Map<String, String> unitFingerprints) {
+        if (previous == null || previous.getPartials() == null || previous.getPartials().units == null)
+            return EMPTY_SET;
+        WorkInformation content = previous.getContent();
+        if (content == null || content.dbUnitInformation == null || content.dbRelUnitInformation == null)
+            return EMPTY_SET;
+        Map<String, WorkPartials.UnitPartial> units = previous.getPartials().units;
+        return unitFingerprints.entrySet().stream()
+                .filter(e -> {
+                    WorkPartials.UnitPartial partial = units.get(e.getKey());
+                    return partial != null &&
+                           e.getValue().equals(partial.fingerprint) &&
+                           content.dbUnitInformation.containsKey(e.getKey()) &&
+                           content.dbRelUnitInformation.containsKey(e.getKey());
+                })
+                .map(Map.Entry::getKey)
+                .collect(toSet());
     }
 
     /**
@@ -265,44 +447,163 @@ public class WorkConsolidator {
     /**
      * Construct a cache, with all the documents used by this tree
      * <p>
+     * All existing cache entries are fetched in one go, and only those that
+     * are missing or outdated are built.
+     * <p>
      * This tries to build all cache objects, even if one fails, it keeps going
      * on, failing at the very end. Trying to put every object into the cache,
      * so that, during next run cache build collision errors are less likely
      *
-     * @param tree the tree structure
+     * @param scope       the corepo cache of the job
+     * @param tree        the tree structure
+     * @param reusedUnits units that aren't rebuilt, only the owner
+     *                    manifestation is needed from these
      * @return map of manifestation-id to content
      */
-    Map<String, ManifestationInformation> buildManifestationCache(WorkTree tree) {
-        Map<String, String> mdc = MDC.getCopyOfContextMap();
-
-        ManifestationCollection manifestationCollection = new ManifestationCollection();
-
-        // All manifestations as future ManiInfo (delete should be removed from cache)
-        tree.values().stream()
+    Map<String, ManifestationInformation> buildManifestationCache(CorepoCacheScope scope, WorkTree tree, Set<String> reusedUnits) {
+        // All manifestations (delete should be removed from cache)
+        Map<String, CacheContentBuilder> manifestations = tree.entrySet().stream()
+                .filter(e -> !reusedUnits.contains(e.getKey()))
+                .map(Map.Entry::getValue)
                 .map(Map::values)
                 .flatMap(Collection::stream)
                 .map(Map::values)
                 .flatMap(Collection::stream)
-                .map(cacheContentBuilder -> asyncCacheContentBuilder.getFromCache(cacheContentBuilder, mdc, true))
-                .collect(toList())
-                .forEach(manifestationCollection::include);
+                .collect(toMap(CacheContentBuilder::getManifestationId, c -> c, (t1, t2) -> t1, LinkedHashMap::new));
 
-        // All distinct relations as future ManiInfo (deletes should be retained in cache)
-        tree.getRelations().values().stream()
+        // The owner is needed for the work level fields
+        String ownerUnitId = tree.primaryUnit();
+        if (reusedUnits.contains(ownerUnitId)) {
+            String ownerId = tree.get(ownerUnitId).primaryObject(ownerUnitId);
+            tree.get(ownerUnitId).get(ownerId).values().stream()
+                    .filter(c -> c.getManifestationId().equals(ownerId))
+                    .forEach(c -> manifestations.putIfAbsent(ownerId, c));
+        }
+
+        // All distinct relations of the units that are rebuilt
+        // (deletes should be retained in cache)
+        Set<TypedRelation> neededRelations = tree.entrySet().stream()
+                .filter(e -> !reusedUnits.contains(e.getKey()))
+                .map(e -> e.getValue().getRelations())
+                .flatMap(Collection::stream)
+                .collect(toSet());
+        Map<String, CacheContentBuilder> relations = tree.getRelations().entrySet().stream()
+                .filter(e -> reusedUnits.isEmpty() || neededRelations.contains(e.getKey()))
+                .map(Map.Entry::getValue)
                 .map(Map::values)
                 .flatMap(Collection::stream)
                 .map(Map::values)
                 .flatMap(Collection::stream)
-                .collect(toMap(CacheContentBuilder::getManifestationId, c -> c, (t1, t2) -> t1)) // Distinct by manifestationId
-                .values()
-                .stream()
-                .map(cacheContentBuilder -> asyncCacheContentBuilder.getFromCache(cacheContentBuilder, mdc, false))
-                .collect(toList())
-                .forEach(manifestationCollection::include);
+                .collect(toMap(CacheContentBuilder::getManifestationId, c -> c, (t1, t2) -> t1, LinkedHashMap::new));
+
+        HashSet<String> manifestationIds = new HashSet<>(manifestations.keySet());
+        manifestationIds.addAll(relations.keySet());
+        Map<String, CacheEntity> cached = asyncCacheContentBuilder.getFromCache(manifestationIds);
+
+        ManifestationCollection manifestationCollection = new ManifestationCollection();
+        HashSet<String> deleted = new HashSet<>();
+        LinkedHashMap<String, CacheContentBuilder> outdated = new LinkedHashMap<>();
+
+        manifestations.forEach((manifestationId, dataBuilder) -> {
+            CacheEntity cacheObj = cached.get(manifestationId);
+            if (dataBuilder.isDeleted()) {
+                if (cacheObj != null)
+                    deleted.add(manifestationId);
+            } else if (isUpToDate(cacheObj, dataBuilder)) {
+                manifestationCollection.include(cacheObj.getContent());
+            } else {
+                outdated.putIfAbsent(manifestationId, dataBuilder);
+            }
+        });
+        relations.forEach((manifestationId, dataBuilder) -> {
+            CacheEntity cacheObj = deleted.contains(manifestationId) ? null : cached.get(manifestationId);
+            if (isUpToDate(cacheObj, dataBuilder)) {
+                manifestationCollection.include(cacheObj.getContent());
+            } else {
+                outdated.putIfAbsent(manifestationId, dataBuilder);
+            }
+        });
+
+        // Start all builds before waiting for any, joining builds other jobs
+        // have in progress. The primary unit goes first, it is needed for
+        // the work level information
+        Set<String> primaryManifestationIds = primaryManifestationIds(tree);
+        ManifestationBuildExecutor.Work work = manifestationBuildExecutor.newWork();
+        List<CacheContentBuilder> toBuild = outdated.values().stream()
+                .sorted(Comparator.comparing(c -> !primaryManifestationIds.contains(c.getManifestationId())))
+                .collect(toList());
+        LinkedHashMap<CacheContentBuilder, SingleFlightCacheBuilder.Flight> flights = new LinkedHashMap<>();
+        try {
+            for (CacheContentBuilder dataBuilder : toBuild) {
+                flights.put(dataBuilder, startBuild(scope, work, dataBuilder, primaryManifestationIds.contains(dataBuilder.getManifestationId())));
+            }
+        } catch (RuntimeException ex) {
+            abandon(flights.values());
+            throw ex;
+        }
+        try {
+            ArrayList<CacheEntity> built = new ArrayList<>(flights.size());
+            flights.forEach((dataBuilder, flight) -> {
+                ManifestationInformation content = manifestationCollection.include(flight);
+                if (content != null && flight.isOwner())
+                    built.add(CacheEntity.of(dataBuilder.getManifestationId(), dataBuilder.getModified(), content));
+            });
+
+            if (!built.isEmpty() || !deleted.isEmpty())
+                asyncCacheContentBuilder.saveToCache(built, deleted);
+        } finally {
+            // Other jobs can build these again, now that the cache is updated
+            flights.values().forEach(SingleFlightCacheBuilder.Flight::release);
+        }
 
         return manifestationCollection.getManifestations();
     }
 
+    private SingleFlightCacheBuilder.Flight startBuild(CorepoCacheScope scope, ManifestationBuildExecutor.Work work, CacheContentBuilder dataBuilder, boolean primary) {
+        return singleFlightCacheBuilder.build(dataBuilder, () -> work.submit(primary, () -> asyncCacheContentBuilder.buildContent(scope, dataBuilder)));
+    }
+
+    /**
+     * Cancel the builds this job started, and wait for those that couldn't be
+     * cancelled, so no build runs on after the job has failed
+     *
+     * @param flights the builds started (or joined) so far
+     */
+    private static void abandon(Collection<SingleFlightCacheBuilder.Flight> flights) {
+        try {
+            flights.forEach(flight -> flight.cancel(false));
+            for (SingleFlightCacheBuilder.Flight flight : flights) {
+                if (flight.isOwner()) {
+                    try {
+                        flight.get();
+                    } catch (ExecutionException ex) {
+                        log.debug("Abandoned build failed: {}", ex.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted waiting for abandoned builds");
+        } finally {
+            flights.forEach(SingleFlightCacheBuilder.Flight::release);
+        }
+    }
+
+    private static Set<String> primaryManifestationIds(WorkTree tree) {
+        String primaryUnit = tree.primaryUnit();
+        if (primaryUnit == null)
+            return EMPTY_SET;
+        return tree.get(primaryUnit).values().stream()
+                .map(ObjectTree::values)
+                .flatMap(Collection::stream)
+                .map(CacheContentBuilder::getManifestationId)
+                .collect(toSet());
+    }
+
+    private static boolean isUpToDate(CacheEntity cacheObj, CacheContentBuilder dataBuilder) {
+        return cacheObj != null && !cacheObj.getModified().before(dataBuilder.getModified());
+    }
+
     /**
      * Given a tree, set the workcontains list, and remove orphaned cache
      * entries
@@ -313,23 +614,16 @@ public class WorkConsolidator {
         String corepoWorkId = tree.getCorepoWorkId();
         Set<String> activeManifestationIds = tree.extractManifestationIds();
 
-        WorkContainsEntity.listFrom(em, corepoWorkId).stream()
-                .map(WorkContainsEntity::getManifestationId)
-                .filter(m -> !activeManifestationIds.contains(m))
-                .forEach(m -> CacheEntity.from(em, m).delete());
-
-        activeManifestationIds.forEach(manifestationId -> {
-            WorkContainsEntity wc = WorkContainsEntity.from(em, manifestationId);
-            if (wc != null && !wc.getCorepoWorkId().equals(corepoWorkId)) {
-                log.warn("Removing manifestation {} from {}", manifestationId, wc.getCorepoWorkId());
-                em.remove(wc);
-            }
+        Map<String, String> oldWorkContains = WorkContainsEntity.updateToManifestationIds(em, corepoWorkId, activeManifestationIds);
+        oldWorkContains.forEach((manifestationId, oldCorepoWorkId) -> {
+            if (!oldCorepoWorkId.equals(corepoWorkId))
+                log.warn("Removing manifestation {} from {}", manifestationId, oldCorepoWorkId);
         });
 
-        List<WorkContainsEntity> workContains = activeManifestationIds.stream()
-                .map(m -> WorkContainsEntity.from(em, corepoWorkId, m))
-                .collect(toList());
-        WorkContainsEntity.updateToList(em, corepoWorkId, workContains);
+        Set<String> orphaned = oldWorkContains.keySet().stream()
+                .filter(m -> !activeManifestationIds.contains(m))
+                .collect(toSet());
+        CacheEntity.delete(em, orphaned);
     }
 
     /**
@@ -385,14 +679,13 @@ public class WorkConsolidator {
          * exception)
          *
          * @param future Where to get the manifestation
+         * @return the manifestation or null if it failed
          */
-        @SuppressWarnings("PMD.UnusedPrivateMethod")
-        private void include(Future<ManifestationInformation> future) {
+        private ManifestationInformation include(Future<ManifestationInformation> future) {
             try {
                 ManifestationInformation maniInfo = future.get();
-                if (maniInfo != null) {
-                    manifestations.put(maniInfo.manifestationId, maniInfo);
-                }
+                include(maniInfo);
+                return maniInfo;
             } catch (ExecutionException ex) {
                 if (ex.getCause() instanceof EJBException) {
                     exception = (EJBException) ex.getCause();
@@ -402,6 +695,18 @@ public class WorkConsolidator {
             } catch (InterruptedException ex) {
                 exception = new EJBException("Could not build cache entry", ex);
             }
+            return null;
+        }
+
+        /**
+         * Store a manifestation
+         *
+         * @param maniInfo the manifestation (ignored if null)
+         */
+        private void include(ManifestationInformation maniInfo) {
+            if (maniInfo != null) {
+                manifestations.put(maniInfo.manifestationId, maniInfo);
+            }
         }
 
         /**
@@ -30,7 +30,12 @@ import dk.dbc.search.work.presentation.worker.tree.RelationTree;
 import dk.dbc.search.work.presentation.worker.tree.TypedRelation;
 import java.time.Instant;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.ejb.Stateless;
@@ -41,6 +46,8 @@ import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector.ObjectPart.*;
+
 /**
  * Extract the structure of the work/units/records for a CORepo work
  *
@@ -51,61 +58,212 @@ public class WorkTreeBuilder {
 
     private static final Logger log = LoggerFactory.getLogger(WorkTreeBuilder.class);
 
+    @Inject
+    Config config;
+
     @Inject
     CorepoContentServiceConnector contentService;
 
+    @Inject
+    TreeBuildExecutor executor;
+
     @PersistenceContext(unitName = "workPresentation_PU")
     EntityManager em;
 
     /**
      * This builds a work structure
      *
-     * @param work "work:*" id (not validated)
+     * @param scope the corepo cache of the job
+     * @param work  "work:*" id (not validated)
      * @return a tree representation of the work
      */
     @Timed
-    public WorkTree buildTree(String work) {
-        ObjectMetaData workMetaData = contentService.objectMetaData(work);
+    public WorkTree buildTree(CorepoCacheScope scope, String work) {
+        ObjectMetaData workMetaData = contentService.objectMetaData(scope, work);
         log.trace("work = {}", workMetaData);
         WorkTree tree = new WorkTree(work, workMetaData.getModified());
         if (workMetaData.isActive()) {
-            buildWorkTree(tree, work);
+            if (executor.isParallel()) {
+                buildWorkTreeParallel(scope, tree, work);
+            } else {
+                if (config.hasCorepoPrefetch()) {
+                    prefetchTree(scope, work);
+                }
+                buildWorkTree(scope, tree, work);
+            }
         }
         return tree;
     }
 
-    private void buildWorkTree(WorkTree workTree, String work) throws IllegalStateException {
-        RelsSys workRelsSys = contentService.relsSys(work);
+    /**
+     * Request all the documents needed for building the tree, one level at a
+     * time
+     * <p>
+     * All requests for a level are in flight at the same time, so the time
+     * spent waiting for corepo-content-service is roughly the depth of the tree
+     * times a round trip, instead of the number of nodes times a round trip.
+     * <p>
+     * Errors are not reported here, they're raised when the tree is built from
+     * the cached responses.
+     *
+     * @param scope the corepo cache of the job
+     * @param work  "work:*" id
+     */
+    private void prefetchTree(CorepoCacheScope scope, String work) {
+        try {
+            contentService.prefetch(scope, List.of(work), RELS_SYS);
+            List<String> units = contentService.relsSys(scope, work).getChildren();
+
+            contentService.prefetch(scope, units, META_DATA, RELS_SYS, RELS_EXT);
+            HashSet<String> objects = new HashSet<>();
+            HashSet<String> relationUnits = new HashSet<>();
+            for (String unit : units) {
+                objects.addAll(contentService.relsSys(scope, unit).getChildren());
+                RelsExt unitRelsExt = contentService.relsExt(scope, unit);
+                if (unitRelsExt != null) {
+                    unitRelsExt.forEach((type, ids) -> {
+                        if (type.isPresentable()) {
+                            ids.stream()
+                                    .filter(s -> s.startsWith("unit:"))
+                                    .forEach(relationUnits::add);
+                        }
+                    });
+                }
+            }
+
+            contentService.prefetch(scope, objects, META_DATA, RELS_SYS, DATASTREAMS);
+            contentService.prefetch(scope, relationUnits, META_DATA, RELS_SYS);
+            HashSet<String> relationObjects = new HashSet<>();
+            for (String unit : relationUnits) {
+                if (contentService.objectIsActive(scope, unit)) {
+                    relationObjects.addAll(contentService.relsSys(scope, unit).getChildren());
+                }
+            }
+            relationObjects.removeAll(objects);
+
+            contentService.prefetch(scope, relationObjects, META_DATA, RELS_SYS, DATASTREAMS);
+            for (String object : objects) {
+                contentService.prefetchDatastreamMetaData(scope, object, contentService.datastreams(scope, object).getStreams());
+            }
+            for (String object : relationObjects) {
+                contentService.prefetchDatastreamMetaData(scope, object, contentService.datastreams(scope, object).getStreams());
+            }
+        } catch (RuntimeException ex) {
+            log.debug("Prefetching of {} stopped: {}", work, ex.getMessage());
+        }
+    }
+
+    private void buildWorkTree(CorepoCacheScope scope, WorkTree workTree, String work) throws IllegalStateException {
+        RelsSys workRelsSys = contentService.relsSys(scope, work);
         log.trace("workRelsSys = {}", workRelsSys);
         workRelsSys.getChildren()
-                .forEach(unit -> workTree.put(unit, buildUnitTree(unit)));
+                .forEach(unit -> workTree.put(unit, buildUnitTree(scope, unit)));
         HashSet<TypedRelation> relationUnits = new HashSet<>();
         workTree.values().forEach(unit -> relationUnits.addAll(unit.getRelations()));
         relationUnits.forEach(tr -> {
-            RelationTree relTree = buildRelationTree(tr);
+            RelationTree relTree = buildRelationTree(scope, tr);
             workTree.addRelation(tr, relTree);
         });
     }
 
-    private UnitTree buildUnitTree(String unit) throws IllegalStateException {
-        ObjectMetaData unitMetaData = contentService.objectMetaData(unit);
+    /**
+     * Build the tree level by level, with the nodes of a level built
+     * concurrently by the {@link TreeBuildExecutor}
+     * <p>
+     * A unit is expanded into its objects and its relation units as soon as
+     * the unit itself is built, so relations doesn't wait for all the units of
+     * the work to complete. The tasks never wait for other tasks, only the
+     * calling thread waits for the tree to complete.
+     *
+     * @param scope    the corepo cache of the job
+     * @param workTree where to attach the units and relations
+     * @param work     "work:*" id
+     * @throws IllegalStateException if a node is deleted or inconsistent
+     */
+    private void buildWorkTreeParallel(CorepoCacheScope scope, WorkTree workTree, String work) throws IllegalStateException {
+        RelsSys workRelsSys = contentService.relsSys(scope, work);
+        log.trace("workRelsSys = {}", workRelsSys);
+        ConcurrentHashMap<TypedRelation, CompletableFuture<RelationTree>> relations = new ConcurrentHashMap<>();
+        LinkedHashMap<String, CompletableFuture<UnitTree>> units = new LinkedHashMap<>();
+        workRelsSys.getChildren().forEach(unit -> {
+            units.computeIfAbsent(unit, u -> CompletableFuture
+                          .supplyAsync(() -> buildUnitNode(scope, unit), executor)
+                          .thenCompose(unitTree -> {
+                              unitTree.getRelations()
+                                      .forEach(tr -> relations.computeIfAbsent(tr, r -> buildRelationTreeAsync(scope, r)));
+                              return withObjects(scope, unitTree, contentService.relsSys(scope, unit).getChildren());
+                          }));
+        });
+        // When all units are complete, all relations have been registered
+        units.forEach((unit, unitTree) -> workTree.put(unit, join(unitTree)));
+        relations.forEach((tr, relTree) -> workTree.addRelation(tr, join(relTree)));
+    }
+
+    private CompletableFuture<RelationTree> buildRelationTreeAsync(CorepoCacheScope scope, TypedRelation entry) {
+        return CompletableFuture
+                .supplyAsync(() -> buildRelationNode(scope, entry), executor)
+                .thenCompose(relsTree -> withObjects(scope, relsTree, contentService.relsSys(scope, entry.getUnit()).getChildren()));
+    }
+
+    /**
+     * Build all the objects concurrently and attach them to a node
+     *
+     * @param <T>     node type
+     * @param scope   the corepo cache of the job
+     * @param node    where to attach the object trees
+     * @param objects ids of the objects
+     * @return future node with objects attached
+     */
+    private <T extends Map<String, ObjectTree>> CompletableFuture<T> withObjects(CorepoCacheScope scope, T node, List<String> objects) {
+        LinkedHashMap<String, CompletableFuture<ObjectTree>> objectTrees = new LinkedHashMap<>();
+        objects.forEach(object -> objectTrees.computeIfAbsent(
+                object, o -> CompletableFuture.supplyAsync(() -> buildObjectTree(scope, object), executor)));
+        return CompletableFuture.allOf(objectTrees.values().toArray(new CompletableFuture[objectTrees.size()]))
+                .thenApply(v -> {
+                    objectTrees.forEach((object, objectTree) -> node.put(object, objectTree.join()));
+                    return node;
+                });
+    }
+
+    private UnitTree buildUnitTree(CorepoCacheScope scope, String unit) throws IllegalStateException {
+        UnitTree unitTree = buildUnitNode(scope, unit);
+        contentService.relsSys(scope, unit).getChildren()
+                .forEach(object -> unitTree.put(object, buildObjectTree(scope, object)));
+        return unitTree;
+    }
+
+    /**
+     * Build a unit, with relations but without objects
+     *
+     * @param scope the corepo cache of the job
+     * @param unit  "unit:*" id
+     * @return unit without objects
+     * @throws IllegalStateException if the unit is deleted
+     */
+    private UnitTree buildUnitNode(CorepoCacheScope scope, String unit) throws IllegalStateException {
+        if (config.hasCorepoPrefetch()) {
+            contentService.prefetch(scope, List.of(unit), META_DATA, RELS_SYS, RELS_EXT);
+        }
+        ObjectMetaData unitMetaData = contentService.objectMetaData(scope, unit);
         if (!unitMetaData.isActive()) {
             throw new IllegalStateException("Unit: " + unit + " is deleted but part of rels-sys");
         }
-        RelsSys unitRelsSys = contentService.relsSys(unit);
+        RelsSys unitRelsSys = contentService.relsSys(scope, unit);
         Instant unitTs = unitMetaData.getModified();
         UnitTree unitTree = new UnitTree(unitRelsSys.isPrimary(), unitTs);
 
-        unitRelsSys.getChildren()
-                .forEach(object -> unitTree.put(object, buildObjectTree(object)));
-
-        RelsExt unitRelsExt = contentService.relsExt(unit);
+        RelsExt unitRelsExt = contentService.relsExt(scope, unit);
         if (unitRelsExt != null) {
             unitRelsExt.forEach((type, ids) -> {
                 if (type.isPresentable()) {
-                    ids.stream()
+                    List<String> relationUnits = ids.stream()
                             .filter(s -> s.startsWith("unit:")) // This can be removed when corepo has been cleaned up for bad relations
-                            .filter(contentService::objectIsActive) // This is a hack, because some relations haven't been removed when they were deleted
+                            .collect(Collectors.toList());
+                    if (config.hasCorepoPrefetch()) {
+                        contentService.prefetch(scope, relationUnits, META_DATA);
+                    }
+                    relationUnits.stream()
+                            .filter(r -> contentService.objectIsActive(scope, r)) // This is a hack, because some relations haven't been removed when they were deleted
                             .forEach(r -> unitTree.addRelation(type, r));
                 }
             });
@@ -113,18 +271,22 @@ public class WorkTreeBuilder {
         return unitTree;
     }
 
-    private ObjectTree buildObjectTree(String object) throws IllegalStateException {
-        ObjectMetaData objectMetaData = contentService.objectMetaData(object);
+    private ObjectTree buildObjectTree(CorepoCacheScope scope, String object) throws IllegalStateException {
+        if (config.hasCorepoPrefetch()) {
+            contentService.prefetch(scope, List.of(object), META_DATA, RELS_SYS, DATASTREAMS);
+            contentService.prefetchDatastreamMetaData(scope, object, contentService.datastreams(scope, object).getStreams());
+        }
+        ObjectMetaData objectMetaData = contentService.objectMetaData(scope, object);
         if (!objectMetaData.isActive()) {
             throw new IllegalStateException("Object: " + object + " is deleted but part of rels-sys");
         }
-        RelsSys objectRelsSys = contentService.relsSys(object);
+        RelsSys objectRelsSys = contentService.relsSys(scope, object);
         ObjectTree objectTree = new ObjectTree(objectRelsSys.isPrimary(), objectMetaData.getModified());
 
-        Map<String, DataStreamMetaData> streamMetaDatas = contentService.datastreams(object).getStreams()
+        Map<String, DataStreamMetaData> streamMetaDatas = contentService.datastreams(scope, object).getStreams()
                 .stream()
                 .collect(Collectors.toMap(stream -> stream,
-                                          stream -> contentService.datastreamMetaData(object, stream)));
+                                          stream -> contentService.datastreamMetaData(scope, object, stream)));
 
         Stream.Builder<Instant> timestamps = Stream.builder();
         timestamps.accept(objectMetaData.getModified());
@@ -141,7 +303,7 @@ public class WorkTreeBuilder {
                 .reduce(WorkTreeBuilder::latestOf)
                 .orElse(Instant.MIN);
 
-        contentService.datastreams(object).getStreams().forEach(stream -> {
+        contentService.datastreams(scope, object).getStreams().forEach(stream -> {
             if (stream.startsWith(CacheContentBuilder.LOCAL_DATA)) {
                 DataStreamMetaData streamMetaData = streamMetaDatas.get(stream);
                 Instant streamModified = latestOf(sharedDataModified, streamMetaData.getCreated());
@@ -160,20 +322,48 @@ public class WorkTreeBuilder {
         return objectTree;
     }
 
-    private RelationTree buildRelationTree(TypedRelation entry) throws IllegalStateException {
+    private RelationTree buildRelationTree(CorepoCacheScope scope, TypedRelation entry) throws IllegalStateException {
+        RelationTree relsTree = buildRelationNode(scope, entry);
+        contentService.relsSys(scope, entry.getUnit()).getChildren()
+                .forEach(object -> relsTree.put(object, buildObjectTree(scope, object)));
+        return relsTree;
+    }
+
+    /**
+     * Build a relation, without objects
+     *
+     * @param scope the corepo cache of the job
+     * @param entry the relation type and unit
+     * @return relation without objects
+     * @throws IllegalStateException if the unit is deleted
+     */
+    private RelationTree buildRelationNode(CorepoCacheScope scope, TypedRelation entry) throws IllegalStateException {
         String unit = entry.getUnit();
-        ObjectMetaData unitMetaData = contentService.objectMetaData(unit);
+        ObjectMetaData unitMetaData = contentService.objectMetaData(scope, unit);
         if (!unitMetaData.isActive()) {
             throw new IllegalStateException("Unit: " + unit + " is deleted but part of rels-sys");
         }
+        return new RelationTree(entry.getType());
+    }
 
-        RelsSys unitRelsSys = contentService.relsSys(unit);
-        RelationTree relsTree = new RelationTree(entry.getType());
-
-        unitRelsSys.getChildren()
-                .forEach(object -> relsTree.put(object, buildObjectTree(object)));
-
-        return relsTree;
+    /**
+     * Wait for a future, raising the exception that caused it to fail
+     *
+     * @param <T>    value type
+     * @param future the computation
+     * @return the value
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw ex;
+        }
     }
 
     private static Instant latestOf(Instant first, Instant second) {
@@ -23,8 +23,11 @@ import java.io.InputStream;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -53,6 +56,19 @@ abstract class ElementHandler extends DefaultHandler {
 
     private static final SAXParserFactory FACTORY = makeSAXParserFactory();
 
+    // Parsing threads beyond this create a parser, that is discarded after use
+    private static final int MAX_IDLE_PARSERS = 16;
+
+    /**
+     * Parsers are expensive to create, so idle ones are kept for reuse
+     * <p>
+     * They are kept in a bounded pool rather than per thread, so that
+     * container threads don't pin the application classloader. A parser is
+     * {@link SAXParser#reset()} before it is returned to the pool, so it
+     * doesn't hold on to the handler, or state from a failed parse.
+     */
+    private static final ArrayBlockingQueue<SAXParser> PARSERS = new ArrayBlockingQueue<>(MAX_IDLE_PARSERS);
+
     private static SAXParserFactory makeSAXParserFactory() {
         synchronized (SAXParserFactory.class) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -61,66 +77,254 @@ abstract class ElementHandler extends DefaultHandler {
         }
     }
 
+    private static SAXParser makeSAXParser() {
+        try {
+            return FACTORY.newSAXParser();
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IllegalStateException("Cannot create SAX parser", ex);
+        }
+    }
+
     // Date time is in "2018-11-24T23:58:36.175+01:00" format not in DateTimeFormatter.ISO_INSTANT
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
 
+    private static final long DAYS_0000_TO_1970 = 719528L;
+
     public static Instant parseTimeStamp(String ts) {
+        Instant instant = parseFixedTimeStamp(ts);
+        if (instant != null)
+            return instant;
+        return parseTimeStampWithFormatter(ts);
+    }
+
+    static Instant parseTimeStampWithFormatter(String ts) {
         TemporalAccessor time = DATE_TIME_FORMAT.parse(ts);
         return Instant.from(time);
     }
 
+    /**
+     * Parse the layout corepo uses: "yyyy-MM-ddTHH:mm:ss.SSS" followed by
+     * "Z" or "+HH:MM" without going through the DateTimeFormatter
+     * <p>
+     * Anything that doesn't fit (or that the formatter would resolve or
+     * reject) is left for the formatter
+     *
+     * @param ts timestamp
+     * @return instant or null if the formatter should parse it
+     */
+    static Instant parseFixedTimeStamp(String ts) {
+        int length = ts.length();
+        if (length != 24 && length != 29 ||
+            ts.charAt(4) != '-' || ts.charAt(7) != '-' || ts.charAt(10) != 'T' ||
+            ts.charAt(13) != ':' || ts.charAt(16) != ':' || ts.charAt(19) != '.')
+            return null;
+        int year = digits(ts, 0, 4);
+        int month = digits(ts, 5, 2);
+        int day = digits(ts, 8, 2);
+        int hour = digits(ts, 11, 2);
+        int minute = digits(ts, 14, 2);
+        int second = digits(ts, 17, 2);
+        int millis = digits(ts, 20, 3);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) ||
+            hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0)
+            return null;
+        int offset;
+        if (length == 24) {
+            if (ts.charAt(23) != 'Z')
+                return null;
+            offset = 0;
+        } else {
+            char sign = ts.charAt(23);
+            int offsetHours = digits(ts, 24, 2);
+            int offsetMinutes = digits(ts, 27, 2);
+            if (sign != '+' && sign != '-' || ts.charAt(26) != ':' ||
+                offsetHours < 0 || offsetHours > 17 || offsetMinutes < 0 || offsetMinutes > 59)
+                return null;
+            offset = ( offsetHours * 60 + offsetMinutes ) * 60;
+            if (sign == '-')
+                offset = -offset;
+        }
+        long epochSecond = epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second - offset;
+        return Instant.ofEpochSecond(epochSecond, millis * 1_000_000L);
+    }
+
+    private static int digits(String s, int pos, int count) {
+        int value = 0;
+        for (int i = pos ; i < pos + count ; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + ( c - '0' );
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return ( year & 3 ) == 0 && ( year % 100 != 0 || year % 400 == 0 );
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // As LocalDate::toEpochDay for positive years
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year + ( year + 3 ) / 4 - ( year + 99 ) / 100 + ( year + 399 ) / 400;
+        total += ( 367 * month - 362 ) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year))
+                total--;
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+
     public final void parse(InputStream is) {
+        SAXParser parser = PARSERS.poll();
+        if (parser == null)
+            parser = makeSAXParser();
         try {
-            SAXParser parser = FACTORY.newSAXParser();
             XMLReader xmlReader = parser.getXMLReader();
             xmlReader.setContentHandler(this);
             xmlReader.parse(new InputSource(is));
-        } catch (ParserConfigurationException | SAXException | IOException ex) {
+        } catch (SAXException | IOException ex) {
             throw new IllegalStateException("Error parsing XML input", ex);
+        } finally {
+            parser.reset();
+            PARSERS.offer(parser);
         }
     }
 
-    private StringBuilder buffer; // if Null buffer has been delivered upon close
-    private final HashMap<String, String> lastAttributes = new HashMap<>();
+    private final StringBuilder buffer = new StringBuilder(64);
+    private boolean open; // if false buffer has been delivered upon close
+    private final ElementAttributes lastAttributes = new ElementAttributes();
     private String lastUri;
     private String lastLocalName;
 
+    /**
+     * Called for every element
+     * <p>
+     * The attributes map is only valid during the call. It contains the
+     * attributes both by localName and by {namespace}localName.
+     *
+     * @param uri        namespace of the element
+     * @param localName  name of the element
+     * @param attributes attributes of the element
+     * @param characters text content or null if the element has child
+     *                   elements
+     */
     public abstract void element(String uri, String localName, Map<String, String> attributes, String characters);
 
     @Override
     public final void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-        if (buffer != null) { // Previous open hasn't been closed
+        if (open) { // Previous open hasn't been closed
             log.trace("element({}, {}, Attributes, null)", lastUri, lastLocalName);
             element(lastUri, lastLocalName, lastAttributes, null);
         }
         lastUri = uri;
         lastLocalName = localName;
-        lastAttributes.clear();
-        for (int i = 0 ; i < attributes.getLength() ; i++) {
-            String value = attributes.getValue(i);
-            String attrName = attributes.getLocalName(i);
-            String ns = attributes.getURI(i);
-            if (ns != null && !ns.isEmpty()) {
-                lastAttributes.put('{' + ns + '}' + attrName, value);
-            }
-            lastAttributes.put(attrName, value);
-        }
-        buffer = new StringBuilder();
+        lastAttributes.set(attributes);
+        buffer.setLength(0);
+        open = true;
     }
 
     @Override
     public final void characters(char[] ch, int start, int length) throws SAXException {
-        if (buffer != null)
+        if (open)
             buffer.append(ch, start, length);
     }
 
     @Override
     public final void endElement(String uri, String localName, String qName) throws SAXException {
-        if (buffer != null) {
-            String characters = buffer.toString();
-            log.trace("element({}, {}, Attributes, {})", uri, localName, characters);
+        if (open) {
+            String characters = buffer.length() == 0 ? "" : buffer.toString();
+            if (log.isTraceEnabled())
+                log.trace("element({}, {}, Attributes, {})", uri, localName, characters);
             element(uri, localName, lastAttributes, characters);
-            buffer = null;
+            open = false;
+        }
+    }
+
+    /**
+     * The attributes of the last opened element
+     * <p>
+     * The parser reuses its attributes object, so the values are copied into
+     * arrays that are reused between elements. Lookups are linear, there are
+     * only a few attributes on the corepo elements. A real map is only built if
+     * someone iterates the attributes.
+     */
+    private static final class ElementAttributes extends AbstractMap<String, String> {
+
+        private String[] uris = new String[4];
+        private String[] localNames = new String[4];
+        private String[] values = new String[4];
+        private int length;
+
+        private void set(Attributes attributes) {
+            length = attributes.getLength();
+            if (length > values.length) {
+                int size = Integer.highestOneBit(length) << 1;
+                uris = new String[size];
+                localNames = new String[size];
+                values = new String[size];
+            }
+            for (int i = 0 ; i < length ; i++) {
+                String ns = attributes.getURI(i);
+                uris[i] = ns == null ? "" : ns;
+                localNames[i] = attributes.getLocalName(i);
+                values[i] = attributes.getValue(i);
+            }
+        }
+
+        @Override
+        public String get(Object key) {
+            if (!( key instanceof String ))
+                return null;
+            String name = (String) key;
+            // Last one wins, as if they were put into a map in order
+            if (name.startsWith("{")) {
+                int end = name.indexOf('}');
+                for (int i = length - 1 ; i >= 0 ; i--) {
+                    if (uris[i].length() == end - 1 &&
+                        name.startsWith(uris[i], 1) &&
+                        name.length() - end - 1 == localNames[i].length() &&
+                        name.startsWith(localNames[i], end + 1))
+                        return values[i];
+                }
+            } else {
+                for (int i = length - 1 ; i >= 0 ; i--) {
+                    if (name.equals(localNames[i]))
+                        return values[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            HashMap<String, String> map = new HashMap<>();
+            for (int i = 0 ; i < length ; i++) {
+                if (!uris[i].isEmpty())
+                    map.put('{' + uris[i] + '}' + localNames[i], values[i]);
+                map.put(localNames[i], values[i]);
+            }
+            return map.entrySet();
         }
     }
 }
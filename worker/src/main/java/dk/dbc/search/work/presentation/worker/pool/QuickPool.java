@@ -38,6 +38,11 @@ public class QuickPool<T> extends GenericObjectPool<T> {
 
     private static final Logger log = LoggerFactory.getLogger(QuickPool.class);
 
+    private static final Listener NO_LISTENER = new Listener() {
+    };
+
+    private final Factory<T> factory;
+
     /**
      * Constructor for supplier
      *
@@ -45,21 +50,99 @@ public class QuickPool<T> extends GenericObjectPool<T> {
      * @param supplier Method that generates a T object
      */
     public QuickPool(Supplier<T> supplier) {
-        super(new BasePooledObjectFactory<T>() {
-            @Override
-            public T create() throws Exception {
-                log.debug("Creating object");
-                T get = supplier.get();
-                log.debug("Created object {}", get);
-                return get;
-            }
+        this(new Factory<>(supplier));
+    }
 
-            @Override
-            public PooledObject<T> wrap(T t) {
-                log.debug("Wrapping object {}", t);
-                return new DefaultPooledObject<>(t);
-            }
-        });
+    private QuickPool(Factory<T> factory) {
+        super(factory);
+        this.factory = factory;
+    }
+
+    /**
+     * Set the receiver of pool events (for metrics)
+     *
+     * @param listener the receiver, or null for none
+     */
+    public void setListener(Listener listener) {
+        factory.listener = listener == null ? NO_LISTENER : listener;
+    }
+
+    /**
+     * Receiver of pool events
+     * <p>
+     * The methods are called on the thread that causes the event, so they
+     * should be quick
+     */
+    public interface Listener {
+
+        /**
+         * An object has been leased
+         *
+         * @param nanos how long it took to get the object (including creating
+         *              it)
+         */
+        default void borrowed(long nanos) {
+        }
+
+        /**
+         * A leased object has been used
+         *
+         * @param nanos how long the code block ran
+         */
+        default void executed(long nanos) {
+        }
+
+        /**
+         * A new object has been created
+         */
+        default void created() {
+        }
+
+        /**
+         * An object has been removed from the pool
+         */
+        default void destroyed() {
+        }
+
+        /**
+         * An object has been removed from the pool, because it threw a
+         * {@link BadObjectException}
+         */
+        default void invalidated() {
+        }
+    }
+
+    private static class Factory<T> extends BasePooledObjectFactory<T> {
+
+        private final Supplier<T> supplier;
+        private volatile Listener listener;
+
+        private Factory(Supplier<T> supplier) {
+            this.supplier = supplier;
+            this.listener = NO_LISTENER;
+        }
+
+        @Override
+        public T create() throws Exception {
+            log.debug("Creating object");
+            T get = supplier.get();
+            log.debug("Created object {}", get);
+            listener.created();
+            return get;
+        }
+
+        @Override
+        public PooledObject<T> wrap(T t) {
+            log.debug("Wrapping object {}", t);
+            return new DefaultPooledObject<>(t);
+        }
+
+        @Override
+        public void destroyObject(PooledObject<T> p) throws Exception {
+            log.debug("Destroying object {}", p.getObject());
+            listener.destroyed();
+            super.destroyObject(p);
+        }
     }
 
     @Override
@@ -108,17 +191,25 @@ public class QuickPool<T> extends GenericObjectPool<T> {
      */
     @CheckReturnValue
     public <R> ExceptionResult<R> exec(ScopeWithExceptionAndValue<T, R> scope) {
+        Listener listener = factory.listener;
         try {
+            long borrow = System.nanoTime();
             T t = super.borrowObject();
+            long start = System.nanoTime();
+            listener.borrowed(start - borrow);
             R value;
             try {
                 value = scope.accept(t);
+                listener.executed(System.nanoTime() - start);
                 returnObject(t);
                 return new ExceptionResultValue<>(value);
             } catch (BadObjectException ex) {
+                listener.executed(System.nanoTime() - start);
+                listener.invalidated();
                 invalidateObject(t);
                 return new ExceptionResultError<>(ex);
             } catch (Exception ex) {
+                listener.executed(System.nanoTime() - start);
                 returnObject(t);
                 return new ExceptionResultError<>(ex);
             }
@@ -18,8 +18,9 @@
  */
 package dk.dbc.search.work.presentation.worker.tree;
 
-import dk.dbc.search.work.presentation.javascript.JavascriptCacheObjectBuilder;
+import dk.dbc.search.work.presentation.javascript.ManifestationInformationExtractor;
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.worker.CorepoCacheScope;
 import dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.sql.Timestamp;
@@ -98,18 +99,20 @@ public class CacheContentBuilder {
     /**
      * Produces information about this manifestation for storing in the cache
      *
+     * @param scope                The corepo cache of the job
      * @param corepoContentService Where to extract data streams from
-     * @param js                   the JavaScript abstraction
+     * @param js                   the JavaScript abstraction, or the Java
+     *                             implementation of it
      * @return Manifestation Object
-     * @throws Exception Threwn by JavaScript engine
+     * @throws Exception Thrown by the extractor
      */
-    public ManifestationInformation generateContent(CorepoContentServiceConnector corepoContentService, JavascriptCacheObjectBuilder js) throws Exception {
+    public ManifestationInformation generateContent(CorepoCacheScope scope, CorepoContentServiceConnector corepoContentService, ManifestationInformationExtractor js) throws Exception {
         String localData = "";
         if (localStream != null) {
-            localData = corepoContentService.datastreamContent(corepoId, localStream).trim();
+            localData = corepoContentService.datastreamContent(scope, corepoId, localStream).trim();
         }
-        String commonData = corepoContentService.datastreamContent(corepoId, "commonData").trim();
-        String dc = corepoContentService.datastreamContent(corepoId, "DC").trim();
+        String commonData = corepoContentService.datastreamContent(scope, corepoId, "commonData").trim();
+        String dc = corepoContentService.datastreamContent(scope, corepoId, "DC").trim();
         log.debug("has localData: {}, commonData: {}, DC: {}", !localData.isEmpty(), !commonData.isEmpty(), !dc.isEmpty());
         HashMap<String, String> dataStreams = new HashMap<>();
         if (!localData.isEmpty())
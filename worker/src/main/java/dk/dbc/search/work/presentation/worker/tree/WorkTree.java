@@ -19,16 +19,22 @@
 package dk.dbc.search.work.presentation.worker.tree;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Pojo to represent the root of a work tree, when extracting from corepo
  *
@@ -65,6 +71,21 @@ public class WorkTree extends HashMap<String, UnitTree> {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * Get all the manifestation ids that this work has relations to
+     * <p>
+     * This includes deleted manifestations, they can come back
+     *
+     * @return manifestationIds
+     */
+    public Set<String> extractRelationManifestationIds() {
+        return relations.values().stream()
+                .flatMap(r -> r.values().stream())
+                .flatMap(o -> o.values().stream())
+                .map(CacheContentBuilder::getManifestationId)
+                .collect(Collectors.toSet());
+    }
+
     public Instant getModified() {
         return modified;
     }
@@ -104,6 +125,115 @@ public class WorkTree extends HashMap<String, UnitTree> {
         return corepoWorkId;
     }
 
+    /**
+     * Digest of the structure of the tree
+     * <p>
+     * This covers all ids, primary flags, relations and modified timestamps
+     * in the tree, in a stable order. If two trees of a work have the same
+     * fingerprint, the work record built from them is the same.
+     *
+     * @return hex encoded sha-256 digest
+     */
+    public String fingerprint() {
+        return digest(add -> {
+            add.accept(corepoWorkId);
+            add.accept(modified);
+            new TreeMap<>(this).forEach((unitId, unit) -> {
+                add.accept("unit");
+                add.accept(unitId);
+                add.accept(unit.isPrimary());
+                add.accept(unit.getModified());
+                unit.getRelations().stream()
+                        .sorted(RELATION_ORDER)
+                        .forEach(rel -> {
+                            add.accept("rel");
+                            add.accept(rel.getType().name());
+                            add.accept(rel.getUnit());
+                        });
+                fingerprintObjects(add, unit);
+            });
+            relations.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey(RELATION_ORDER))
+                    .forEach(e -> {
+                        add.accept("relation");
+                        add.accept(e.getKey().getType().name());
+                        add.accept(e.getKey().getUnit());
+                        fingerprintObjects(add, e.getValue());
+                    });
+        });
+    }
+
+    /**
+     * Digest of the structure of each unit
+     * <p>
+     * This covers the ids, primary flags and modified timestamps of a unit,
+     * its objects, and the objects of the units it has relations to. If a
+     * unit has the same fingerprint as when a work was built, the parts of
+     * the work, that comes from that unit, are the same.
+     *
+     * @return map of unitId to hex encoded sha-256 digest
+     */
+    public Map<String, String> unitFingerprints() {
+        HashMap<String, String> fingerprints = new HashMap<>();
+        forEach((unitId, unit) -> {
+            String fingerprint = digest(add -> {
+                add.accept(unitId);
+                add.accept(unit.isPrimary());
+                add.accept(unit.getModified());
+                fingerprintObjects(add, unit);
+                unit.getRelations().stream()
+                        .sorted(RELATION_ORDER)
+                        .forEach(rel -> {
+                            add.accept("rel");
+                            add.accept(rel.getType().name());
+                            add.accept(rel.getUnit());
+                            RelationTree relation = relations.get(rel);
+                            if (relation != null)
+                                fingerprintObjects(add, relation);
+                        });
+            });
+            fingerprints.put(unitId, fingerprint);
+        });
+        return fingerprints;
+    }
+
+    private static String digest(Consumer<Consumer<Object>> content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            content.accept(o -> {
+                digest.update(String.valueOf(o).getBytes(UTF_8));
+                digest.update((byte) 0);
+            });
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Cannot compute fingerprint", ex);
+        }
+    }
+
+    private static final Comparator<TypedRelation> RELATION_ORDER =
+            Comparator.comparing((TypedRelation r) -> r.getType().name())
+                    .thenComparing(TypedRelation::getUnit);
+
+    private static void fingerprintObjects(Consumer<Object> add, Map<String, ObjectTree> objects) {
+        new TreeMap<>(objects).forEach((objId, obj) -> {
+            add.accept("obj");
+            add.accept(objId);
+            add.accept(obj.isPrimary());
+            add.accept(obj.getModified());
+            new TreeMap<>(obj).forEach((stream, content) -> {
+                add.accept("stream");
+                add.accept(stream);
+                add.accept(content.getManifestationId());
+                add.accept(content.isDeleted());
+                add.accept(content.getModified().toInstant());
+            });
+        });
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(super.hashCode(), corepoWorkId, modified, relations);
@@ -19,13 +19,15 @@
 package dk.dbc.search.work.presentation.worker;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
-import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
-import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
+import dk.dbc.search.work.presentation.api.jpa.CacheEntity;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -34,7 +36,11 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.sql.DataSource;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
 import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Snapshot;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,14 +57,20 @@ public class BeanFactory implements AutoCloseable {
     private final EntityManagerFactory entityManagerFactory;
     private final DataSource corepoDataSource;
     private final Config config;
+    private final Bean<ChangeFeed> changeFeed = new Bean<>(new ChangeFeed(), this::setupChangeFeed);
     private final Bean<AsyncCacheContentBuilder> asyncCacheContentBuilder = new Bean<>(new AsyncCacheContentBuilderMock(), this::setupAsyncCacheContentBuilder);
     private final Bean<CorepoContentServiceConnector> corepoContentService = new Bean<>(new CorepoContentServiceConnector(), this::setupCorepoContentService);
+    private final Bean<CorepoSharedCache> corepoSharedCache = new Bean<>(new CorepoSharedCache(), this::setupCorepoSharedCache);
     private final Bean<JavaScriptEnvironment> javaScriptEnvironment = new Bean<>(new JavaScriptEnvironment(), this::setupJavaScriptEnvironment);
     private final Bean<ObjectTimestamp> objectTimestamp = new Bean<>(new ObjectTimestamp(), this::setupObjectTimestamp);
+    private final Bean<TreeBuildExecutor> treeBuildExecutor = new Bean<>(new TreeBuildExecutor(), this::setupTreeBuildExecutor);
+    private final Bean<ManifestationBuildExecutor> manifestationBuildExecutor = new Bean<>(new ManifestationBuildExecutor(), this::setupManifestationBuildExecutor);
+    private final Bean<SingleFlightCacheBuilder> singleFlightCacheBuilder = new Bean<>(new SingleFlightCacheBuilder(), this::setupSingleFlightCacheBuilder);
     private final Bean<PresentationObjectBuilder> presentationObjectBuilder = new Bean<>(new PresentationObjectBuilder(), this::setupPresentationObjectBuilder);
     private final Bean<WorkConsolidator> workConsolidator = new Bean<>(new WorkConsolidator(), this::setupWorkConsolidator);
     private final Bean<Worker> worker = new Bean<>(new Worker(), this::setupWorker);
     private final Bean<WorkTreeBuilder> workTreeBuilder = new Bean<>(new WorkTreeBuilder(), this::setupWorkTreeBuilder);
+    private final Bean<WorkChanges> workChanges = new Bean<>(new WorkChanges(), this::setupWorkChanges);
 
     public BeanFactory(Map<String, String> envs, EntityManager em, EntityManagerFactory emf, DataSource corepoDataSource, WireMockServer wms) {
         this.entityManager = em;
@@ -69,6 +81,10 @@ public class BeanFactory implements AutoCloseable {
 
     @Override
     public void close() {
+        changeFeed.ifCreated(bean -> bean.scheduler.shutdownNow());
+        treeBuildExecutor.ifCreated(TreeBuildExecutor::destroy);
+        manifestationBuildExecutor.ifCreated(ManifestationBuildExecutor::destroy);
+        javaScriptEnvironment.ifCreated(JavaScriptEnvironment::destroy);
     }
 
     private static Config makeConfig(Map<String, String> envs, WireMockServer wms) {
@@ -76,6 +92,7 @@ public class BeanFactory implements AutoCloseable {
         env.putAll(config("COREPO_CONTENT_SERVICE_URL=" + wms.url("/corepo-content-service"),
                           "JPA_POSTPONE=5s-10s",
                           "JS_POOL_SIZE=2",
+                          "JS_POOL_WARMUP=1",
                           "SYSTEM_NAME=test",
                           "THREADS=1",
                           "QUEUES=queue",
@@ -91,6 +108,39 @@ public class BeanFactory implements AutoCloseable {
         return config;
     }
 
+    /**
+     * Make a connector, that isn't backed by a database
+     *
+     * @param corepoContentServiceUrl where corepo-content-service is
+     * @param envs                    additional configuration
+     * @return connector
+     */
+    static CorepoContentServiceConnector corepoContentServiceConnector(String corepoContentServiceUrl, String... envs) {
+        Map<String, String> env = new HashMap<>();
+        env.putAll(config("COREPO_CONTENT_SERVICE_URL=" + corepoContentServiceUrl,
+                          "JPA_POSTPONE=5s-10s",
+                          "JS_POOL_SIZE=1",
+                          "QUEUES=queue"));
+        env.putAll(config(envs));
+        Config config = new Config(env) {
+            @Override
+            protected ClientBuilder clientBuilder() {
+                return JerseyClientBuilder.newBuilder();
+            }
+        };
+        config.init();
+        CorepoSharedCache sharedCache = new CorepoSharedCache();
+        sharedCache.config = config;
+        sharedCache.hits = new MockCounter();
+        sharedCache.misses = new MockCounter();
+        sharedCache.evictions = new MockCounter();
+        sharedCache.init();
+        CorepoContentServiceConnector connector = new CorepoContentServiceConnector();
+        connector.config = config;
+        connector.sharedCache = sharedCache;
+        return connector;
+    }
+
     private static Map<String, String> config(String... envs) {
         return Arrays.stream(envs)
                 .map(s -> s.split("=", 2))
@@ -108,6 +158,7 @@ public class BeanFactory implements AutoCloseable {
     private void setupAsyncCacheContentBuilder(AsyncCacheContentBuilder bean) {
         bean.em = entityManager;
         bean.jsEnv = getJavaScriptEnvironment();
+        bean.skippedWrites = new MockCounter();
     }
 
     public BeanFactory withCorepoContentServiceConnector(CorepoContentServiceConnector ccsc) {
@@ -121,6 +172,19 @@ public class BeanFactory implements AutoCloseable {
 
     private void setupCorepoContentService(CorepoContentServiceConnector bean) {
         bean.config = config;
+        bean.sharedCache = getCorepoSharedCache();
+    }
+
+    public CorepoSharedCache getCorepoSharedCache() {
+        return corepoSharedCache.get();
+    }
+
+    private void setupCorepoSharedCache(CorepoSharedCache bean) {
+        bean.config = config;
+        bean.hits = new MockCounter();
+        bean.misses = new MockCounter();
+        bean.evictions = new MockCounter();
+        bean.init();
     }
 
     public JavaScriptEnvironment getJavaScriptEnvironment() {
@@ -130,9 +194,33 @@ public class BeanFactory implements AutoCloseable {
     private void setupJavaScriptEnvironment(JavaScriptEnvironment bean) {
         bean.config = config;
         bean.corepoContentService = getCorepoContentService();
+        bean.threadFactory = Executors.defaultThreadFactory();
+        bean.borrowWait = new MockHistogram();
+        bean.execution = new MockHistogram();
+        bean.created = new MockCounter();
+        bean.destroyed = new MockCounter();
+        bean.invalidated = new MockCounter();
         bean.init();
     }
 
+    public ChangeFeed getChangeFeed() {
+        return changeFeed.get();
+    }
+
+    public void setupChangeFeed(ChangeFeed bean) {
+        bean.workChanges = getWorkChanges();
+        bean.scheduler = Executors.newSingleThreadScheduledExecutor();
+        bean.config = config;
+    }
+
+    public WorkChanges getWorkChanges() {
+        return workChanges.get();
+    }
+
+    public void setupWorkChanges(WorkChanges bean) {
+        bean.em = entityManager;
+    }
+
     public ObjectTimestamp getObjectTimestamp() {
         return objectTimestamp.get();
     }
@@ -149,7 +237,10 @@ public class BeanFactory implements AutoCloseable {
         bean.workConsolidator = getWorkConsolidator();
         bean.workTreeBuilder = getWorkTreeBuilder();
         bean.corepoContent = getCorepoContentService();
+        bean.config = config;
         bean.successes = new MockCounter();
+        bean.unchanged = new MockCounter();
+        bean.requeuedRelations = new MockCounter();
     }
 
     public BeanFactory withPresentationObjectBuilder(PresentationObjectBuilder pob) {
@@ -157,6 +248,16 @@ public class BeanFactory implements AutoCloseable {
         return this;
     }
 
+    public TreeBuildExecutor getTreeBuildExecutor() {
+        return treeBuildExecutor.get();
+    }
+
+    private void setupTreeBuildExecutor(TreeBuildExecutor bean) {
+        bean.threadFactory = Executors.defaultThreadFactory();
+        bean.config = config;
+        bean.init();
+    }
+
     public WorkConsolidator getWorkConsolidator() {
         return workConsolidator.get();
     }
@@ -164,7 +265,32 @@ public class BeanFactory implements AutoCloseable {
     private void setupWorkConsolidator(WorkConsolidator bean) {
         bean.em = entityManager;
         bean.asyncCacheContentBuilder = getAsyncCacheContentBuilder();
+        bean.singleFlightCacheBuilder = getSingleFlightCacheBuilder();
+        bean.manifestationBuildExecutor = getManifestationBuildExecutor();
         bean.jsEnv = getJavaScriptEnvironment();
+        bean.config = config;
+        bean.skippedWrites = new MockCounter();
+    }
+
+    public ManifestationBuildExecutor getManifestationBuildExecutor() {
+        return manifestationBuildExecutor.get();
+    }
+
+    private void setupManifestationBuildExecutor(ManifestationBuildExecutor bean) {
+        bean.threadFactory = Executors.defaultThreadFactory();
+        bean.config = config;
+        bean.submitWait = new MockHistogram();
+        bean.queueWait = new MockHistogram();
+        bean.init();
+    }
+
+    public SingleFlightCacheBuilder getSingleFlightCacheBuilder() {
+        return singleFlightCacheBuilder.get();
+    }
+
+    private void setupSingleFlightCacheBuilder(SingleFlightCacheBuilder bean) {
+        bean.shared = new MockCounter();
+        bean.sharedWait = new MockHistogram();
     }
 
     public Worker getWorker() {
@@ -189,7 +315,9 @@ public class BeanFactory implements AutoCloseable {
     }
 
     private void setupWorkTreeBuilder(WorkTreeBuilder bean) {
+        bean.config = config;
         bean.contentService = getCorepoContentService();
+        bean.executor = getTreeBuildExecutor();
         bean.em = entityManager;
     }
 
@@ -220,6 +348,11 @@ public class BeanFactory implements AutoCloseable {
             that = t;
             callSetup = true;
         }
+
+        private void ifCreated(Consumer<T> action) {
+            if (!callSetup)
+                action.accept(that);
+        }
     }
 
     /**
@@ -265,15 +398,21 @@ public class BeanFactory implements AutoCloseable {
     class AsyncCacheContentBuilderMock extends AsyncCacheContentBuilder {
 
         @Override
-        public Future<ManifestationInformation> getFromCache(CacheContentBuilder dataBuilder, Map<String, String> mdc, boolean delete) {
-            return newTransaction(em -> {
-                this.em = em;
-                return super.getFromCache(dataBuilder, mdc, delete);
-            });
+        public void saveToCache(Collection<CacheEntity> built, Collection<String> deleted) {
+            EntityManager outer = this.em;
+            try {
+                newTransaction(em -> {
+                    this.em = em;
+                    super.saveToCache(built, deleted);
+                    return null;
+                });
+            } finally {
+                this.em = outer;
+            }
         }
     }
 
-    private static class MockCounter implements Counter {
+    static class MockCounter implements Counter {
 
         private long cnt;
 
@@ -296,4 +435,122 @@ public class BeanFactory implements AutoCloseable {
             return cnt;
         }
     }
+
+    static class MockHistogram implements Histogram {
+
+        private long cnt;
+        private long sum;
+
+        public MockHistogram() {
+            this.cnt = 0;
+            this.sum = 0;
+        }
+
+        @Override
+        public void update(int value) {
+            update((long) value);
+        }
+
+        @Override
+        public void update(long value) {
+            cnt++;
+            sum += value;
+        }
+
+        @Override
+        public long getCount() {
+            return cnt;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+    }
+
+    /**
+     * A suspended request, that the test can wait for the response of
+     */
+    static class MockAsyncResponse implements AsyncResponse {
+
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        public Object get(long timeout, TimeUnit unit) throws Exception {
+            return result.get(timeout, unit);
+        }
+
+        @Override
+        public boolean resume(Object response) {
+            return result.complete(response);
+        }
+
+        @Override
+        public boolean resume(Throwable response) {
+            return result.completeExceptionally(response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return result.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return !result.isDone();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return result.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return result.isDone();
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            throw new UnsupportedOperationException("Not supported by mock");
+        }
+    }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import dk.dbc.search.work.presentation.api.jpa.JsonSchemaVersion;
+import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
+import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityManager;
+import javax.ws.rs.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ChangeFeedIT extends JpaBase {
+
+    @Test
+    public void testFollowChanges() throws Exception {
+        System.out.println("testFollowChanges");
+
+        jpa(em -> {
+            saveWork(em, "work-of:1", "work:1", "2020-01-02T12:34:56.789Z");
+            saveWork(em, "work-of:2", "work:2", "2020-01-03T12:34:56.789Z");
+        });
+
+        AtomicReference<String> cursor = new AtomicReference<>();
+
+        System.out.println(" - Read feed in pages");
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangeFeed bean = beanfactory.getChangeFeed();
+                    ChangesResponse first = changes(bean, null, 1, 0);
+                    System.out.println("first = " + first);
+                    assertThat(first.changes.size(), is(1));
+                    assertThat(first.changes.get(0).persistentWorkId, is("work-of:1"));
+                    assertThat(first.changes.get(0).modified, is("2020-01-02T12:34:56.789Z"));
+
+                    ChangesResponse second = changes(bean, first.cursor, 10, 0);
+                    System.out.println("second = " + second);
+                    assertThat(second.changes.stream().map(c -> c.persistentWorkId).collect(toList()), contains("work-of:2"));
+
+                    ChangesResponse third = changes(bean, second.cursor, 10, 0);
+                    System.out.println("third = " + third);
+                    assertThat(third.changes, empty());
+                    assertThat(third.cursor, is(second.cursor));
+                    cursor.set(third.cursor);
+                });
+
+        System.out.println(" - Change a work");
+        jpa(em -> {
+            saveWork(em, "work-of:1", "work:1", "2020-02-02T12:34:56.789Z");
+        });
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangeFeed bean = beanfactory.getChangeFeed();
+                    ChangesResponse changes = changes(bean, cursor.get(), 10, 0);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.size(), is(1));
+                    assertThat(changes.changes.get(0).persistentWorkId, is("work-of:1"));
+                    assertThat(changes.changes.get(0).modified, is("2020-02-02T12:34:56.789Z"));
+                    assertThat(changes.changes.get(0).deleted, is(false));
+                });
+    }
+
+    @Test
+    public void testDeletedWorks() throws Exception {
+        System.out.println("testDeletedWorks");
+
+        jpa(em -> {
+            saveWork(em, "work-of:1", "work:1", "2020-01-02T12:34:56.789Z");
+            saveWork(em, "work-of:2", "work:2", "2020-01-03T12:34:56.789Z");
+        });
+
+        AtomicReference<String> cursor = new AtomicReference<>();
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangesResponse changes = changes(beanfactory.getChangeFeed(), null, 10, 0);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.size(), is(2));
+                    cursor.set(changes.cursor);
+                });
+
+        System.out.println(" - Delete a work");
+        jpa(em -> {
+            WorkObjectEntity.from(em, "work-of:1").delete();
+        });
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangesResponse changes = changes(beanfactory.getChangeFeed(), cursor.get(), 10, 0);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.size(), is(1));
+                    assertThat(changes.changes.get(0).persistentWorkId, is("work-of:1"));
+                    assertThat(changes.changes.get(0).modified, is("2020-01-02T12:34:56.789Z"));
+                    assertThat(changes.changes.get(0).deleted, is(true));
+                    cursor.set(changes.cursor);
+                });
+
+        System.out.println(" - Create it again");
+        jpa(em -> {
+            saveWork(em, "work-of:1", "work:1", "2020-03-02T12:34:56.789Z");
+        });
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangesResponse changes = changes(beanfactory.getChangeFeed(), cursor.get(), 10, 0);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.size(), is(1));
+                    assertThat(changes.changes.get(0).deleted, is(false));
+
+                    ChangesResponse all = changes(beanfactory.getChangeFeed(), null, 10, 0);
+                    System.out.println("all = " + all);
+                    assertThat(all.changes.stream().map(c -> c.persistentWorkId).collect(toList()), contains("work-of:2", "work-of:1"));
+                    assertThat(all.changes.stream().anyMatch(c -> c.deleted), is(false));
+                });
+    }
+
+    @Test
+    public void testPruneDeleted() throws Exception {
+        System.out.println("testPruneDeleted");
+
+        jpa(em -> {
+            saveWork(em, "work-of:1", "work:1", "2020-01-02T12:34:56.789Z");
+            saveWork(em, "work-of:2", "work:2", "2020-01-03T12:34:56.789Z");
+        });
+        jpa(em -> {
+            WorkObjectEntity.from(em, "work-of:1").delete();
+            WorkObjectEntity.from(em, "work-of:2").delete();
+        });
+        jpa(em -> {
+            em.createNativeQuery("UPDATE workDeletedV" + JsonSchemaVersion.VERSION + " SET deleted = now() - INTERVAL '2 days' WHERE persistentWorkId = 'work-of:1'")
+                    .executeUpdate();
+        });
+
+        System.out.println(" - Prune tombstones older than a day");
+        jpa(em -> {
+            int pruned = WorkObjectEntity.pruneDeleted(em, Timestamp.from(Instant.now().minus(1, ChronoUnit.DAYS)), 100);
+            assertThat(pruned, is(1));
+        });
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ChangesResponse changes = changes(beanfactory.getChangeFeed(), null, 10, 0);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.stream().map(c -> c.persistentWorkId).collect(toList()), contains("work-of:2"));
+                    assertThat(changes.changes.get(0).deleted, is(true));
+                });
+    }
+
+    @Test
+    public void testWaitForChanges() throws Exception {
+        System.out.println("testWaitForChanges");
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    BeanFactory.MockAsyncResponse response = new BeanFactory.MockAsyncResponse();
+                    beanfactory.getChangeFeed().getChanges(null, 10, 10, response);
+                    assertThat(response.isSuspended(), is(true));
+
+                    jpa(em -> {
+                        saveWork(em, "work-of:1", "work:1", "2020-01-02T12:34:56.789Z");
+                    });
+
+                    ChangesResponse changes = (ChangesResponse) response.get(10, TimeUnit.SECONDS);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes.stream().map(c -> c.persistentWorkId).collect(toList()), contains("work-of:1"));
+                });
+    }
+
+    @Test
+    public void testWaitForNoChanges() throws Exception {
+        System.out.println("testWaitForNoChanges");
+
+        withConfigEnv("CHANGES_MAX_WAIT=1s")
+                .jpaWithBeans(beanfactory -> {
+                    BeanFactory.MockAsyncResponse response = new BeanFactory.MockAsyncResponse();
+                    beanfactory.getChangeFeed().getChanges("0:", 10, 10, response);
+                    ChangesResponse changes = (ChangesResponse) response.get(5, TimeUnit.SECONDS);
+                    System.out.println("changes = " + changes);
+                    assertThat(changes.changes, empty());
+                    assertThat(changes.cursor, is("0:"));
+                });
+    }
+
+    @Test
+    public void testInvalidCursor() throws Exception {
+        System.out.println("testInvalidCursor");
+        BadRequestException ex = assertThrows(
+                BadRequestException.class, () -> {
+            withConfigEnv()
+                    .jpaWithBeans(beanfactory -> {
+                        ChangeFeed bean = beanfactory.getChangeFeed();
+                        bean.getChanges("work-of:1", 10, 0, new BeanFactory.MockAsyncResponse());
+                    });
+        });
+        assertThat(ex, is(notNullValue()));
+    }
+
+    private static ChangesResponse changes(ChangeFeed bean, String since, int limit, int wait) throws Exception {
+        BeanFactory.MockAsyncResponse response = new BeanFactory.MockAsyncResponse();
+        bean.getChanges(since, limit, wait, response);
+        return (ChangesResponse) response.get(wait + 5, TimeUnit.SECONDS);
+    }
+
+    private static void saveWork(EntityManager em, String persistentWorkId, String corepoWorkId, String modified) {
+        WorkObjectEntity work = WorkObjectEntity.from(em, persistentWorkId);
+        WorkInformation content = new WorkInformation();
+        content.workId = persistentWorkId;
+        content.title = modified;
+        work.setContent(content);
+        work.setCorepoWorkId(corepoWorkId);
+        work.setModified(Timestamp.from(Instant.parse(modified)));
+        work.save();
+    }
+}
@@ -93,6 +93,8 @@ public class ConfigTest {
         assertThat(Config.ms("123 secs"), is(123000L));
         assertThat(Config.ms("1 min"), is(60000L));
         assertThat(Config.ms("5 minutes"), is(300000L));
+        assertThat(Config.ms("2h"), is(7200000L));
+        assertThat(Config.ms("1 day"), is(86400000L));
     }
 
 }
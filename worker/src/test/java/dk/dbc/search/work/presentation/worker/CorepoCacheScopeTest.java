@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector.ObjectPart;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class CorepoCacheScopeTest {
+
+    private static final int THREADS = 8;
+    private static final int JOBS_PER_THREAD = 25;
+    private static final List<String> IDS = IntStream.range(0, 10)
+            .mapToObj(i -> "unit:" + i)
+            .collect(Collectors.toList());
+
+    private HttpServer corepo;
+    private ExecutorService corepoExecutor;
+    private AtomicInteger responses;
+
+    /**
+     * Start a corepo-content-service stub, that gives a different response to
+     * every request, as if corepo changed between each request
+     *
+     * @throws IOException if the stub cannot be started
+     */
+    @BeforeEach
+    public void setUpCorepo() throws IOException {
+        responses = new AtomicInteger();
+        corepoExecutor = Executors.newFixedThreadPool(THREADS);
+        corepo = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        corepo.setExecutor(corepoExecutor);
+        corepo.createContext("/rest/objects/", this::respond);
+        corepo.start();
+    }
+
+    @AfterEach
+    public void shutDownCorepo() {
+        corepo.stop(0);
+        corepoExecutor.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testNoCrossJobContamination(boolean asyncHttp) throws Exception {
+        System.out.println("testNoCrossJobContamination: asyncHttp = " + asyncHttp);
+        CorepoContentServiceConnector connector = connector(asyncHttp);
+        // Which job saw a response
+        ConcurrentHashMap<String, String> seenBy = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0 ; t < THREADS ; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0 ; j < JOBS_PER_THREAD ; j++) {
+                        String job = thread + "/" + j;
+                        try (CorepoCacheScope scope = connector.cacheScope()) {
+                            if (j % 2 == 0)
+                                connector.prefetch(scope, IDS, ObjectPart.RELS_SYS);
+                            Map<String, String> firstSeen = new HashMap<>();
+                            for (int i = 0 ; i < 3 ; i++) {
+                                for (String id : IDS) {
+                                    Map<String, String> parts = Map.of(
+                                            id + "/RELS-SYS", connector.relsSys(scope, id).getChildren().get(0),
+                                            id + "/commonData", connector.datastreamContent(scope, id, "commonData"));
+                                    parts.forEach((part, response) -> {
+                                        assertThat(firstSeen.computeIfAbsent(part, p -> response), is(response));
+                                        assertThat("Job of " + response, seenBy.putIfAbsent(response, job), anyOf(nullValue(), is(job)));
+                                    });
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Every job requested every part once, and saw only its own responses
+        int parts = THREADS * JOBS_PER_THREAD * IDS.size() * 2;
+        assertThat(responses.get(), is(parts));
+        assertThat(seenBy.size(), is(parts));
+    }
+
+    @Test
+    public void testClosedScopeCannotBeUsed() throws Exception {
+        System.out.println("testClosedScopeCannotBeUsed");
+        CorepoContentServiceConnector connector = connector(false);
+        CorepoCacheScope scope = connector.cacheScope();
+        connector.datastreamContent(scope, IDS.get(0), "commonData");
+        scope.close();
+        assertThrows(IllegalStateException.class, () -> connector.datastreamContent(scope, IDS.get(0), "commonData"));
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String response = String.valueOf(responses.incrementAndGet());
+        byte[] body;
+        if (path.endsWith("/datastreams/RELS-SYS/content")) {
+            body = ( "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">" +
+                     "<rdf:Description rdf:about=\"info:fedora/work:" + response + "\">" +
+                     "<hasMemberOfWork xmlns=\"info:fedora/\">unit:rels-" + response + "</hasMemberOfWork>" +
+                     "</rdf:Description></rdf:RDF>" ).getBytes(StandardCharsets.UTF_8);
+        } else if (path.endsWith("/datastreams/commonData/content")) {
+            body = ( "content-" + response ).getBytes(StandardCharsets.UTF_8);
+        } else {
+            responses.decrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private CorepoContentServiceConnector connector(boolean asyncHttp) {
+        return BeanFactory.corepoContentServiceConnector("http://localhost:" + corepo.getAddress().getPort(),
+                                                         "COREPO_ASYNC_HTTP=" + asyncHttp,
+                                                         "COREPO_CACHE_MB=0");
+    }
+}
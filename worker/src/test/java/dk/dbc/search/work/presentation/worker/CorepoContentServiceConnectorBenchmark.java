@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector.ObjectPart;
+import dk.dbc.search.work.presentation.worker.corepo.RelsSys;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Request throughput of a single thread, using the blocking or the
+ * non-blocking http client, against a corepo-content-service stub with a fixed
+ * latency
+ * <p>
+ * Both clients get all requests in flight (prefetch), before the responses
+ * are resolved.
+ * <p>
+ * Not run as a part of the build. Run it with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dk.dbc.search.work.presentation.worker.CorepoContentServiceConnectorBenchmark}
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorepoContentServiceConnectorBenchmark {
+
+    private static final int REQUESTS = 40;
+    private static final long LATENCY_MS = 25;
+
+    @Param({"false", "true"})
+    public boolean asyncHttp;
+
+    private HttpServer corepo;
+    private ExecutorService corepoExecutor;
+    private byte[] relsSys;
+    private CorepoContentServiceConnector connector;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("RelsSys/unit-primary.xml")) {
+            relsSys = is.readAllBytes();
+        }
+        corepoExecutor = Executors.newCachedThreadPool();
+        corepo = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        corepo.setExecutor(corepoExecutor);
+        corepo.createContext("/rest/objects/", this::respond);
+        corepo.start();
+        connector = BeanFactory.corepoContentServiceConnector("http://localhost:" + corepo.getAddress().getPort(),
+                                                              "COREPO_ASYNC_HTTP=" + asyncHttp,
+                                                              "COREPO_CACHE_MB=0");
+    }
+
+    @TearDown
+    public void tearDown() {
+        corepo.stop(0);
+        corepoExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public List<RelsSys> prefetchThenResolve() {
+        List<CorepoCacheScope> scopes = new ArrayList<>(REQUESTS);
+        for (int i = 0 ; i < REQUESTS ; i++) {
+            CorepoCacheScope scope = connector.cacheScope();
+            connector.prefetch(scope, List.of("unit:" + i), ObjectPart.RELS_SYS);
+            scopes.add(scope);
+        }
+        List<RelsSys> result = new ArrayList<>(REQUESTS);
+        for (int i = 0 ; i < REQUESTS ; i++) {
+            try (CorepoCacheScope scope = scopes.get(i)) {
+                result.add(connector.relsSys(scope, "unit:" + i));
+            }
+        }
+        return result;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(LATENCY_MS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, relsSys.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(relsSys);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CorepoContentServiceConnectorBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -18,11 +18,17 @@
  */
 package dk.dbc.search.work.presentation.worker;
 
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+import dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector.ObjectPart;
 import dk.dbc.search.work.presentation.worker.corepo.DataStreamMetaData;
 import dk.dbc.search.work.presentation.worker.corepo.ObjectMetaData;
 import dk.dbc.search.work.presentation.worker.corepo.RelsSys;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -37,10 +43,12 @@ public class CorepoContentServiceConnectorIT extends JpaBase {
         System.out.println("testObjectMetaData");
         withConfigEnv().jpaWithBeans(beanFactory -> {
             CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
-            ObjectMetaData metaData = bean.objectMetaData("work:19");
-            System.out.println("metaData = " + metaData);
-            assertThat(metaData.isActive(), is(true));
-            assertThat(metaData.getCreated().toString(), is("2015-07-17T08:55:08.022Z"));
+            try (CorepoCacheScope scope = bean.cacheScope()) {
+                ObjectMetaData metaData = bean.objectMetaData(scope, "work:19");
+                System.out.println("metaData = " + metaData);
+                assertThat(metaData.isActive(), is(true));
+                assertThat(metaData.getCreated().toString(), is("2015-07-17T08:55:08.022Z"));
+            }
         });
     }
 
@@ -49,9 +57,11 @@ public class CorepoContentServiceConnectorIT extends JpaBase {
         System.out.println("testdataStreamContent");
         withConfigEnv().jpaWithBeans(beanFactory -> {
             CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
-            String commonData = bean.datastreamContent("870970-basis:22476319", "commonData");
-            System.out.println("commonData = " + commonData);
-            assertThat(commonData, containsString("Udviklingsværkstedet for Naturformidling"));
+            try (CorepoCacheScope scope = bean.cacheScope()) {
+                String commonData = bean.datastreamContent(scope, "870970-basis:22476319", "commonData");
+                System.out.println("commonData = " + commonData);
+                assertThat(commonData, containsString("Udviklingsværkstedet for Naturformidling"));
+            }
         });
     }
 
@@ -60,10 +70,12 @@ public class CorepoContentServiceConnectorIT extends JpaBase {
         System.out.println("testDatastreamMetaData");
         withConfigEnv().jpaWithBeans(beanFactory -> {
             CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
-            DataStreamMetaData dataStream = bean.datastreamMetaData("870970-basis:22476319", "commonData");
-            System.out.println("dataStream = " + dataStream);
-            assertThat(dataStream.isActive(), is(true));
-            assertThat(dataStream.getCreated().toString(), is("2018-11-24T22:58:36.175Z"));
+            try (CorepoCacheScope scope = bean.cacheScope()) {
+                DataStreamMetaData dataStream = bean.datastreamMetaData(scope, "870970-basis:22476319", "commonData");
+                System.out.println("dataStream = " + dataStream);
+                assertThat(dataStream.isActive(), is(true));
+                assertThat(dataStream.getCreated().toString(), is("2018-11-24T22:58:36.175Z"));
+            }
         });
     }
 
@@ -72,10 +84,121 @@ public class CorepoContentServiceConnectorIT extends JpaBase {
         System.out.println("testRelsSys");
         withConfigEnv().jpaWithBeans(beanFactory -> {
             CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
-            RelsSys relsSys = bean.relsSys("work:19");
-            System.out.println("relsSys = " + relsSys);
-            assertThat(relsSys.getChildren(), containsInAnyOrder("unit:20"));
+            try (CorepoCacheScope scope = bean.cacheScope()) {
+                RelsSys relsSys = bean.relsSys(scope, "work:19");
+                System.out.println("relsSys = " + relsSys);
+                assertThat(relsSys.getChildren(), containsInAnyOrder("unit:20"));
+            }
         });
     }
 
+    @Test
+    public void testSharedCacheBetweenJobs() throws Exception {
+        System.out.println("testSharedCacheBetweenJobs");
+        withConfigEnv().jpaWithBeans(beanFactory -> {
+            CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
+            wms.resetRequests();
+            for (int i = 0 ; i < 2 ; i++) {
+                try (CorepoCacheScope scope = bean.cacheScope()) {
+                    RelsSys relsSys = bean.relsSys(scope, "work:19");
+                    assertThat(relsSys.getChildren(), containsInAnyOrder("unit:20"));
+                }
+            }
+            assertThat(wms.findAll(getRequestedFor(urlPathEqualTo("/corepo-content-service/rest/objects/work:19"))).size(), is(2));
+            assertThat(wms.findAll(getRequestedFor(urlPathEqualTo("/corepo-content-service/rest/objects/work:19/datastreams/RELS-SYS/content"))).size(), is(1));
+        });
+    }
+
+    @Test
+    public void testSharedCacheRejectsChangedDatastream() throws Exception {
+        System.out.println("testSharedCacheRejectsChangedDatastream");
+        String object = "/corepo-content-service/rest/objects/870970-basis:changed";
+        String content = object + "/datastreams/commonData/content";
+        List<StubMapping> stubs = new ArrayList<>();
+        try {
+            stubs.add(wms.stubFor(get(urlPathEqualTo(object)).willReturn(objectMetaData("2020-01-01T00:00:00.000Z"))));
+            stubs.add(wms.stubFor(get(urlPathEqualTo(content)).willReturn(okXml("<content>before</content>"))));
+            withConfigEnv().jpaWithBeans(beanFactory -> {
+                CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
+                wms.resetRequests();
+                for (int i = 0 ; i < 2 ; i++) {
+                    try (CorepoCacheScope scope = bean.cacheScope()) {
+                        assertThat(bean.datastreamContent(scope, "870970-basis:changed", "commonData"), is("<content>before</content>"));
+                    }
+                }
+                assertThat(wms.findAll(getRequestedFor(urlPathEqualTo(content))).size(), is(1));
+
+                // Only the datastream changed, which bumps the modified timestamp of the object
+                stubs.add(wms.stubFor(get(urlPathEqualTo(object)).willReturn(objectMetaData("2020-01-02T00:00:00.000Z"))));
+                stubs.add(wms.stubFor(get(urlPathEqualTo(content)).willReturn(okXml("<content>after</content>"))));
+                try (CorepoCacheScope scope = bean.cacheScope()) {
+                    assertThat(bean.datastreamContent(scope, "870970-basis:changed", "commonData"), is("<content>after</content>"));
+                }
+                assertThat(wms.findAll(getRequestedFor(urlPathEqualTo(content))).size(), is(2));
+            });
+        } finally {
+            stubs.forEach(wms::removeStub);
+        }
+    }
+
+    private static ResponseDefinitionBuilder objectMetaData(String modified) {
+        return okXml("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                     "<objectProfile xmlns=\"http://www.fedora.info/definitions/1/0/access/\" pid=\"870970-basis:changed\">" +
+                     "<objCreateDate>2020-01-01T00:00:00.000Z</objCreateDate>" +
+                     "<objLastModDate>" + modified + "</objLastModDate>" +
+                     "<objState>A</objState>" +
+                     "</objectProfile>");
+    }
+
+    @Test
+    public void testSharedCacheDisabled() throws Exception {
+        System.out.println("testSharedCacheDisabled");
+        withConfigEnv("COREPO_CACHE_MB=0").jpaWithBeans(beanFactory -> {
+            CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
+            wms.resetRequests();
+            for (int i = 0 ; i < 2 ; i++) {
+                try (CorepoCacheScope scope = bean.cacheScope()) {
+                    bean.relsSys(scope, "work:19");
+                }
+            }
+            assertThat(wms.findAll(getRequestedFor(urlPathEqualTo("/corepo-content-service/rest/objects/work:19"))).size(), is(0));
+            assertThat(wms.findAll(getRequestedFor(urlPathEqualTo("/corepo-content-service/rest/objects/work:19/datastreams/RELS-SYS/content"))).size(), is(2));
+        });
+    }
+
+    @Test
+    public void testAsyncHttp() throws Exception {
+        System.out.println("testAsyncHttp");
+        withConfigEnv("COREPO_ASYNC_HTTP=true").jpaWithBeans(beanFactory -> {
+            CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
+            try (CorepoCacheScope scope = bean.cacheScope()) {
+                String commonData = bean.datastreamContent(scope, "870970-basis:22476319", "commonData");
+                assertThat(commonData, containsString("Udviklingsværkstedet for Naturformidling"));
+                assertThat(bean.relsExt(scope, "unit:does-not-exist"), nullValue());
+            }
+        });
+    }
+
+    @Test
+    public void testPrefetchThenResolve() throws Exception {
+        System.out.println("testPrefetchThenResolve");
+        for (String asyncHttp : List.of("COREPO_ASYNC_HTTP=false", "COREPO_ASYNC_HTTP=true")) {
+            withConfigEnv(asyncHttp, "COREPO_CACHE_MB=0").jpaWithBeans(beanFactory -> {
+                CorepoContentServiceConnector bean = beanFactory.getCorepoContentService();
+                wms.resetRequests();
+                List<CorepoCacheScope> scopes = new ArrayList<>();
+                for (int i = 0 ; i < 10 ; i++) {
+                    CorepoCacheScope scope = bean.cacheScope();
+                    bean.prefetch(scope, List.of("work:19"), ObjectPart.RELS_SYS);
+                    scopes.add(scope);
+                }
+                for (CorepoCacheScope scope : scopes) {
+                    try (scope) {
+                        assertThat(bean.relsSys(scope, "work:19").getChildren(), containsInAnyOrder("unit:20"));
+                    }
+                }
+                assertThat(asyncHttp, wms.findAll(getRequestedFor(urlPathEqualTo("/corepo-content-service/rest/objects/work:19/datastreams/RELS-SYS/content"))).size(), is(10));
+            });
+        }
+    }
 }
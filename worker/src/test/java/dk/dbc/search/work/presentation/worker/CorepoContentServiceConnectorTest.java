@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dk.dbc.search.work.presentation.worker.CorepoContentServiceConnector.ObjectPart;
+import dk.dbc.search.work.presentation.worker.corepo.RelsSys;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class CorepoContentServiceConnectorTest {
+
+    // 2, 3 and 4 byte UTF-8 sequences
+    private static final String NON_ASCII = "Æblegrød på Ærø – Ελληνικά – 東京 – 𝄞😀";
+    // Long enough for multi-byte sequences to be split between network reads
+    private static final String LARGE = "<x>" + NON_ASCII.repeat(5000) + "</x>";
+
+    private HttpServer corepo;
+
+    @BeforeEach
+    public void setUpCorepo() throws IOException {
+        byte[] objectMetaData = resource("ObjectMetaData/active.xml");
+        byte[] relsSys = resource("RelsSys/work.xml");
+        corepo = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        corepo.createContext("/rest/objects/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/datastreams/RELS-SYS/content")) {
+                respond(exchange, relsSys);
+            } else if (path.endsWith("/datastreams/small/content")) {
+                respond(exchange, NON_ASCII.getBytes(StandardCharsets.UTF_8));
+            } else if (path.endsWith("/datastreams/large/content")) {
+                respond(exchange, LARGE.getBytes(StandardCharsets.UTF_8));
+            } else if (!path.contains("/datastreams")) {
+                respond(exchange, objectMetaData);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        corepo.start();
+    }
+
+    @AfterEach
+    public void shutDownCorepo() {
+        corepo.stop(0);
+    }
+
+    public static Stream<Arguments> clients() {
+        return Stream.of(Arguments.of(false, 0),
+                         Arguments.of(false, 16),
+                         Arguments.of(true, 0),
+                         Arguments.of(true, 16));
+    }
+
+    @ParameterizedTest
+    @MethodSource("clients")
+    public void testDatastreamContentUtf8(boolean asyncHttp, int cacheMb) throws Exception {
+        System.out.println("testDatastreamContentUtf8: asyncHttp = " + asyncHttp + ", cacheMb = " + cacheMb);
+        CorepoContentServiceConnector connector = connector(asyncHttp, cacheMb);
+        for (int i = 0 ; i < 2 ; i++) { // Second time content may come from the shared cache
+            try (CorepoCacheScope scope = connector.cacheScope()) {
+                assertThat(connector.datastreamContent(scope, "870970-basis:1", "small"), is(NON_ASCII));
+                assertThat(connector.datastreamContent(scope, "870970-basis:1", "large"), is(LARGE));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("clients")
+    public void testSameUriWithDifferentParsers(boolean asyncHttp, int cacheMb) throws Exception {
+        System.out.println("testSameUriWithDifferentParsers: asyncHttp = " + asyncHttp + ", cacheMb = " + cacheMb);
+        CorepoContentServiceConnector connector = connector(asyncHttp, cacheMb);
+        try (CorepoCacheScope scope = connector.cacheScope()) {
+            assertSameUri(connector.relsSys(scope, "work:1"),
+                          connector.datastreamContent(scope, "work:1", "RELS-SYS"));
+        }
+        try (CorepoCacheScope scope = connector.cacheScope()) {
+            String content = connector.datastreamContent(scope, "work:1", "RELS-SYS");
+            assertSameUri(connector.relsSys(scope, "work:1"), content);
+        }
+        try (CorepoCacheScope scope = connector.cacheScope()) {
+            connector.prefetch(scope, List.of("work:1"), ObjectPart.RELS_SYS);
+            String content = connector.datastreamContent(scope, "work:1", "RELS-SYS");
+            assertSameUri(connector.relsSys(scope, "work:1"), content);
+        }
+    }
+
+    private static void assertSameUri(RelsSys relsSys, String content) {
+        assertThat(relsSys.getChildren(), containsInAnyOrder("unit:2", "unit:331669", "unit:9991306"));
+        assertThat(content, containsString("<hasPrimaryUnitObject xmlns=\"info:fedora/\">unit:2</hasPrimaryUnitObject>"));
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream is = CorepoContentServiceConnectorTest.class.getClassLoader().getResourceAsStream(name)) {
+            return is.readAllBytes();
+        }
+    }
+
+    private CorepoContentServiceConnector connector(boolean asyncHttp, int cacheMb) {
+        return BeanFactory.corepoContentServiceConnector("http://localhost:" + corepo.getAddress().getPort(),
+                                                         "COREPO_ASYNC_HTTP=" + asyncHttp,
+                                                         "COREPO_CACHE_MB=" + cacheMb);
+    }
+}
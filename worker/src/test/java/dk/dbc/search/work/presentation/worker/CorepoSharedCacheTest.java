@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class CorepoSharedCacheTest {
+
+    private static final Instant T1 = Instant.parse("2020-01-01T00:00:00Z");
+    private static final Instant T2 = Instant.parse("2020-01-02T00:00:00Z");
+
+    @Test
+    public void testValidatedByModified() throws Exception {
+        System.out.println("testValidatedByModified");
+        CorepoSharedCache cache = cache(4096);
+        AtomicInteger requests = new AtomicInteger();
+        URI uri = URI.create("http://host/rest/objects/a/datastreams");
+
+        cache.computeIfAbsent(uri, T1, u -> content(requests, 10));
+        cache.computeIfAbsent(uri, T1, u -> content(requests, 10));
+        assertThat(requests.get(), is(1));
+
+        cache.computeIfAbsent(uri, T2, u -> content(requests, 10));
+        assertThat(requests.get(), is(2));
+        assertThat(cache.hits.getCount(), is(1L));
+        assertThat(cache.misses.getCount(), is(2L));
+
+        // Unknown timestamp is never cached
+        cache.computeIfAbsent(uri, null, u -> content(requests, 10));
+        assertThat(requests.get(), is(3));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        System.out.println("testEvictLeastRecentlyUsed");
+        CorepoSharedCache cache = cache(1000);
+        AtomicInteger requests = new AtomicInteger();
+        URI a = URI.create("http://host/a");
+        URI b = URI.create("http://host/b");
+        URI c = URI.create("http://host/c");
+
+        cache.computeIfAbsent(a, T1, u -> content(requests, 200));
+        cache.computeIfAbsent(b, T1, u -> content(requests, 200));
+        cache.computeIfAbsent(a, T1, u -> content(requests, 200)); // a is now most recently used
+        cache.computeIfAbsent(c, T1, u -> content(requests, 200)); // evicts b
+        assertThat(requests.get(), is(3));
+        assertThat(cache.evictions.getCount(), is(1L));
+        assertThat(cache.getEntries(), is(2L));
+        assertThat(cache.getSize(), lessThanOrEqualTo(1000L));
+
+        cache.computeIfAbsent(a, T1, u -> content(requests, 200));
+        assertThat(requests.get(), is(3));
+        cache.computeIfAbsent(b, T1, u -> content(requests, 200));
+        assertThat(requests.get(), is(4));
+    }
+
+    @Test
+    public void testTooLargeIsNotCached() throws Exception {
+        System.out.println("testTooLargeIsNotCached");
+        CorepoSharedCache cache = cache(1000);
+        AtomicInteger requests = new AtomicInteger();
+        URI uri = URI.create("http://host/large");
+
+        cache.computeIfAbsent(uri, T1, u -> content(requests, 1000));
+        cache.computeIfAbsent(uri, T1, u -> content(requests, 1000));
+        assertThat(requests.get(), is(2));
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    private static byte[] content(AtomicInteger requests, int size) {
+        requests.incrementAndGet();
+        return new byte[size];
+    }
+
+    private static CorepoSharedCache cache(long size) {
+        CorepoSharedCache cache = new CorepoSharedCache();
+        cache.config = new Config(Map.of()) {
+            @Override
+            public long getCorepoCacheSize() {
+                return size;
+            }
+        };
+        cache.hits = new BeanFactory.MockCounter();
+        cache.misses = new BeanFactory.MockCounter();
+        cache.evictions = new BeanFactory.MockCounter();
+        cache.init();
+        return cache;
+    }
+}
@@ -0,0 +1,57 @@
+package dk.dbc.search.work.presentation.worker;
+
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class JavaScriptEnvironmentIT extends JpaBase {
+
+    @Test
+    public void testPoolGrowsAndShrinks() throws Exception {
+        System.out.println("testPoolGrowsAndShrinks");
+        withConfigEnv("JS_POOL_SIZE=2", "JS_POOL_MIN_IDLE=0", "JS_POOL_IDLE_TIMEOUT=1s")
+                .jpaWithBeans(bf -> {
+                    JavaScriptEnvironment env = bf.getJavaScriptEnvironment();
+                    assertThat(env.getIdle(), is(0));
+                    int active = env.jsWorkers.exec(outer -> env.jsWorkers.exec(inner -> env.getActive()).value()).value();
+                    assertThat(active, is(2));
+                    assertThat(env.getIdle(), is(2));
+
+                    Instant timeout = Instant.now().plusSeconds(10);
+                    while (env.getIdle() > 0 && Instant.now().isBefore(timeout)) {
+                        Thread.sleep(100);
+                    }
+                    assertThat(env.getIdle(), is(0));
+                });
+    }
+
+    @Test
+    public void testSpareIsPreparedInTheBackground() throws Exception {
+        System.out.println("testSpareIsPreparedInTheBackground");
+        withConfigEnv("JS_POOL_SIZE=3", "JS_POOL_MIN_IDLE=1", "JS_POOL_IDLE_TIMEOUT=1m")
+                .jpaWithBeans(bf -> {
+                    JavaScriptEnvironment env = bf.getJavaScriptEnvironment();
+                    // The pool is filled up to min idle after startup
+                    assertThat(awaitIdle(env, 1), is(1));
+                    // Borrowing the last idle one, prepares a spare
+                    int idle = env.jsWorkers.exec(js -> awaitIdle(env, 1)).value();
+                    assertThat(idle, is(1));
+                    assertThat(env.getActive(), is(0));
+                    assertThat(env.getIdle(), is(2));
+                });
+    }
+
+    private static int awaitIdle(JavaScriptEnvironment env, int idle) throws InterruptedException {
+        Instant timeout = Instant.now().plusSeconds(10);
+        while (env.getIdle() < idle && Instant.now().isBefore(timeout)) {
+            Thread.sleep(100);
+        }
+        return env.getIdle();
+    }
+}
@@ -95,7 +95,9 @@ public class JpaBase extends dk.dbc.search.work.presentation.api.jpa.JpaBase<Bea
         try (Connection connection = wpPg.createConnection() ;
              Statement stmt = connection.createStatement()) {
             stmt.executeUpdate("TRUNCATE workObjectV" + JsonSchemaVersion.VERSION);
+            stmt.executeUpdate("TRUNCATE workDeletedV" + JsonSchemaVersion.VERSION);
             stmt.executeUpdate("TRUNCATE workContainsV" + JsonSchemaVersion.VERSION);
+            stmt.executeUpdate("TRUNCATE workRelationsV" + JsonSchemaVersion.VERSION);
             stmt.executeUpdate("TRUNCATE cachev" + JsonSchemaVersion.VERSION);
         } catch (SQLException ex) {
             log.error("Could not clean corepo queue: {}", ex.getMessage());
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ManifestationBuildExecutorTest {
+
+    private ManifestationBuildExecutor executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = new ManifestationBuildExecutor();
+        executor.threadFactory = Executors.defaultThreadFactory();
+        executor.submitWait = new BeanFactory.MockHistogram();
+        executor.queueWait = new BeanFactory.MockHistogram();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.destroy();
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        System.out.println("testOrder");
+        executor.start(1, 10);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        // Occupy the only thread
+        executor.newWork().submit(true, () -> latch.await(10, TimeUnit.SECONDS));
+
+        ManifestationBuildExecutor.Work first = executor.newWork();
+        ManifestationBuildExecutor.Work second = executor.newWork();
+        second.submit(true, () -> order.add("second-primary"));
+        first.submit(false, () -> order.add("first-other"));
+        first.submit(true, () -> order.add("first-primary"));
+        Future<Boolean> last = second.submit(false, () -> order.add("second-other"));
+
+        latch.countDown();
+        last.get(10, TimeUnit.SECONDS);
+        assertThat(order, contains("first-primary", "first-other", "second-primary", "second-other"));
+        assertThat(((BeanFactory.MockHistogram) executor.queueWait).getCount(), is(5L));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        System.out.println("testBackpressure");
+        executor.start(1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        ManifestationBuildExecutor.Work work = executor.newWork();
+
+        Future<Boolean> running = work.submit(true, () -> latch.await(10, TimeUnit.SECONDS));
+        Future<String> queued = work.submit(true, () -> "queued");
+
+        // The third has to wait for the first to complete
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            work.submit(true, () -> "blocked");
+            submitted.countDown();
+        });
+        thread.start();
+        assertThat(submitted.await(100, TimeUnit.MILLISECONDS), is(false));
+
+        latch.countDown();
+        assertThat(submitted.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(running.get(), is(true));
+        assertThat(queued.get(), is("queued"));
+        thread.join();
+        assertThat(((BeanFactory.MockHistogram) executor.submitWait).getSum(), greaterThanOrEqualTo(50_000L));
+    }
+
+    @Test
+    public void testCancelReleasesQueueSlot() throws Exception {
+        System.out.println("testCancelReleasesQueueSlot");
+        executor.start(1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        ManifestationBuildExecutor.Work work = executor.newWork();
+
+        CompletableFuture<Boolean> running = work.submit(true, () -> latch.await(10, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = work.submit(true, () -> "queued");
+        assertThat(queued.cancel(false), is(true));
+
+        // The slot of the cancelled is free
+        CompletableFuture<String> next = work.submit(true, () -> "next");
+        latch.countDown();
+        assertThat(next.get(10, TimeUnit.SECONDS), is("next"));
+        assertThat(running.get(), is(true));
+        assertThat(queued.isCancelled(), is(true));
+    }
+}
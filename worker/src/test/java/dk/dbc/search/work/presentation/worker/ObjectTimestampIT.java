@@ -24,6 +24,8 @@ import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import javax.ws.rs.NotFoundException;
 import org.junit.jupiter.api.Test;
 
@@ -82,6 +84,33 @@ public class ObjectTimestampIT extends JpaBase {
                 });
     }
 
+    @Test
+    public void testBulkModificationTime() throws Exception {
+        System.out.println("testBulkModificationTime");
+
+        jpa(em -> {
+            WorkObjectEntity work = WorkObjectEntity.from(em, "work-of:1");
+            work.setContent(new WorkInformation());
+            work.setCorepoWorkId("work:1");
+            work.setModified(Timestamp.from(Instant.parse("2020-01-02T12:34:56.789Z")));
+            work.save();
+
+            CacheEntity cache = CacheEntity.from(em, "1");
+            cache.setContent(new ManifestationInformation());
+            cache.setModified(Timestamp.from(Instant.parse("1970-12-31T23:59:59.909Z")));
+            cache.save();
+        });
+
+        withConfigEnv()
+                .jpaWithBeans(beanfactory -> {
+                    ObjectTimestamp bean = beanfactory.getObjectTimestamp();
+                    Map<String, String> timestamps = bean.getTimestamps(List.of("2", "1", "work-of:1"));
+                    System.out.println("timestamps = " + timestamps);
+                    assertThat(timestamps, is(Map.of("1", "1970-12-31T23:59:59.909Z",
+                                                      "work-of:1", "2020-01-02T12:34:56.789Z")));
+                });
+    }
+
     @Test
     public void testNotFound() throws Exception {
         System.out.println("testNotFound");
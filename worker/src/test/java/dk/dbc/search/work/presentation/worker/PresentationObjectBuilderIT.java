@@ -66,7 +66,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                 .jpaWithBeans(beanFactory -> {
                     beanFactory.withWorkTreeBuilder(new WorkTreeBuilder() {
                         @Override
-                        public WorkTree buildTree(String corepoWorkId) {
+                        public WorkTree buildTree(CorepoCacheScope scope, String corepoWorkId) {
                             return new WorkTree(corepoWorkId, Instant.now());
                         }
                     });
@@ -80,6 +80,39 @@ public class PresentationObjectBuilderIT extends JpaBase {
         assertThat(countWorkContainsEntries(), is(0));
     }
 
+    @Test
+    public void testUnchangedWorkIsSkipped() throws Exception {
+        System.out.println("testUnchangedWorkIsSkipped");
+
+        withConfigEnv()
+                .jpaWithBeans(beanFactory -> {
+                    PresentationObjectBuilder bean = beanFactory.getPresentationObjectBuilder();
+                    bean.process("work:62", "track-me");
+                    assertThat(bean.unchanged.getCount(), is(0L));
+                });
+        jpa(em -> {
+            WorkObjectEntity work = WorkObjectEntity.readOnlyFromCorepoWorkId(em, "work:62");
+            assertThat(work.getFingerprint(), notNullValue());
+        });
+
+        System.out.println("  Process same work again");
+        withConfigEnv()
+                .jpaWithBeans(beanFactory -> {
+                    PresentationObjectBuilder bean = beanFactory.getPresentationObjectBuilder();
+                    bean.process("work:62", "track-me");
+                    assertThat(bean.unchanged.getCount(), is(1L));
+                });
+
+        System.out.println("  Process same work again, forcing a rebuild");
+        withConfigEnv("WORK_FINGERPRINT=false")
+                .jpaWithBeans(beanFactory -> {
+                    PresentationObjectBuilder bean = beanFactory.getPresentationObjectBuilder();
+                    bean.process("work:62", "track-me");
+                    assertThat(bean.unchanged.getCount(), is(0L));
+                });
+        assertThat(countWorkObjectEntries(), is(1));
+    }
+
     @Test
     public void testADeletedWork() throws Exception {
         System.out.println("testADeletedWork");
@@ -89,7 +122,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                 .jpaWithBeans(beanFactory -> {
                     beanFactory.withWorkTreeBuilder(new WorkTreeBuilder() {
                         @Override
-                        public WorkTree buildTree(String corepoWorkId) {
+                        public WorkTree buildTree(CorepoCacheScope scope, String corepoWorkId) {
                             return new WorkTree(corepoWorkId, Instant.now());
                         }
                     });
@@ -114,7 +147,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                     CorepoContentServiceConnector mock = new CorepoContentServiceConnector() {
 
                         @Override
-                        public RelsSys relsSys(String id) {
+                        public RelsSys relsSys(CorepoCacheScope scope, String id) {
                             switch (id) {
                                 case "work:62":
                                     return new RelsSys(null, Arrays.asList("unit:7892641"), true, id);
@@ -128,28 +161,28 @@ public class PresentationObjectBuilderIT extends JpaBase {
                         }
 
                         @Override
-                        public String datastreamContent(String id, String stream) {
-                            return real.datastreamContent(id, stream);
+                        public String datastreamContent(CorepoCacheScope scope, String id, String stream) {
+                            return real.datastreamContent(scope, id, stream);
                         }
 
                         @Override
-                        public DataStreams datastreams(String id) {
-                            return real.datastreams(id);
+                        public DataStreams datastreams(CorepoCacheScope scope, String id) {
+                            return real.datastreams(scope, id);
                         }
 
                         @Override
-                        public DataStreamMetaData datastreamMetaData(String id, String stream) {
-                            return real.datastreamMetaData(id, stream);
+                        public DataStreamMetaData datastreamMetaData(CorepoCacheScope scope, String id, String stream) {
+                            return real.datastreamMetaData(scope, id, stream);
                         }
 
                         @Override
-                        public ObjectMetaData objectMetaData(String id) {
-                            return real.objectMetaData(id);
+                        public ObjectMetaData objectMetaData(CorepoCacheScope scope, String id) {
+                            return real.objectMetaData(scope, id);
                         }
 
                         @Override
-                        public RelsExt relsExt(String id) {
-                            return real.relsExt(id);
+                        public RelsExt relsExt(CorepoCacheScope scope, String id) {
+                            return real.relsExt(scope, id);
                         }
                     };
                     beanFactory.withCorepoContentServiceConnector(mock);
@@ -192,7 +225,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                     CorepoContentServiceConnector mock = new CorepoContentServiceConnector() {
 
                         @Override
-                        public RelsSys relsSys(String id) {
+                        public RelsSys relsSys(CorepoCacheScope scope, String id) {
                             switch (id) {
                                 case "work:1062":
                                     return new RelsSys(null, Arrays.asList("unit:1062"), true, id);
@@ -206,7 +239,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                         }
 
                         @Override
-                        public String datastreamContent(String id, String stream) {
+                        public String datastreamContent(CorepoCacheScope scope, String id, String stream) {
                             switch (id) {
                                 case "work:1062":
                                     id = "work:62";
@@ -217,11 +250,11 @@ public class PresentationObjectBuilderIT extends JpaBase {
                                 default:
                                     break;
                             }
-                            return real.datastreamContent(id, stream);
+                            return real.datastreamContent(scope, id, stream);
                         }
 
                         @Override
-                        public DataStreams datastreams(String id) {
+                        public DataStreams datastreams(CorepoCacheScope scope, String id) {
                             switch (id) {
                                 case "work:1062":
                                     id = "work:62";
@@ -232,11 +265,11 @@ public class PresentationObjectBuilderIT extends JpaBase {
                                 default:
                                     break;
                             }
-                            return real.datastreams(id);
+                            return real.datastreams(scope, id);
                         }
 
                         @Override
-                        public DataStreamMetaData datastreamMetaData(String id, String stream) {
+                        public DataStreamMetaData datastreamMetaData(CorepoCacheScope scope, String id, String stream) {
                             switch (id) {
                                 case "work:1062":
                                     id = "work:62";
@@ -247,11 +280,11 @@ public class PresentationObjectBuilderIT extends JpaBase {
                                 default:
                                     break;
                             }
-                            return real.datastreamMetaData(id, stream);
+                            return real.datastreamMetaData(scope, id, stream);
                         }
 
                         @Override
-                        public ObjectMetaData objectMetaData(String id) {
+                        public ObjectMetaData objectMetaData(CorepoCacheScope scope, String id) {
                             switch (id) {
                                 case "work:1062":
                                     id = "work:62";
@@ -262,11 +295,11 @@ public class PresentationObjectBuilderIT extends JpaBase {
                                 default:
                                     break;
                             }
-                            return real.objectMetaData(id);
+                            return real.objectMetaData(scope, id);
                         }
 
                         @Override
-                        public RelsExt relsExt(String id) {
+                        public RelsExt relsExt(CorepoCacheScope scope, String id) {
                             switch (id) {
                                 case "work:1062":
                                     id = "work:62";
@@ -277,7 +310,7 @@ public class PresentationObjectBuilderIT extends JpaBase {
                                 default:
                                     break;
                             }
-                            return real.relsExt(id);
+                            return real.relsExt(scope, id);
                         }
                     };
                     beanFactory.withCorepoContentServiceConnector(mock);
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker;
+
+import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class SingleFlightCacheBuilderTest {
+
+    private static final Instant T1 = Instant.parse("2020-01-01T00:00:00Z");
+    private static final Instant T2 = Instant.parse("2020-01-02T00:00:00Z");
+
+    @Test
+    public void testConcurrentBuildsAreShared() throws Exception {
+        System.out.println("testConcurrentBuildsAreShared");
+        AtomicInteger builds = new AtomicInteger();
+        CompletableFuture<ManifestationInformation> result = new CompletableFuture<>();
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+
+        SingleFlightCacheBuilder.Flight first = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        SingleFlightCacheBuilder.Flight second = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        assertThat(builds.get(), is(1));
+        assertThat(first.isOwner(), is(true));
+        assertThat(second.isOwner(), is(false));
+        assertThat(singleFlight.shared.getCount(), is(1L));
+
+        ManifestationInformation mi = new ManifestationInformation();
+        result.complete(mi);
+        assertThat(second.get(), sameInstance(mi));
+        assertThat(singleFlight.sharedWait.getCount(), is(1L));
+        assertThat(first.get(), sameInstance(mi));
+
+        // Built, but not saved - join it
+        SingleFlightCacheBuilder.Flight third = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        assertThat(third.isOwner(), is(false));
+        assertThat(third.get(), sameInstance(mi));
+        second.release();
+        third.release();
+        assertThat(singleFlight.inFlight(), is(1));
+        first.release();
+        assertThat(singleFlight.inFlight(), is(0));
+
+        // Saved - start a new build
+        singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        assertThat(builds.get(), is(2));
+    }
+
+    @Test
+    public void testDifferentModifiedIsNotShared() throws Exception {
+        System.out.println("testDifferentModifiedIsNotShared");
+        AtomicInteger builds = new AtomicInteger();
+        CompletableFuture<ManifestationInformation> result = new CompletableFuture<>();
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+
+        singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        SingleFlightCacheBuilder.Flight other = singleFlight.build(new CacheContentBuilder("a", T2, false), start(builds, result));
+        assertThat(builds.get(), is(2));
+        assertThat(other.isOwner(), is(true));
+        assertThat(singleFlight.shared.getCount(), is(0L));
+    }
+
+    @Test
+    public void testFailedBuildIsReleased() throws Exception {
+        System.out.println("testFailedBuildIsReleased");
+        AtomicInteger builds = new AtomicInteger();
+        CompletableFuture<ManifestationInformation> result = new CompletableFuture<>();
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+
+        SingleFlightCacheBuilder.Flight first = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        SingleFlightCacheBuilder.Flight second = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        // Released when the build fails, the owner doesn't have to wait for it
+        result.completeExceptionally(new IllegalStateException("failed"));
+        assertThat(singleFlight.inFlight(), is(0));
+        assertThrows(ExecutionException.class, second::get);
+        assertThrows(ExecutionException.class, first::get);
+    }
+
+    @Test
+    public void testCancelledBuildIsReleased() throws Exception {
+        System.out.println("testCancelledBuildIsReleased");
+        AtomicInteger builds = new AtomicInteger();
+        CompletableFuture<ManifestationInformation> result = new CompletableFuture<>();
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+
+        SingleFlightCacheBuilder.Flight first = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        SingleFlightCacheBuilder.Flight second = singleFlight.build(new CacheContentBuilder("a", T1, false), start(builds, result));
+        assertThat(second.cancel(false), is(false));
+        assertThat(first.cancel(false), is(true));
+        assertThat(first.isCancelled(), is(true));
+        assertThat(singleFlight.inFlight(), is(0));
+        ExecutionException ex = assertThrows(ExecutionException.class, second::get);
+        assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void testBuildIsStartedOutsideTheRegistry() throws Exception {
+        System.out.println("testBuildIsStartedOutsideTheRegistry");
+        CompletableFuture<ManifestationInformation> result = new CompletableFuture<>();
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+        AtomicReference<SingleFlightCacheBuilder.Flight> joined = new AtomicReference<>();
+
+        SingleFlightCacheBuilder.Flight first = singleFlight.build(new CacheContentBuilder("a", T1, false), () -> {
+            // Another job joins while this one is (blocked) starting the build
+            joined.set(singleFlight.build(new CacheContentBuilder("a", T1, false), () -> fail("Build started twice")));
+            return result;
+        });
+        assertThat(first.isOwner(), is(true));
+        assertThat(joined.get().isOwner(), is(false));
+        assertThat(joined.get().isDone(), is(false));
+
+        ManifestationInformation mi = new ManifestationInformation();
+        result.complete(mi);
+        assertThat(joined.get().get(), sameInstance(mi));
+        assertThat(first.get(), sameInstance(mi));
+        first.release();
+        assertThat(singleFlight.inFlight(), is(0));
+    }
+
+    @Test
+    public void testFailedStartIsReleased() throws Exception {
+        System.out.println("testFailedStartIsReleased");
+        SingleFlightCacheBuilder singleFlight = singleFlight();
+        AtomicReference<SingleFlightCacheBuilder.Flight> joined = new AtomicReference<>();
+
+        assertThrows(IllegalStateException.class, () -> singleFlight.build(new CacheContentBuilder("a", T1, false), () -> {
+            joined.set(singleFlight.build(new CacheContentBuilder("a", T1, false), () -> fail("Build started twice")));
+            throw new IllegalStateException("queue closed");
+        }));
+        assertThat(singleFlight.inFlight(), is(0));
+        assertThat(joined.get().isDone(), is(true));
+        ExecutionException ex = assertThrows(ExecutionException.class, joined.get()::get);
+        assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    private static SingleFlightCacheBuilder singleFlight() {
+        SingleFlightCacheBuilder singleFlight = new SingleFlightCacheBuilder();
+        singleFlight.shared = new BeanFactory.MockCounter();
+        singleFlight.sharedWait = new BeanFactory.MockHistogram();
+        return singleFlight;
+    }
+
+    private static Supplier<CompletableFuture<ManifestationInformation>> start(AtomicInteger builds, CompletableFuture<ManifestationInformation> result) {
+        return () -> {
+            builds.incrementAndGet();
+            return result;
+        };
+    }
+}
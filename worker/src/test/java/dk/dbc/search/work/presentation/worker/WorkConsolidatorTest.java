@@ -20,8 +20,11 @@ package dk.dbc.search.work.presentation.worker;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import dk.dbc.search.work.presentation.api.jpa.CacheEntity;
 import dk.dbc.search.work.presentation.api.pojo.ManifestationInformation;
+import dk.dbc.search.work.presentation.api.jpa.WorkObjectEntity;
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import dk.dbc.search.work.presentation.api.pojo.WorkPartials;
 import dk.dbc.search.work.presentation.worker.corepo.RelsExtType;
 import dk.dbc.search.work.presentation.worker.tree.CacheContentBuilder;
 import dk.dbc.search.work.presentation.worker.tree.ObjectTree;
@@ -33,23 +36,33 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
-import javax.ejb.AsyncResult;
+import javax.ejb.EJBException;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  *
@@ -69,17 +82,53 @@ public class WorkConsolidatorTest {
         WorkTree workTree = workTreeFrom(source);
         workTree.prettyPrint(System.out::println);
 
+        List<String> built = new CopyOnWriteArrayList<>();
         WorkConsolidator workConsolidator = new WorkConsolidator();
         workConsolidator.asyncCacheContentBuilder = new AsyncCacheContentBuilder() {
             @Override
-            public Future<ManifestationInformation> getFromCache(CacheContentBuilder dataBuilder, Map<String, String> mdc, boolean delete) {
+            public Map<String, CacheEntity> getFromCache(Collection<String> manifestationIds) {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public ManifestationInformation buildContent(CorepoCacheScope scope, CacheContentBuilder dataBuilder) {
                 ManifestationInformation manifestationInformation = source.getManifestationInformation(dataBuilder.getManifestationId());
                 System.out.println("manifestationInformation = " + manifestationInformation);
-                return new AsyncResult<>(manifestationInformation);
+                built.add(dataBuilder.getManifestationId());
+                return manifestationInformation;
+            }
+
+            @Override
+            public void saveToCache(Collection<CacheEntity> built, Collection<String> deleted) {
             }
         };
+        workConsolidator.singleFlightCacheBuilder = new SingleFlightCacheBuilder();
+        workConsolidator.singleFlightCacheBuilder.shared = new BeanFactory.MockCounter();
+        workConsolidator.singleFlightCacheBuilder.sharedWait = new BeanFactory.MockHistogram();
+        workConsolidator.manifestationBuildExecutor = new ManifestationBuildExecutor();
+        workConsolidator.manifestationBuildExecutor.threadFactory = Executors.defaultThreadFactory();
+        workConsolidator.manifestationBuildExecutor.submitWait = new BeanFactory.MockHistogram();
+        workConsolidator.manifestationBuildExecutor.queueWait = new BeanFactory.MockHistogram();
+        workConsolidator.manifestationBuildExecutor.start(2, 2);
+
+        WorkInformation actual;
+        WorkInformation incremental;
+        try {
+            WorkPartials partials = new WorkPartials();
+            actual = workConsolidator.buildWorkInformation(null, workTree, "corepo:any", null, partials);
 
-        WorkInformation actual = workConsolidator.buildWorkInformation(workTree, "corepo:any");
+            System.out.println(" - Rebuild with no changed units");
+            built.clear();
+            WorkObjectEntity previous = new WorkObjectEntity(actual.workId, "corepo:any", Timestamp.from(Instant.now()),
+                                                             O.readValue(O.writeValueAsBytes(actual), WorkInformation.class));
+            previous.setPartials(O.readValue(O.writeValueAsBytes(partials), WorkPartials.class));
+            incremental = workConsolidator.buildWorkInformation(null, workTree, "corepo:any", previous, new WorkPartials());
+        } finally {
+            workConsolidator.manifestationBuildExecutor.destroy();
+        }
+        String ownerUnitId = workTree.primaryUnit();
+        assertThat(built, contains(workTree.get(ownerUnitId).primaryObject(ownerUnitId)));
+        assertThat(incremental, is(actual));
 
         WorkInformation expected = O.readValue(dir.resolve("expected.json").toFile(), WorkInformation.class);
 
@@ -97,6 +146,88 @@ public class WorkConsolidatorTest {
         assertThat("testBuildWorkInformation: " + directory.getName(), actual, is(expected));
     }
 
+    @Test
+    public void testChangedManifestationIds() throws Exception {
+        System.out.println("testChangedManifestationIds");
+        WorkInformation before = workWith(manifestation("a", "book"), manifestation("b", "book"), manifestation("c", "book"));
+        WorkInformation after = workWith(manifestation("a", "book"), manifestation("b", "ebook"), manifestation("d", "book"));
+
+        assertThat(WorkConsolidator.changedManifestationIds(before, after), containsInAnyOrder("b", "c", "d"));
+        assertThat(WorkConsolidator.changedManifestationIds(before, before), empty());
+        assertThat(WorkConsolidator.changedManifestationIds(before, null), containsInAnyOrder("a", "b", "c"));
+    }
+
+    @Test
+    public void testFailedSubmitAbandonsStartedBuilds() throws Exception {
+        System.out.println("testFailedSubmitAbandonsStartedBuilds");
+        Source source = readSource(new File(WorkConsolidatorTest.class.getClassLoader()
+                .getResource("WorkConsolidator/include-relations/source.json").getFile()));
+        WorkTree workTree = workTreeFrom(source);
+
+        CountDownLatch failed = new CountDownLatch(1);
+        WorkConsolidator workConsolidator = new WorkConsolidator();
+        workConsolidator.asyncCacheContentBuilder = new AsyncCacheContentBuilder() {
+            @Override
+            public Map<String, CacheEntity> getFromCache(Collection<String> manifestationIds) {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public ManifestationInformation buildContent(CorepoCacheScope scope, CacheContentBuilder dataBuilder) {
+                try {
+                    failed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return source.getManifestationInformation(dataBuilder.getManifestationId());
+            }
+        };
+        workConsolidator.singleFlightCacheBuilder = new SingleFlightCacheBuilder();
+        workConsolidator.singleFlightCacheBuilder.shared = new BeanFactory.MockCounter();
+        workConsolidator.singleFlightCacheBuilder.sharedWait = new BeanFactory.MockHistogram();
+        AtomicInteger submitted = new AtomicInteger();
+        workConsolidator.manifestationBuildExecutor = new ManifestationBuildExecutor() {
+            @Override
+            public Work newWork() {
+                return new Work(1) {
+                    @Override
+                    public <T> CompletableFuture<T> submit(boolean primary, Callable<T> build) {
+                        if (submitted.incrementAndGet() == 3) {
+                            failed.countDown();
+                            throw new EJBException("Could not queue a manifestation build");
+                        }
+                        return super.submit(primary, build);
+                    }
+                };
+            }
+        };
+        workConsolidator.manifestationBuildExecutor.threadFactory = Executors.defaultThreadFactory();
+        workConsolidator.manifestationBuildExecutor.submitWait = new BeanFactory.MockHistogram();
+        workConsolidator.manifestationBuildExecutor.queueWait = new BeanFactory.MockHistogram();
+        workConsolidator.manifestationBuildExecutor.start(1, 2);
+
+        try {
+            assertThrows(EJBException.class, () -> workConsolidator.buildManifestationCache(null, workTree, Collections.emptySet()));
+            assertThat(submitted.get(), is(3));
+            assertThat(workConsolidator.singleFlightCacheBuilder.inFlight(), is(0));
+        } finally {
+            workConsolidator.manifestationBuildExecutor.destroy();
+        }
+    }
+
+    private static WorkInformation workWith(ManifestationInformation... manifestations) {
+        WorkInformation work = new WorkInformation();
+        work.dbUnitInformation = Map.of("unit:1", Set.of(manifestations));
+        return work;
+    }
+
+    private static ManifestationInformation manifestation(String manifestationId, String materialType) {
+        ManifestationInformation manifestation = new ManifestationInformation();
+        manifestation.manifestationId = manifestationId;
+        manifestation.materialTypes = List.of(materialType);
+        return manifestation;
+    }
+
     Source readSource(File sourceFile) throws IOException {
         Source source = O.readValue(sourceFile, Source.class);
         source.units.values()
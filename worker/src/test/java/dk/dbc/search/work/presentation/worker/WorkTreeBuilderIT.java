@@ -19,8 +19,10 @@
 package dk.dbc.search.work.presentation.worker;
 
 import dk.dbc.search.work.presentation.api.pojo.WorkInformation;
+import dk.dbc.search.work.presentation.api.pojo.WorkPartials;
 import dk.dbc.search.work.presentation.worker.tree.WorkTree;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -33,6 +35,8 @@ import static org.hamcrest.Matchers.*;
  */
 public class WorkTreeBuilderIT extends JpaBase {
 
+    private static final int REQUEST_DELAY_MS = 50;
+
     @Test
     public void testWorkDoesNotExist() throws Exception {
         System.out.println("testWorkDoesNotExist");
@@ -40,9 +44,11 @@ public class WorkTreeBuilderIT extends JpaBase {
                 RuntimeException.class, () -> {
             withConfigEnv()
                     .jpaWithBeans(bf -> {
-                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                        WorkTree tree = workTreeBuilder.buildTree("work:3");
-                        tree.prettyPrint(System.out::println);
+                        try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                            WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                            WorkTree tree = workTreeBuilder.buildTree(scope, "work:3");
+                            tree.prettyPrint(System.out::println);
+                        }
                     });
         });
         assertThat(ex.getMessage(), containsString("HTTP 404 Not Found"));
@@ -54,10 +60,12 @@ public class WorkTreeBuilderIT extends JpaBase {
         System.out.println("testWorkDeleted");
         withConfigEnv()
                 .jpaWithBeans(bf -> {
-                    WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                    WorkTree tree = workTreeBuilder.buildTree("work:27827958");
-                    tree.prettyPrint(System.out::println);
-                    assertThat(tree.primaryUnit(), nullValue());
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                        WorkTree tree = workTreeBuilder.buildTree(scope, "work:27827958");
+                        tree.prettyPrint(System.out::println);
+                        assertThat(tree.primaryUnit(), nullValue());
+                    }
                 });
     }
 
@@ -66,11 +74,13 @@ public class WorkTreeBuilderIT extends JpaBase {
         System.out.println("testRelationIsFound");
         withConfigEnv()
                 .jpaWithBeans(bf -> {
-                    WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                    WorkTree tree = workTreeBuilder.buildTree("work:35940818");
-                    tree.prettyPrint(System.out::println);
-                    assertThat(tree.getRelations(), notNullValue());
-                    assertThat(tree.getRelations().isEmpty(), is(false));
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                        WorkTree tree = workTreeBuilder.buildTree(scope, "work:35940818");
+                        tree.prettyPrint(System.out::println);
+                        assertThat(tree.getRelations(), notNullValue());
+                        assertThat(tree.getRelations().isEmpty(), is(false));
+                    }
                 });
     }
 
@@ -79,26 +89,135 @@ public class WorkTreeBuilderIT extends JpaBase {
         System.out.println("onlyCommonDataObject");
         withConfigEnv()
                 .jpaWithBeans(bf -> {
-                    WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                    WorkTree tree = workTreeBuilder.buildTree("work:1573470");
-                    tree.prettyPrint(System.out::println);
-                    Set<String> extractManifestationIds = tree.extractManifestationIds();
-                    System.out.println("extractManifestationIds = " + extractManifestationIds);
-                    assertThat(extractManifestationIds, containsInAnyOrder("873310-katalog:90171321", "870970-forsk:90171321"));
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                        WorkTree tree = workTreeBuilder.buildTree(scope, "work:1573470");
+                        tree.prettyPrint(System.out::println);
+                        Set<String> extractManifestationIds = tree.extractManifestationIds();
+                        System.out.println("extractManifestationIds = " + extractManifestationIds);
+                        assertThat(extractManifestationIds, containsInAnyOrder("873310-katalog:90171321", "870970-forsk:90171321"));
+                    }
+                });
+    }
+
+    @Test
+    public void testPrefetchOverlapsRequests() throws Exception {
+        System.out.println("testPrefetchOverlapsRequests");
+        String corepoWorkId = "work:35940818";
+        wms.setGlobalFixedDelay(REQUEST_DELAY_MS);
+        wms.resetRequests();
+        try {
+            AtomicReference<WorkTree> serialTree = new AtomicReference<>();
+            withConfigEnv("COREPO_PREFETCH=false", "TREE_BUILD_THREADS=0")
+                    .jpaWithBeans(bf -> {
+                        try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                            serialTree.set(bf.getWorkTreeBuilder().buildTree(scope, corepoWorkId));
+                        }
+                    });
+            int serialInFlight = peakInFlight();
+            wms.resetRequests();
+
+            AtomicReference<WorkTree> prefetchTree = new AtomicReference<>();
+            withConfigEnv("COREPO_PREFETCH=true", "TREE_BUILD_THREADS=0")
+                    .jpaWithBeans(bf -> {
+                        try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                            prefetchTree.set(bf.getWorkTreeBuilder().buildTree(scope, corepoWorkId));
+                        }
+                    });
+            int prefetchInFlight = peakInFlight();
+            System.out.println("serialInFlight = " + serialInFlight + ", prefetchInFlight = " + prefetchInFlight);
+            assertThat(prefetchTree.get(), is(serialTree.get()));
+            assertThat(serialInFlight, is(1));
+            assertThat(prefetchInFlight, greaterThan(1));
+        } finally {
+            wms.setGlobalFixedDelay(0);
+        }
+    }
+
+    @Test
+    public void testParallelTreeOverlapsRequests() throws Exception {
+        System.out.println("testParallelTreeOverlapsRequests");
+        String corepoWorkId = "work:35940818";
+        wms.setGlobalFixedDelay(REQUEST_DELAY_MS);
+        wms.resetRequests();
+        try {
+            AtomicReference<WorkTree> serialTree = new AtomicReference<>();
+            withConfigEnv("COREPO_PREFETCH=false", "TREE_BUILD_THREADS=0")
+                    .jpaWithBeans(bf -> {
+                        try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                            serialTree.set(bf.getWorkTreeBuilder().buildTree(scope, corepoWorkId));
+                        }
+                    });
+            int serialInFlight = peakInFlight();
+            wms.resetRequests();
+
+            AtomicReference<WorkTree> parallelTree = new AtomicReference<>();
+            withConfigEnv("COREPO_PREFETCH=false", "TREE_BUILD_THREADS=4")
+                    .jpaWithBeans(bf -> {
+                        try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                            parallelTree.set(bf.getWorkTreeBuilder().buildTree(scope, corepoWorkId));
+                        }
+                    });
+            int parallelInFlight = peakInFlight();
+            System.out.println("serialInFlight = " + serialInFlight + ", parallelInFlight = " + parallelInFlight);
+            assertThat(parallelTree.get(), is(serialTree.get()));
+            assertThat(serialInFlight, is(1));
+            assertThat(parallelInFlight, greaterThan(1));
+        } finally {
+            wms.setGlobalFixedDelay(0);
+        }
+    }
+
+    @Test
+    public void testParallelWorkDeleted() throws Exception {
+        System.out.println("testParallelWorkDeleted");
+        withConfigEnv("TREE_BUILD_THREADS=4")
+                .jpaWithBeans(bf -> {
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTree tree = bf.getWorkTreeBuilder().buildTree(scope, "work:27827958");
+                        assertThat(tree.primaryUnit(), nullValue());
+                    }
                 });
     }
 
+    /**
+     * Find the largest number of requests that WireMock has seen in flight at
+     * the same time
+     * <p>
+     * Every request is held for at least {@link #REQUEST_DELAY_MS}, so a request
+     * logged less than half that time after another one, was sent before the
+     * other was answered.
+     *
+     * @return peak number of concurrent requests
+     */
+    private static int peakInFlight() {
+        long[] logged = wms.getAllServeEvents().stream()
+                .mapToLong(e -> e.getRequest().getLoggedDate().getTime())
+                .sorted()
+                .toArray();
+        int peak = 0;
+        for (int start = 0, end = 0 ; end < logged.length ; end++) {
+            while (logged[end] - logged[start] >= REQUEST_DELAY_MS / 2)
+                start++;
+            peak = Math.max(peak, end - start + 1);
+        }
+        return peak;
+    }
+
     public void testDjaevlekrig() throws Exception {
         System.out.println("testDjaevlekrig");
         String corepoWorkId = "work:837840";
         withConfigEnv()
                 .jpaWithBeans(bf -> {
-                    WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                    WorkTree tree = workTreeBuilder.buildTree(corepoWorkId);
-                    tree.prettyPrint(System.out::println);
-                    WorkConsolidator workConsolidator = bf.getWorkConsolidator();
-                    WorkInformation content = workConsolidator.buildWorkInformation(tree, corepoWorkId);
-                    workConsolidator.saveWork(corepoWorkId, tree, content);
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                        WorkTree tree = workTreeBuilder.buildTree(scope, corepoWorkId);
+                        tree.prettyPrint(System.out::println);
+                        WorkConsolidator workConsolidator = bf.getWorkConsolidator();
+                        WorkPartials partials = new WorkPartials();
+                        WorkInformation content = workConsolidator.buildWorkInformation(scope, tree, corepoWorkId, null, partials);
+                        workConsolidator.saveWork(corepoWorkId, tree, content, partials);
+                    }
                 });
     }
 
@@ -107,12 +226,15 @@ public class WorkTreeBuilderIT extends JpaBase {
         String corepoWorkId = "work:754877";
         withConfigEnv()
                 .jpaWithBeans(bf -> {
-                    WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
-                    WorkTree tree = workTreeBuilder.buildTree(corepoWorkId);
-                    tree.prettyPrint(System.out::println);
-                    WorkConsolidator workConsolidator = bf.getWorkConsolidator();
-                    WorkInformation content = workConsolidator.buildWorkInformation(tree, corepoWorkId);
-                    workConsolidator.saveWork(corepoWorkId, tree, content);
+                    try (CorepoCacheScope scope = bf.getCorepoContentService().cacheScope()) {
+                        WorkTreeBuilder workTreeBuilder = bf.getWorkTreeBuilder();
+                        WorkTree tree = workTreeBuilder.buildTree(scope, corepoWorkId);
+                        tree.prettyPrint(System.out::println);
+                        WorkConsolidator workConsolidator = bf.getWorkConsolidator();
+                        WorkPartials partials = new WorkPartials();
+                        WorkInformation content = workConsolidator.buildWorkInformation(scope, tree, corepoWorkId, null, partials);
+                        workConsolidator.saveWork(corepoWorkId, tree, content, partials);
+                    }
                 });
     }
 }
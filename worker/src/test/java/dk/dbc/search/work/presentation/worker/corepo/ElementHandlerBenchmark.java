@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker.corepo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Parse throughput of the corepo documents, that are parsed for every object
+ * in a work
+ * <p>
+ * Not run as a part of the build. Run it with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dk.dbc.search.work.presentation.worker.corepo.ElementHandlerBenchmark}
+ * (allocation rates are reported using the gc profiler)
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementHandlerBenchmark {
+
+    private static final String TIMESTAMP = "2018-11-24T23:58:36.175+01:00";
+
+    private byte[] relsSys;
+    private byte[] relsExt;
+    private byte[] objectMetaData;
+    private byte[] dataStreamMetaData;
+
+    @Setup
+    public void setup() throws IOException {
+        relsSys = resource("RelsSys/unit-primary.xml");
+        relsExt = resource("RelsExt/content.xml");
+        objectMetaData = resource("ObjectMetaData/active.xml");
+        dataStreamMetaData = resource("DataStreamMetaData/active.xml");
+    }
+
+    @Benchmark
+    public RelsSys relsSys() {
+        return new RelsSys(new ByteArrayInputStream(relsSys));
+    }
+
+    @Benchmark
+    public ObjectMetaData objectMetaData() {
+        return new ObjectMetaData(new ByteArrayInputStream(objectMetaData));
+    }
+
+    @Benchmark
+    public RelsExt relsExt() {
+        return new RelsExt(new ByteArrayInputStream(relsExt));
+    }
+
+    @Benchmark
+    public DataStreamMetaData dataStreamMetaData() {
+        return new DataStreamMetaData(new ByteArrayInputStream(dataStreamMetaData));
+    }
+
+    @Benchmark
+    public Instant parseTimeStamp() {
+        return ElementHandler.parseTimeStamp(TIMESTAMP);
+    }
+
+    @Benchmark
+    public Instant parseTimeStampWithFormatter() {
+        return ElementHandler.parseTimeStampWithFormatter(TIMESTAMP);
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream is = ElementHandlerBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            if (is == null)
+                throw new IllegalArgumentException("Cannot find resource: " + name);
+            return is.readAllBytes();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ElementHandlerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}
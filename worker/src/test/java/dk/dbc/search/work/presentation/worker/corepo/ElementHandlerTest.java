@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker.corepo;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ElementHandlerTest {
+
+    @Test
+    public void testParserIsReusableAfterError() throws Exception {
+        System.out.println("testParserIsReusableAfterError");
+        assertThrows(IllegalStateException.class,
+                     () -> new ObjectMetaData(new ByteArrayInputStream("<objectProfile pid=\"".getBytes(UTF_8))));
+        for (int i = 0 ; i < 2 ; i++) {
+            try (InputStream is = getClass().getClassLoader().getResourceAsStream("ObjectMetaData/active.xml")) {
+                ObjectMetaData metaData = new ObjectMetaData(is);
+                assertThat(metaData.isActive(), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        System.out.println("testConcurrentParsing");
+        byte[] relsSys;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("RelsSys/work.xml")) {
+            relsSys = is.readAllBytes();
+        }
+        // More threads than the parser pool holds
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0 ; t < 32 ; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0 ; i < 200 ; i++) {
+                        RelsSys parsed = new RelsSys(new ByteArrayInputStream(relsSys));
+                        assertThat(parsed.getChildren(), containsInAnyOrder("unit:2", "unit:331669", "unit:9991306"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        System.out.println("testAttributes");
+        List<String> seen = new ArrayList<>();
+        ElementHandler handler = new ElementHandler() {
+            @Override
+            public void element(String uri, String localName, Map<String, String> attributes, String characters) {
+                seen.add(localName + ":" + attributes.get("b") + ":" + attributes.get("{urn:x}b") + ":" + attributes.get("c") + ":" + characters);
+                if (localName.equals("a"))
+                    assertThat(new HashMap<>(attributes), is(Map.of("b", "1", "{urn:x}b", "1", "c", "2")));
+            }
+        };
+        handler.parse(new ByteArrayInputStream("<a xmlns:x='urn:x' x:b='1' c='2'><d c='3'>text</d><e/></a>".getBytes(UTF_8)));
+        assertThat(seen, contains("a:1:1:2:null", "d:null:null:3:text", "e:null:null:null:"));
+    }
+
+    @Test
+    public void testParseTimeStampKnownValues() throws Exception {
+        System.out.println("testParseTimeStampKnownValues");
+        assertThat(ElementHandler.parseTimeStamp("2018-11-24T23:58:36.175+01:00"), is(Instant.parse("2018-11-24T22:58:36.175Z")));
+        assertThat(ElementHandler.parseTimeStamp("2000-02-29T00:00:00.000Z"), is(Instant.parse("2000-02-29T00:00:00Z")));
+        assertThat(ElementHandler.parseTimeStamp("1969-12-31T23:59:59.999-00:30"), is(Instant.parse("1970-01-01T00:29:59.999Z")));
+        // Not in the fixed layout, but accepted by the formatter
+        assertThat(ElementHandler.parseFixedTimeStamp("2021-04-31T12:00:00.000Z"), nullValue());
+        assertThat(ElementHandler.parseTimeStamp("2021-04-31T12:00:00.000Z"), is(Instant.parse("2021-04-30T12:00:00Z")));
+        assertThrows(RuntimeException.class, () -> ElementHandler.parseTimeStamp("2021-13-01T12:00:00.000Z"));
+    }
+
+    @Test
+    public void testParseTimeStampAsFormatter() throws Exception {
+        System.out.println("testParseTimeStampAsFormatter");
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        long min = Instant.parse("0001-01-02T00:00:00Z").getEpochSecond();
+        long max = Instant.parse("9999-12-30T00:00:00Z").getEpochSecond();
+        Random random = new Random(20201118L);
+        for (int i = 0 ; i < 100_000 ; i++) {
+            Instant instant = Instant.ofEpochSecond(min + (long) ( random.nextDouble() * ( max - min ) ), random.nextInt(1000) * 1_000_000L);
+            ZoneOffset offset = random.nextInt(4) == 0 ? ZoneOffset.UTC : ZoneOffset.ofTotalSeconds(( random.nextInt(2 * 18 * 60 - 1) - 18 * 60 + 1 ) * 60);
+            String ts = OffsetDateTime.ofInstant(instant, offset).format(format);
+            assertThat(ts, ElementHandler.parseFixedTimeStamp(ts), is(instant));
+
+            // Garble one char, and the fast parser either agrees with the formatter, or leaves it to it
+            char[] chars = ts.toCharArray();
+            chars[random.nextInt(chars.length)] = "0123456789+-:.TZx".charAt(random.nextInt(17));
+            String garbled = new String(chars);
+            Instant fast = ElementHandler.parseFixedTimeStamp(garbled);
+            if (fast != null)
+                assertThat(garbled, ElementHandler.parseTimeStampWithFormatter(garbled), is(fast));
+        }
+    }
+}
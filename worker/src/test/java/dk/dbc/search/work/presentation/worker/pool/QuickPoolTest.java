@@ -73,4 +73,50 @@ public class QuickPoolTest {
               });
     }
 
+    @Test
+    public void testListener() throws Exception {
+        System.out.println("testListener");
+        QuickPool<Integer> pool = new QuickPool<>(new AtomicInteger(0)::incrementAndGet);
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger executed = new AtomicInteger();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger destroyed = new AtomicInteger();
+        AtomicInteger invalidated = new AtomicInteger();
+        pool.setListener(new QuickPool.Listener() {
+            @Override
+            public void borrowed(long nanos) {
+                borrowed.incrementAndGet();
+            }
+
+            @Override
+            public void executed(long nanos) {
+                executed.incrementAndGet();
+            }
+
+            @Override
+            public void created() {
+                created.incrementAndGet();
+            }
+
+            @Override
+            public void destroyed() {
+                destroyed.incrementAndGet();
+            }
+
+            @Override
+            public void invalidated() {
+                invalidated.incrementAndGet();
+            }
+        });
+        assertThat(pool.exec(i -> i).value(), is(1));
+        assertThrows(BadObjectException.class, () -> pool.exec(i -> {
+                 throw new BadObjectException();
+             }).value());
+        assertThat(pool.exec(i -> i).value(), is(2));
+        assertThat(borrowed.get(), is(3));
+        assertThat(executed.get(), is(3));
+        assertThat(created.get(), is(2));
+        assertThat(invalidated.get(), is(1));
+        assertThat(destroyed.get(), is(1));
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of work-presentation-worker
+ *
+ * work-presentation-worker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * work-presentation-worker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.search.work.presentation.worker.tree;
+
+import dk.dbc.search.work.presentation.worker.corepo.RelsExtType;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class WorkTreeTest {
+
+    private static final Instant T1 = Instant.parse("2020-01-01T00:00:00.001Z");
+    private static final Instant T2 = Instant.parse("2020-01-01T00:00:00.002Z");
+
+    @Test
+    public void testFingerprintIsStable() throws Exception {
+        System.out.println("testFingerprintIsStable");
+        WorkTree a = tree(T1, "unit:1", "unit:2");
+        WorkTree b = tree(T1, "unit:2", "unit:1");
+        assertThat(a.fingerprint(), is(b.fingerprint()));
+        assertThat(a.fingerprint(), matchesPattern("[0-9a-f]{64}"));
+    }
+
+    @Test
+    public void testFingerprintCoversTimestamps() throws Exception {
+        System.out.println("testFingerprintCoversTimestamps");
+        WorkTree a = tree(T1, "unit:1", "unit:2");
+        WorkTree b = tree(T2, "unit:1", "unit:2");
+        assertThat(a.fingerprint(), not(b.fingerprint()));
+    }
+
+    @Test
+    public void testFingerprintCoversRelations() throws Exception {
+        System.out.println("testFingerprintCoversRelations");
+        WorkTree a = tree(T1, "unit:1", "unit:2");
+        WorkTree b = tree(T1, "unit:1", "unit:2");
+        b.get("unit:1").addRelation(RelsExtType.HAS_REVIEW, "unit:3");
+        assertThat(a.fingerprint(), not(b.fingerprint()));
+    }
+
+    private static WorkTree tree(Instant objectModified, String... units) {
+        WorkTree tree = new WorkTree("work:1", T1);
+        for (String unit : units) {
+            UnitTree unitTree = new UnitTree(unit.equals("unit:1"), T1);
+            String object = "870970-basis:" + unit.substring(5);
+            ObjectTree objectTree = new ObjectTree(true, objectModified);
+            objectTree.put("commonData", new CacheContentBuilder(object, objectModified, false));
+            unitTree.put(object, objectTree);
+            tree.put(unit, unitTree);
+        }
+        return tree;
+    }
+}